@@ -0,0 +1,35 @@
+package com.maya.camera;
+
+import android.graphics.Bitmap;
+
+/** {@link PixelBuffer} view over a mutable ARGB_8888 {@link Bitmap}. */
+final class BitmapPixelBuffer implements PixelBuffer {
+
+    private final Bitmap bitmap;
+
+    BitmapPixelBuffer(Bitmap bitmap) {
+        this.bitmap = bitmap;
+    }
+
+    @Override
+    public int getWidth() {
+        return bitmap.getWidth();
+    }
+
+    @Override
+    public int getHeight() {
+        return bitmap.getHeight();
+    }
+
+    @Override
+    public void readRows(int y, int rows, int[] dst) {
+        int width = bitmap.getWidth();
+        bitmap.getPixels(dst, 0, width, 0, y, width, rows);
+    }
+
+    @Override
+    public void writeRows(int y, int rows, int[] src) {
+        int width = bitmap.getWidth();
+        bitmap.setPixels(src, 0, width, 0, y, width, rows);
+    }
+}
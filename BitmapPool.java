@@ -0,0 +1,44 @@
+package com.maya.camera;
+
+import android.graphics.Bitmap;
+
+/** Pool of mutable bitmaps keyed by width, height and config, for use as decode and draw targets. */
+final class BitmapPool extends SizeKeyedPool<Long, Bitmap> {
+
+    BitmapPool(long maxBytes) {
+        super(maxBytes);
+    }
+
+    /** Returns a mutable bitmap of exactly the requested size; its contents are undefined. */
+    Bitmap lease(int width, int height, Bitmap.Config config) {
+        Bitmap bitmap = acquire(key(width, height, config));
+        if (bitmap != null) {
+            return bitmap;
+        }
+        return Bitmap.createBitmap(width, height, config);
+    }
+
+    /** Hands a bitmap back for reuse. The caller must not touch it afterwards. */
+    void release(Bitmap bitmap) {
+        if (bitmap == null || bitmap.isRecycled()) return;
+        if (!bitmap.isMutable() || bitmap.getConfig() == null) {
+            bitmap.recycle();
+            return;
+        }
+        offer(key(bitmap.getWidth(), bitmap.getHeight(), bitmap.getConfig()), bitmap);
+    }
+
+    @Override
+    protected long sizeOf(Bitmap bitmap) {
+        return bitmap.getAllocationByteCount();
+    }
+
+    @Override
+    protected void discard(Bitmap bitmap) {
+        bitmap.recycle();
+    }
+
+    private static Long key(int width, int height, Bitmap.Config config) {
+        return ((long) width << 32) | ((long) height << 8) | config.ordinal();
+    }
+}
@@ -0,0 +1,139 @@
+package com.maya.camera;
+
+import android.os.Handler;
+import android.os.SystemClock;
+
+import java.util.Locale;
+
+/**
+ * Fires captures at a fixed rate and keeps count of what happened to them. A tick whose capture
+ * cannot be started because the save pipeline or the export backlog is full is counted as dropped,
+ * not queued. A frame counts as saved once it is safely on disk; its export may still be in the
+ * backlog. All methods must be called on the handler's thread.
+ */
+final class BurstCapture {
+
+    interface Trigger {
+        /** Starts one capture; returns false if it had to be dropped. */
+        boolean fire();
+    }
+
+    interface Listener {
+        void onBurstStats(BurstCapture burst);
+    }
+
+    // Sustained rate is measured over the most recent saves only, so it tracks the current steady state.
+    private static final int RATE_WINDOW = 16;
+
+    private final Handler handler;
+    private long intervalMs;
+    private final Trigger trigger;
+    private final Listener listener;
+
+    private final long[] savedAt = new long[RATE_WINDOW];
+    private boolean running;
+    private long startedAt;
+    private long ticks;
+    private int fired;
+    private int dropped;
+    private int saved;
+    private int failed;
+    private int queueDepth;
+    private int backlog;
+
+    private final Runnable tick = new Runnable() {
+        @Override
+        public void run() {
+            if (!running) return;
+            if (trigger.fire()) {
+                fired++;
+            } else {
+                dropped++;
+            }
+            listener.onBurstStats(BurstCapture.this);
+            ticks++;
+            // Scheduled against the start time so slow ticks don't make the rate drift.
+            handler.postAtTime(this, startedAt + ticks * intervalMs);
+        }
+    };
+
+    BurstCapture(Handler handler, float framesPerSecond, Trigger trigger, Listener listener) {
+        this.handler = handler;
+        this.intervalMs = intervalMs(framesPerSecond);
+        this.trigger = trigger;
+        this.listener = listener;
+    }
+
+    /** Changes the rate; a running burst keeps its counts and continues at the new rate from now. */
+    void setFramesPerSecond(float framesPerSecond) {
+        intervalMs = intervalMs(framesPerSecond);
+        if (running) {
+            handler.removeCallbacks(tick);
+            running = false;
+            start();
+        }
+    }
+
+    private static long intervalMs(float framesPerSecond) {
+        if (framesPerSecond <= 0) {
+            throw new IllegalArgumentException("framesPerSecond must be positive: " + framesPerSecond);
+        }
+        return Math.max(1, Math.round(1000f / framesPerSecond));
+    }
+
+    void start() {
+        if (running) return;
+        running = true;
+        startedAt = SystemClock.uptimeMillis();
+        ticks = 0;
+        handler.post(tick);
+    }
+
+    void stop() {
+        running = false;
+        handler.removeCallbacks(tick);
+    }
+
+    boolean isRunning() {
+        return running;
+    }
+
+    void onFrameSaved() {
+        savedAt[saved % RATE_WINDOW] = SystemClock.uptimeMillis();
+        saved++;
+        listener.onBurstStats(this);
+    }
+
+    void onFrameFailed() {
+        failed++;
+        listener.onBurstStats(this);
+    }
+
+    /** Captures in the save pipeline, and kept captures whose export hasn't finished. */
+    void setQueueDepth(int queueDepth, int backlog) {
+        this.queueDepth = queueDepth;
+        this.backlog = backlog;
+    }
+
+    int getDropped() {
+        return dropped;
+    }
+
+    int getSaved() {
+        return saved;
+    }
+
+    /** Saved frames per second over the last few saves. */
+    float getSustainedFps() {
+        int n = Math.min(saved, RATE_WINDOW);
+        if (n < 2) return 0f;
+        long newest = savedAt[(saved - 1) % RATE_WINDOW];
+        long oldest = savedAt[(saved - n) % RATE_WINDOW];
+        return newest > oldest ? (n - 1) * 1000f / (newest - oldest) : 0f;
+    }
+
+    String describe() {
+        return String.format(Locale.US, "%.1f/%.0f fps  queue %d  exporting %d  saved %d  dropped %d  failed %d  (%d fired)",
+                getSustainedFps(), 1000f / intervalMs, queueDepth, backlog, saved, dropped, failed, fired);
+    }
+}
@@ -0,0 +1,16 @@
+package com.maya.camera;
+
+import android.app.Application;
+
+/**
+ * Starts CameraX and the pipeline prewarm at process start, before any activity is created.
+ * Registered as {@code android:name=".CameraApp"} on the manifest's {@code <application>}.
+ */
+public final class CameraApp extends Application {
+
+    @Override
+    public void onCreate() {
+        super.onCreate();
+        CameraStartup.prewarm(this);
+    }
+}
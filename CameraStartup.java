@@ -0,0 +1,88 @@
+package com.maya.camera;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.os.Build;
+import android.os.Process;
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.camera.lifecycle.ProcessCameraProvider;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import com.itextpdf.kernel.geom.PageSize;
+import com.itextpdf.kernel.pdf.PdfDocument;
+import com.itextpdf.kernel.pdf.PdfWriter;
+
+import java.io.ByteArrayOutputStream;
+
+/**
+ * Process-wide camera startup state. The camera provider is requested once, as early as the
+ * process allows, and shared by every activity instance; the capture pipeline's classes and
+ * codecs are exercised on a tiny frame in the background so the first real capture doesn't pay
+ * for class loading, LUT building and codec setup.
+ */
+final class CameraStartup {
+
+    private static ListenableFuture<ProcessCameraProvider> provider;
+    private static boolean prewarmed;
+    private static boolean firstFrameShown;
+
+    private CameraStartup() {
+    }
+
+    /** Starts camera provider initialisation and pipeline prewarm; later calls return at once. Main thread. */
+    static void prewarm(Context context) {
+        provider(context);
+        if (prewarmed) return;
+        prewarmed = true;
+        Thread thread = new Thread(CameraStartup::prewarmPipeline, "pipeline-prewarm");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /** The cached provider future; initialises CameraX on first use. Main thread. */
+    static ListenableFuture<ProcessCameraProvider> provider(Context context) {
+        if (provider == null) {
+            provider = ProcessCameraProvider.getInstance(context.getApplicationContext());
+        }
+        return provider;
+    }
+
+    /**
+     * Milliseconds since the process started if this is the first preview frame of the process,
+     * otherwise -1. Only the first caller sees a cold start. Main thread.
+     */
+    static long coldStartMillis() {
+        if (firstFrameShown) return -1;
+        firstFrameShown = true;
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.N) return -1;
+        return SystemClock.uptimeMillis() - Process.getStartUptimeMillis();
+    }
+
+    private static void prewarmPipeline() {
+        Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+        long start = System.nanoTime();
+        try {
+            ArgbImage frame = new ArgbImage(16, 16);
+            for (String filterName : FilterEngine.filterNames()) {
+                FilterEngine.apply(FilterEngine.forName(filterName), frame);
+            }
+            BilevelImage bilevel = AdaptiveBinarizer.binarize(frame.toLuma());
+
+            PdfDocument pdf = new PdfDocument(new PdfWriter(new ByteArrayOutputStream()));
+            PdfPageLayout layout = PdfPageLayout.paper(PageSize.A4, 300, PdfPageWriter.PADDING);
+            PdfPageWriter.addImagePage(pdf, frame.toPageImage(), layout);
+            PdfPageWriter.addImagePage(pdf, bilevel.toPageImage(), layout);
+            pdf.close();
+
+            Bitmap bitmap = Bitmap.createBitmap(16, 16, Bitmap.Config.ARGB_8888);
+            bitmap.compress(Bitmap.CompressFormat.JPEG, 100, new ByteArrayOutputStream());
+            bitmap.recycle();
+            Log.i("CameraStartup", "Pipeline prewarmed in " + (System.nanoTime() - start) / 1_000_000 + " ms");
+        } catch (RuntimeException e) {
+            // Only a head start; the real capture path reports its own errors.
+            Log.w("CameraStartup", "Pipeline prewarm failed", e);
+        }
+    }
+}
@@ -0,0 +1,316 @@
+package com.maya.camera;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.BitmapRegionDecoder;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Matrix;
+import android.graphics.Paint;
+
+import androidx.camera.core.ImageProxy;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Turns a captured JPEG {@link ImageProxy} into an upright bitmap, decoding into and rotating
+ * through bitmaps leased from a {@link BitmapPool} so repeated captures reuse the same memory.
+ */
+final class CaptureDecoder {
+
+    private final BitmapPool bitmapPool;
+    private final ByteBufferPool bufferPool;
+    private final CaptureMetrics metrics;
+
+    CaptureDecoder(BitmapPool bitmapPool, ByteBufferPool bufferPool, CaptureMetrics metrics) {
+        this.bitmapPool = bitmapPool;
+        this.bufferPool = bufferPool;
+        this.metrics = metrics;
+    }
+
+    /**
+     * Decodes and rotates the capture. The image is closed as soon as its JPEG bytes are copied,
+     * which frees the camera buffer for the next shot. The result is leased from the bitmap pool.
+     */
+    Bitmap decode(ImageProxy image) {
+        int rotationDegrees = image.getImageInfo().getRotationDegrees();
+        ByteBuffer jpeg = copyJpeg(image);
+        try {
+            return decode(jpeg, rotationDegrees);
+        } finally {
+            bufferPool.release(jpeg);
+        }
+    }
+
+    /** Copies the JPEG plane into a pooled buffer and closes the image. Release the buffer to the pool when done. */
+    ByteBuffer copyJpeg(ImageProxy image) {
+        ByteBuffer plane = image.getPlanes()[0].getBuffer();
+        ByteBuffer jpeg = bufferPool.lease(plane.remaining());
+        jpeg.put(plane);
+        jpeg.flip();
+        image.close();
+        return jpeg;
+    }
+
+    /** Reads a JPEG kept on disk into a pooled buffer. Release the buffer to the pool when done. */
+    ByteBuffer readJpeg(File file) throws IOException {
+        try (FileInputStream in = new FileInputStream(file)) {
+            FileChannel channel = in.getChannel();
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException("Capture too large: " + file);
+            }
+            ByteBuffer jpeg = bufferPool.lease((int) size);
+            try {
+                while (jpeg.hasRemaining()) {
+                    if (channel.read(jpeg) < 0) {
+                        throw new IOException("Capture truncated: " + file);
+                    }
+                }
+            } catch (IOException e) {
+                bufferPool.release(jpeg);
+                throw e;
+            }
+            jpeg.flip();
+            return jpeg;
+        }
+    }
+
+    Bitmap decode(ByteBuffer jpeg, int rotationDegrees) {
+        return rotate(decodeJpeg(jpeg), rotationDegrees);
+    }
+
+    Bitmap decodeJpeg(ByteBuffer jpeg) {
+        return decodeScaled(jpeg, readBounds(jpeg), 1f);
+    }
+
+    /**
+     * Decodes at no more than the resolution {@code layout} puts on the page, then rotates upright.
+     * Subsampling and density scaling happen inside the decoder, so a large capture is never
+     * materialised at full size just to be shrunk again.
+     */
+    Bitmap decodeForPage(ByteBuffer jpeg, int rotationDegrees, PdfPageLayout layout) {
+        BitmapFactory.Options bounds = readBounds(jpeg);
+        boolean swap = rotationDegrees % 180 != 0;
+        float scale = layout.resampleScale(swap ? bounds.outHeight : bounds.outWidth, swap ? bounds.outWidth : bounds.outHeight);
+        return rotate(decodeScaled(jpeg, bounds, scale), rotationDegrees);
+    }
+
+    /** Decodes and flattens the document inside {@code quad} (sensor orientation) into an upright bitmap. */
+    Bitmap decodeCropped(ByteBuffer jpeg, int rotationDegrees, Quad quad) {
+        return decodeCropped(jpeg, readBounds(jpeg), rotationDegrees, quad, 1f);
+    }
+
+    /** As {@link #decodeForPage}, but the page resolution is measured on the flattened document only. */
+    Bitmap decodeCroppedForPage(ByteBuffer jpeg, int rotationDegrees, Quad quad, PdfPageLayout layout) {
+        BitmapFactory.Options bounds = readBounds(jpeg);
+        int[] size = cropSize(bounds, rotationDegrees, quad);
+        return decodeCropped(jpeg, bounds, rotationDegrees, quad, Math.min(1f, layout.resampleScale(size[0], size[1])));
+    }
+
+    /** As {@link #decodeThumbnail}, for the document inside {@code quad} only. */
+    Bitmap decodeCroppedThumbnail(ByteBuffer jpeg, int rotationDegrees, Quad quad, int maxWidth, int maxHeight) {
+        BitmapFactory.Options bounds = readBounds(jpeg);
+        int[] size = cropSize(bounds, rotationDegrees, quad);
+        return decodeCropped(jpeg, bounds, rotationDegrees, quad, fitScale(size[0], size[1], maxWidth, maxHeight));
+    }
+
+    private static int[] cropSize(BitmapFactory.Options bounds, int rotationDegrees, Quad quad) {
+        boolean swap = rotationDegrees % 180 != 0;
+        return quad.rotate(rotationDegrees).cropSize(swap ? bounds.outHeight : bounds.outWidth, swap ? bounds.outWidth : bounds.outHeight);
+    }
+
+    // Decodes just large enough for the crop, then warps straight to upright: no full-frame rotate pass.
+    private Bitmap decodeCropped(ByteBuffer jpeg, BitmapFactory.Options bounds, int rotationDegrees, Quad quad, float scale) {
+        int[] size = cropSize(bounds, rotationDegrees, quad);
+        Bitmap decoded = decodeScaled(jpeg, bounds, scale);
+
+        long start = System.nanoTime();
+        // Scaled off the decoded size, which subsampling may have rounded.
+        float decodedScale = decoded.getWidth() / (float) bounds.outWidth;
+        int width = Math.max(1, Math.round(size[0] * decodedScale));
+        int height = Math.max(1, Math.round(size[1] * decodedScale));
+        Bitmap target = bitmapPool.lease(width, height, Bitmap.Config.ARGB_8888);
+        Matrix matrix = new Matrix();
+        matrix.setPolyToPoly(quad.uprightCorners(rotationDegrees, decoded.getWidth(), decoded.getHeight()), 0,
+                new float[]{0, 0, width, 0, width, height, 0, height}, 0, 4);
+        Canvas canvas = new Canvas(target);
+        canvas.drawColor(Color.WHITE); // Pooled contents are undefined; edge pixels may be only partly covered
+        canvas.drawBitmap(decoded, matrix, new Paint(Paint.FILTER_BITMAP_FLAG));
+        bitmapPool.release(decoded);
+        metrics.record(CaptureMetrics.Stage.CROP, System.nanoTime() - start);
+        return target;
+    }
+
+    /**
+     * A small upright preview that fits {@code maxWidth} x {@code maxHeight}: subsampled in the
+     * decoder, then box-filtered to size, which is cheaper than a density-scaled decode and
+     * doesn't alias. The bitmap is not from the pool, so it can outlive the capture in a cache.
+     */
+    Bitmap decodeThumbnail(ByteBuffer jpeg, int rotationDegrees, int maxWidth, int maxHeight) {
+        BitmapFactory.Options bounds = readBounds(jpeg);
+        boolean swap = rotationDegrees % 180 != 0;
+        float scale = fitScale(swap ? bounds.outHeight : bounds.outWidth, swap ? bounds.outWidth : bounds.outHeight, maxWidth, maxHeight);
+        int sampleSize = 1;
+        while (scale * sampleSize * 2 <= 1f) {
+            sampleSize *= 2;
+        }
+
+        long start = System.nanoTime();
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inSampleSize = sampleSize;
+        options.inPreferredConfig = Bitmap.Config.ARGB_8888;
+        Bitmap sampled = decode(jpeg, options);
+        int width = sampled.getWidth();
+        int height = sampled.getHeight();
+        ArgbImage image = new ArgbImage(width, height);
+        sampled.getPixels(image.pixels, 0, width, 0, 0, width, height);
+        sampled.recycle();
+        metrics.record(CaptureMetrics.Stage.DECODE, System.nanoTime() - start);
+
+        // The box filter runs on the sampled size, which is what the scale now applies to.
+        ArgbImage thumbnail = image.downscale(scale * bounds.outWidth / width).rotate(rotationDegrees);
+        Bitmap bitmap = Bitmap.createBitmap(thumbnail.width, thumbnail.height, Bitmap.Config.ARGB_8888);
+        bitmap.setPixels(thumbnail.pixels, 0, thumbnail.width, 0, 0, thumbnail.width, thumbnail.height);
+        return bitmap;
+    }
+
+    private static float fitScale(int width, int height, int maxWidth, int maxHeight) {
+        return Math.min(1f, Math.min(maxWidth / (float) width, maxHeight / (float) height));
+    }
+
+    /** Reads the JPEG dimensions without decoding pixels. */
+    static BitmapFactory.Options readBounds(ByteBuffer jpeg) {
+        BitmapFactory.Options bounds = new BitmapFactory.Options();
+        bounds.inJustDecodeBounds = true;
+        decode(jpeg, bounds);
+        return bounds;
+    }
+
+    /** Opens a region decoder over the JPEG, for decoding a capture a strip at a time. */
+    static BitmapRegionDecoder newRegionDecoder(ByteBuffer jpeg) throws IOException {
+        if (jpeg.hasArray()) {
+            return BitmapRegionDecoder.newInstance(jpeg.array(), jpeg.arrayOffset() + jpeg.position(), jpeg.remaining(), false);
+        }
+        return BitmapRegionDecoder.newInstance(new ByteBufferInputStream(jpeg.duplicate()), false);
+    }
+
+    private Bitmap decodeScaled(ByteBuffer jpeg, BitmapFactory.Options bounds, float scale) {
+        int width = bounds.outWidth;
+        int height = bounds.outHeight;
+        int targetWidth = Math.max(1, Math.round(width * scale));
+        int targetHeight = Math.max(1, Math.round(height * scale));
+
+        // Largest power-of-two subsample that still leaves at least the target size.
+        int sampleSize = 1;
+        while (width / (sampleSize * 2) >= targetWidth && height / (sampleSize * 2) >= targetHeight) {
+            sampleSize *= 2;
+        }
+        int sampledWidth = (width + sampleSize - 1) / sampleSize;
+        int sampledHeight = (height + sampleSize - 1) / sampleSize;
+
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inSampleSize = sampleSize;
+        options.inMutable = true;
+        options.inPreferredConfig = Bitmap.Config.ARGB_8888;
+        int outWidth = sampledWidth;
+        int outHeight = sampledHeight;
+        if (sampledWidth > targetWidth) {
+            // The decoder scales by inTargetDensity / inDensity on the way out.
+            options.inScaled = true;
+            options.inDensity = sampledWidth;
+            options.inTargetDensity = targetWidth;
+            float densityScale = targetWidth / (float) sampledWidth;
+            outWidth = (int) (sampledWidth * densityScale + 0.5f);
+            outHeight = (int) (sampledHeight * densityScale + 0.5f);
+        } else {
+            options.inScaled = false;
+        }
+
+        long start = System.nanoTime();
+        options.inBitmap = bitmapPool.lease(outWidth, outHeight, Bitmap.Config.ARGB_8888);
+        Bitmap decoded;
+        try {
+            decoded = decode(jpeg, options);
+        } catch (IllegalArgumentException e) {
+            // The decoder refused the reuse target; fall back to a fresh allocation.
+            bitmapPool.release(options.inBitmap);
+            options.inBitmap = null;
+            decoded = decode(jpeg, options);
+        }
+        metrics.record(CaptureMetrics.Stage.DECODE, System.nanoTime() - start);
+        return decoded;
+    }
+
+    /** Rotates by a multiple of 90 degrees into a pooled bitmap and returns the source to the pool. */
+    Bitmap rotate(Bitmap source, int rotationDegrees) {
+        int degrees = ((rotationDegrees % 360) + 360) % 360;
+        if (degrees == 0) {
+            return source;
+        }
+        long start = System.nanoTime();
+        int width = source.getWidth();
+        int height = source.getHeight();
+        boolean swap = degrees == 90 || degrees == 270;
+        Bitmap target = bitmapPool.lease(swap ? height : width, swap ? width : height, Bitmap.Config.ARGB_8888);
+
+        Matrix matrix = new Matrix();
+        matrix.postRotate(degrees);
+        switch (degrees) {
+            case 90:
+                matrix.postTranslate(height, 0);
+                break;
+            case 180:
+                matrix.postTranslate(width, height);
+                break;
+            case 270:
+                matrix.postTranslate(0, width);
+                break;
+            default:
+                // Non right-angle rotations are not produced by CameraX.
+                break;
+        }
+        new Canvas(target).drawBitmap(source, matrix, null);
+        bitmapPool.release(source);
+        metrics.record(CaptureMetrics.Stage.ROTATE, System.nanoTime() - start);
+        return target;
+    }
+
+    private static Bitmap decode(ByteBuffer jpeg, BitmapFactory.Options options) {
+        if (jpeg.hasArray()) {
+            return BitmapFactory.decodeByteArray(jpeg.array(), jpeg.arrayOffset() + jpeg.position(), jpeg.remaining(), options);
+        }
+        return BitmapFactory.decodeStream(new ByteBufferInputStream(jpeg.duplicate()), null, options);
+    }
+
+    private static final class ByteBufferInputStream extends InputStream {
+        private final ByteBuffer buffer;
+
+        ByteBufferInputStream(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (!buffer.hasRemaining()) return -1;
+            int n = Math.min(len, buffer.remaining());
+            buffer.get(b, off, n);
+            return n;
+        }
+
+        @Override
+        public int available() {
+            return buffer.remaining();
+        }
+    }
+}
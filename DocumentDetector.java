@@ -0,0 +1,117 @@
+package com.maya.camera;
+
+import androidx.camera.core.ImageProxy;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Looks for a document's corners in the analysis stream. Each frame is shrunk to
+ * {@link QuadDetector#DETECT_SIZE} on the analysis thread and detected on a separate executor;
+ * while a detection is running, new frames are dropped, so the analysis thread never waits on it.
+ * Corners are kept in sensor orientation, normalised, ready to apply to the full-size capture.
+ */
+final class DocumentDetector {
+
+    interface Listener {
+        /** Corners of the page turned upright for display, or null when none is found. Detection thread. */
+        void onQuad(Quad uprightQuad, int uprightWidth, int uprightHeight);
+    }
+
+    // A capture uses corners at most this old; bridges frames where detection briefly fails.
+    private static final long MAX_AGE_NANOS = 500_000_000L;
+
+    private final Executor executor;
+    private final Listener listener;
+    private final AtomicBoolean busy = new AtomicBoolean();
+
+    private volatile Quad quad;
+    private volatile long quadNanos;
+
+    private long framesDetected;
+    private long framesFound;
+    private long framesDropped;
+
+    DocumentDetector(Executor executor, Listener listener) {
+        this.executor = executor;
+        this.listener = listener;
+    }
+
+    /** Takes a shrunken copy of the frame and returns; the image stays open for the caller. Analysis thread. */
+    void submit(ImageProxy image) {
+        if (!busy.compareAndSet(false, true)) {
+            framesDropped++;
+            return;
+        }
+        LumaImage frame;
+        try {
+            frame = downscale(image);
+        } catch (RuntimeException e) {
+            busy.set(false);
+            throw e;
+        }
+        int rotationDegrees = image.getImageInfo().getRotationDegrees();
+        boolean swap = rotationDegrees % 180 != 0;
+        int uprightWidth = swap ? image.getHeight() : image.getWidth();
+        int uprightHeight = swap ? image.getWidth() : image.getHeight();
+        executor.execute(() -> {
+            try {
+                Quad found = QuadDetector.detect(frame);
+                framesDetected++;
+                if (found != null) {
+                    framesFound++;
+                    quad = found;
+                    quadNanos = System.nanoTime();
+                }
+                listener.onQuad(found != null ? found.rotate(rotationDegrees) : null, uprightWidth, uprightHeight);
+            } finally {
+                busy.set(false);
+            }
+        });
+    }
+
+    /** The latest corners in sensor orientation, or null when no page was seen recently. */
+    Quad latest() {
+        Quad q = quad;
+        return q != null && System.nanoTime() - quadNanos <= MAX_AGE_NANOS ? q : null;
+    }
+
+    String describe() {
+        return framesFound + " of " + framesDetected + " frames with a page, " + framesDropped + " dropped";
+    }
+
+    // Y plane of YUV or RGBA, box-filtered down to the detection size.
+    private static LumaImage downscale(ImageProxy image) {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        float scale = Math.min(1f, QuadDetector.DETECT_SIZE / (float) Math.max(width, height));
+        ImageProxy.PlaneProxy plane = image.getPlanes()[0];
+        if (plane.getPixelStride() == 1) {
+            return LumaImage.fromPlane(plane.getBuffer(), plane.getRowStride(), width, height, scale);
+        }
+
+        int outWidth = Math.max(1, Math.round(width * scale));
+        int outHeight = Math.max(1, Math.round(height * scale));
+        ByteBuffer rgba = plane.getBuffer();
+        int rowStride = plane.getRowStride();
+        byte[] out = new byte[outWidth * outHeight];
+        for (int oy = 0; oy < outHeight; oy++) {
+            int y0 = oy * height / outHeight;
+            int y1 = Math.max(y0 + 1, (oy + 1) * height / outHeight);
+            for (int ox = 0; ox < outWidth; ox++) {
+                int x0 = ox * width / outWidth;
+                int x1 = Math.max(x0 + 1, (ox + 1) * width / outWidth);
+                int sum = 0;
+                for (int y = y0; y < y1; y++) {
+                    for (int x = x0, i = y * rowStride + x0 * 4; x < x1; x++, i += 4) {
+                        // Same weights as ColorFilterMatrix.saturation
+                        sum += 54 * (rgba.get(i) & 0xFF) + 183 * (rgba.get(i + 1) & 0xFF) + 19 * (rgba.get(i + 2) & 0xFF);
+                    }
+                }
+                out[oy * outWidth + ox] = (byte) (sum / ((y1 - y0) * (x1 - x0) * 256));
+            }
+        }
+        return new LumaImage(outWidth, outHeight, out);
+    }
+}
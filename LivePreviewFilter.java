@@ -0,0 +1,145 @@
+package com.maya.camera;
+
+import android.graphics.Bitmap;
+import android.graphics.Matrix;
+import android.util.Size;
+import android.widget.ImageView;
+
+import androidx.annotation.NonNull;
+import androidx.camera.core.ImageAnalysis;
+import androidx.camera.core.ImageProxy;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * CPU preview for filters the camera has no effect mode for. A low-resolution RGBA analysis
+ * stream is run through the same {@link ColorTransform} used on capture and drawn over the
+ * viewfinder. While a filtered frame is waiting to be drawn, new frames are dropped, so the cost
+ * per frame is bounded by the analysis resolution however slow the device is.
+ */
+final class LivePreviewFilter implements ImageAnalysis.Analyzer {
+
+    static final Size ANALYSIS_SIZE = new Size(640, 480);
+
+    private final ImageView overlay;
+    private final Executor mainExecutor;
+    private final AtomicBoolean drawPending = new AtomicBoolean();
+
+    // Double-buffered: the analyzer writes one bitmap while the overlay shows the other.
+    private final Bitmap[] frames = new Bitmap[2];
+    private int back;
+    private ByteBuffer scratch;
+
+    private volatile ColorTransform transform = ColorFilterMatrix.IDENTITY;
+    private volatile boolean mirrored;
+    private volatile int generation;
+
+    private long framesShown;
+    private long framesDropped;
+
+    LivePreviewFilter(ImageView overlay, Executor mainExecutor) {
+        this.overlay = overlay;
+        this.mainExecutor = mainExecutor;
+    }
+
+    /** Switches the transform; frames filtered with the previous one are discarded. Main thread. */
+    void setTransform(ColorTransform transform, boolean mirrored) {
+        this.transform = transform;
+        this.mirrored = mirrored;
+        generation++;
+    }
+
+    /** Hides the overlay until frames for the current transform arrive. Main thread. */
+    void hide() {
+        generation++;
+        overlay.setVisibility(ImageView.GONE);
+        overlay.setImageBitmap(null);
+    }
+
+    String describe() {
+        return framesShown + " frames shown, " + framesDropped + " dropped";
+    }
+
+    @Override
+    public void analyze(@NonNull ImageProxy image) {
+        try {
+            if (!drawPending.compareAndSet(false, true)) {
+                framesDropped++;
+                return;
+            }
+            Bitmap frame;
+            try {
+                frame = filter(image);
+            } catch (RuntimeException e) {
+                drawPending.set(false);
+                throw e;
+            }
+            int rotationDegrees = image.getImageInfo().getRotationDegrees();
+            boolean mirror = mirrored;
+            int frameGeneration = generation;
+            mainExecutor.execute(() -> {
+                if (frameGeneration == generation) {
+                    draw(frame, rotationDegrees, mirror);
+                }
+                drawPending.set(false);
+            });
+        } finally {
+            image.close();
+        }
+    }
+
+    private Bitmap filter(ImageProxy image) {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        ImageProxy.PlaneProxy plane = image.getPlanes()[0];
+        ByteBuffer src = plane.getBuffer().duplicate();
+        int rowStride = plane.getRowStride();
+        int rowBytes = width * 4;
+
+        if (scratch == null || scratch.capacity() < rowBytes * height) {
+            scratch = ByteBuffer.allocateDirect(rowBytes * height);
+        }
+        scratch.clear();
+        for (int y = 0; y < height; y++) {
+            src.limit(y * rowStride + rowBytes).position(y * rowStride);
+            scratch.put(src);
+        }
+        FilterEngine.apply(transform, scratch, width, height);
+        scratch.rewind();
+
+        Bitmap frame = frames[back];
+        if (frame == null || frame.getWidth() != width || frame.getHeight() != height) {
+            frame = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+            frames[back] = frame;
+        }
+        frame.copyPixelsFromBuffer(scratch);
+        back ^= 1;
+        return frame;
+    }
+
+    // Same centre-crop as the PreviewView underneath, so the overlay lines up with it.
+    private void draw(Bitmap frame, int rotationDegrees, boolean mirror) {
+        int viewWidth = overlay.getWidth();
+        int viewHeight = overlay.getHeight();
+        if (viewWidth == 0 || viewHeight == 0) {
+            return;
+        }
+        boolean swap = rotationDegrees % 180 != 0;
+        float rotatedWidth = swap ? frame.getHeight() : frame.getWidth();
+        float rotatedHeight = swap ? frame.getWidth() : frame.getHeight();
+        float scale = Math.max(viewWidth / rotatedWidth, viewHeight / rotatedHeight);
+
+        Matrix matrix = new Matrix();
+        matrix.setTranslate(-frame.getWidth() / 2f, -frame.getHeight() / 2f);
+        matrix.postRotate(rotationDegrees);
+        matrix.postScale(mirror ? -scale : scale, scale);
+        matrix.postTranslate(viewWidth / 2f, viewHeight / 2f);
+
+        overlay.setImageBitmap(frame);
+        overlay.setImageMatrix(matrix);
+        overlay.setVisibility(ImageView.VISIBLE);
+        framesShown++;
+    }
+}
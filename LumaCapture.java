@@ -0,0 +1,132 @@
+package com.maya.camera;
+
+import android.graphics.Bitmap;
+import android.graphics.ImageFormat;
+import android.graphics.Rect;
+import android.graphics.YuvImage;
+
+import androidx.camera.core.ImageProxy;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * Grayscale and B/W document path for YUV captures. Only the Y plane is read; no RGB pixels are built
+ * except for a screen-sized preview.
+ */
+final class LumaCapture {
+
+    private LumaCapture() {
+    }
+
+    static boolean isYuv(ImageProxy image) {
+        return image.getFormat() == ImageFormat.YUV_420_888;
+    }
+
+    /** Reads the luma plane in sensor orientation, downscaled by {@code scale} (at most 1). */
+    static LumaImage read(ImageProxy image, float scale) {
+        ImageProxy.PlaneProxy y = image.getPlanes()[0];
+        return LumaImage.fromPlane(y.getBuffer(), y.getRowStride(), image.getWidth(), image.getHeight(), scale);
+    }
+
+    /**
+     * Copies the luma plane into a pooled NV21 buffer with neutral chroma, so the platform JPEG
+     * encoder produces a grayscale JPEG. Closes the image. Release the buffer to the pool when done.
+     */
+    static ByteBuffer copyAsNv21(ImageProxy image, ByteBufferPool pool) {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        ImageProxy.PlaneProxy y = image.getPlanes()[0];
+        ByteBuffer plane = y.getBuffer();
+        int rowStride = y.getRowStride();
+
+        int lumaSize = width * height;
+        ByteBuffer nv21 = pool.lease(lumaSize + 2 * ((width + 1) / 2) * ((height + 1) / 2));
+        byte[] row = new byte[width];
+        for (int r = 0; r < height; r++) {
+            plane.position(r * rowStride);
+            plane.get(row, 0, width);
+            nv21.put(row, 0, width);
+        }
+        while (nv21.hasRemaining()) {
+            nv21.put((byte) 128);
+        }
+        nv21.flip();
+        image.close();
+        return nv21;
+    }
+
+    /** Copies {@code luma} into a pooled NV21 buffer with neutral chroma. Release the buffer to the pool when done. */
+    static ByteBuffer toNv21(LumaImage luma, ByteBufferPool pool) {
+        ByteBuffer nv21 = pool.lease(luma.pixels.length + 2 * ((luma.width + 1) / 2) * ((luma.height + 1) / 2));
+        nv21.put(luma.pixels);
+        while (nv21.hasRemaining()) {
+            nv21.put((byte) 128);
+        }
+        nv21.flip();
+        return nv21;
+    }
+
+    /** Binarizes the luma part of an NV21 buffer in place, leaving chroma neutral. */
+    static void binarizeNv21(ByteBuffer nv21, int width, int height) {
+        byte[] pixels = new byte[width * height];
+        nv21.duplicate().get(pixels);
+        LumaImage luma = new LumaImage(width, height, pixels);
+        AdaptiveBinarizer.binarize(luma).expandInto(pixels);
+        ByteBuffer out = nv21.duplicate();
+        out.put(pixels);
+    }
+
+    static byte[] encodeNv21Jpeg(ByteBuffer nv21, int width, int height, int quality) {
+        byte[] data;
+        if (nv21.hasArray() && nv21.arrayOffset() == 0) {
+            data = nv21.array();
+        } else {
+            data = new byte[nv21.remaining()];
+            nv21.duplicate().get(data);
+        }
+        YuvImage yuv = new YuvImage(data, ImageFormat.NV21, width, height, new int[]{width, width});
+        ByteArrayOutputStream out = new ByteArrayOutputStream(width * height / 4);
+        yuv.compressToJpeg(new Rect(0, 0, width, height), quality, out);
+        return out.toByteArray();
+    }
+
+    /** Opaque gray ARGB bitmap of an already screen-sized luma image, for the preview dialog. */
+    static Bitmap toPreview(LumaImage luma) {
+        int[] colors = new int[luma.width * luma.height];
+        for (int i = 0; i < colors.length; i++) {
+            int v = luma.pixels[i] & 0xFF;
+            colors[i] = 0xFF000000 | (v << 16) | (v << 8) | v;
+        }
+        return Bitmap.createBitmap(colors, luma.width, luma.height, Bitmap.Config.ARGB_8888);
+    }
+
+    /** Luma of an ARGB bitmap, using the same weights as {@link ColorFilterMatrix#saturation}. */
+    static LumaImage fromBitmap(Bitmap bitmap) {
+        int width = bitmap.getWidth();
+        int height = bitmap.getHeight();
+        byte[] pixels = new byte[width * height];
+        int[] row = new int[width];
+        for (int y = 0; y < height; y++) {
+            bitmap.getPixels(row, 0, width, 0, y, width, 1);
+            for (int x = 0; x < width; x++) {
+                int p = row[x];
+                int v = (54 * ((p >> 16) & 0xFF) + 183 * ((p >> 8) & 0xFF) + 19 * (p & 0xFF) + 128) >> 8;
+                pixels[y * width + x] = (byte) v;
+            }
+        }
+        return new LumaImage(width, height, pixels);
+    }
+
+    /** Writes {@code luma} into a mutable bitmap of the same size as opaque gray pixels. */
+    static void writeToBitmap(LumaImage luma, Bitmap bitmap) {
+        int[] row = new int[luma.width];
+        for (int y = 0; y < luma.height; y++) {
+            for (int x = 0; x < luma.width; x++) {
+                int v = luma.pixels[y * luma.width + x] & 0xFF;
+                row[x] = 0xFF000000 | (v << 16) | (v << 8) | v;
+            }
+            bitmap.setPixels(row, 0, luma.width, 0, y, luma.width, 1);
+        }
+    }
+}
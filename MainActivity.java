@@ -1,66 +1,90 @@
 package com.maya.camera;
 
 import android.Manifest;
+import android.annotation.SuppressLint;
+import android.app.ActivityManager;
 import android.app.Dialog;
-import android.content.ContentValues;
 import android.content.pm.PackageManager;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
-import android.graphics.Canvas;
-import android.graphics.ColorMatrix;
-import android.graphics.ColorMatrixColorFilter;
-import android.graphics.Matrix;
-import android.graphics.Paint;
+import android.graphics.Color;
+import android.graphics.ImageFormat;
+import android.hardware.camera2.CameraCharacteristics;
 import android.hardware.camera2.CaptureRequest;
 import android.net.Uri;
 import android.os.Build;
 import android.os.Bundle;
+import android.os.Debug;
 import android.os.Environment;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.ParcelFileDescriptor;
 import android.provider.MediaStore;
 import android.util.Log;
+import android.util.LruCache;
 import android.view.View;
 import android.view.WindowManager;
 import android.widget.Button;
 import android.widget.ImageView;
+import android.widget.LinearLayout;
+import android.widget.TextView;
 import android.widget.Toast;
 
 import androidx.activity.result.ActivityResultLauncher;
 import androidx.activity.result.contract.ActivityResultContracts;
 import androidx.annotation.NonNull;
 import androidx.annotation.OptIn;
+import androidx.appcompat.app.AlertDialog;
 import androidx.appcompat.app.AppCompatActivity;
 import androidx.camera.camera2.interop.Camera2CameraControl;
+import androidx.camera.camera2.interop.Camera2CameraInfo;
 import androidx.camera.camera2.interop.CaptureRequestOptions;
 import androidx.camera.camera2.interop.ExperimentalCamera2Interop;
 import androidx.camera.core.Camera;
+import androidx.camera.core.CameraInfo;
 import androidx.camera.core.CameraSelector;
+import androidx.camera.core.ImageAnalysis;
 import androidx.camera.core.ImageCapture;
 import androidx.camera.core.ImageCaptureException;
 import androidx.camera.core.ImageProxy;
 import androidx.camera.core.Preview;
+import androidx.camera.core.UseCase;
+import androidx.camera.core.resolutionselector.ResolutionSelector;
+import androidx.camera.core.resolutionselector.ResolutionStrategy;
 import androidx.camera.lifecycle.ProcessCameraProvider;
 import androidx.camera.view.PreviewView;
 import androidx.core.content.ContextCompat;
 
 import com.google.android.material.floatingactionbutton.FloatingActionButton;
 import com.google.common.util.concurrent.ListenableFuture;
-import com.itextpdf.io.image.ImageDataFactory;
 import com.itextpdf.kernel.geom.PageSize;
 import com.itextpdf.kernel.pdf.PdfDocument;
 import com.itextpdf.kernel.pdf.PdfWriter;
-import com.itextpdf.layout.Document;
-import com.itextpdf.layout.element.Image;
 
 import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
 import java.io.OutputStream;
+import java.io.UncheckedIOException;
 import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.function.Consumer;
+import java.util.function.Function;
 
 public class MainActivity extends AppCompatActivity {
 
@@ -69,13 +93,123 @@ public class MainActivity extends AppCompatActivity {
     private ExecutorService cameraExecutor;
     private Camera camera;
 
+    // Use cases outlive rebinds; only a change in capture mode or buffer format rebuilds ImageCapture.
+    private ProcessCameraProvider cameraProvider;
+    private Preview preview;
+    private ImageAnalysis imageAnalysis;
+    private int imageCaptureFormat;
+    private int imageAnalysisFormat;
+    private CameraSelector boundSelector;
+    // Cameras that can't capture full-size YUV next to preview and analysis; Grayscale and B/W take
+    // JPEG there and go through the decode path instead.
+    private final Set<CameraSelector> jpegOnlySelectors = new HashSet<>();
+
+    // Start of the bind whose first preview frame is being waited for, and what it is recorded as.
+    private long firstFrameRequestNanos;
+    private CaptureMetrics.Stage firstFrameStage;
+
     private String currentFilter = "Normal";
     private CameraSelector cameraSelector = CameraSelector.DEFAULT_BACK_CAMERA;
     private int flashMode = ImageCapture.FLASH_MODE_OFF;
     private float originalScreenBrightness = -1f;
+    private int captureMode = ImageCapture.CAPTURE_MODE_MAXIMIZE_QUALITY;
+
+    // Burst mode: the rates a tap on the burst stats cycles through, the chosen one (kept in the
+    // activity's preferences), and the running burst if any.
+    private static final float[] BURST_RATES = {1f, 2f, 3f, 5f, 8f};
+    private static final float DEFAULT_BURST_FPS = 3f;
+    private static final String PREF_BURST_FPS = "burst_fps";
+    private float burstFps;
+    private BurstCapture burstCapture;
+    private Runnable onCameraBound;
+    private TextView burstStats;
 
     private final List<View> filterButtons = new ArrayList<>();
 
+    // CPU preview for filters without a camera effect mode, fed by a low-resolution analysis stream.
+    private LivePreviewFilter livePreview;
+    private ExecutorService analysisExecutor;
+
+    // Page corners from the same analysis stream; captures are cropped to them before filtering.
+    private DocumentDetector documentDetector;
+    private ExecutorService detectExecutor;
+    private QuadOverlayView quadOverlay;
+
+    // Destinations for saved files; MediaStore writes are batched and retried by the writer.
+    private static final MediaStoreWriter.Kind JPEG_FILE = new MediaStoreWriter.Kind(MediaStore.Images.Media.EXTERNAL_CONTENT_URI,
+            "image/jpeg", Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q ? Environment.DIRECTORY_PICTURES : null);
+    private static final MediaStoreWriter.Kind PDF_FILE = new MediaStoreWriter.Kind(MediaStore.Files.getContentUri("external"),
+            "application/pdf", Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q ? Environment.DIRECTORY_DOCUMENTS : null);
+    // One per process, so its journal of unpublished entries has a single writer. Main thread.
+    private static MediaStoreWriter mediaStore;
+
+    // Capture buffers are leased from these pools and handed back once saved, so repeated captures reuse memory.
+    private final BitmapPool bitmapPool = new BitmapPool(Runtime.getRuntime().maxMemory() / 3);
+    private final ByteBufferPool bufferPool = new ByteBufferPool(64L * 1024 * 1024);
+    // Stage latencies and per-capture heap peaks; written to a rolling file on pause, shown on the debug overlay.
+    private final CaptureMetrics captureMetrics = new CaptureMetrics(Debug::getNativeHeapAllocatedSize);
+    private MetricsLog metricsLog;
+    private TextView metricsOverlay;
+
+    private final CaptureDecoder captureDecoder = new CaptureDecoder(bitmapPool, bufferPool, captureMetrics);
+    // PDF dialog thumbnails by page id. Bounded in bytes; they are never pooled, so eviction only drops a reference.
+    private final LruCache<Long, Bitmap> thumbnails = new LruCache<Long, Bitmap>((int) Math.min(Integer.MAX_VALUE, Runtime.getRuntime().maxMemory() / 8)) {
+        @Override
+        protected int sizeOf(Long pageId, Bitmap thumbnail) {
+            return thumbnail.getAllocationByteCount();
+        }
+    };
+    private long nextPageId;
+    // Captures whose decode won't fit the budget are filtered and re-encoded a strip at a time.
+    // Sized in onCreate from the device's memory; see pixelBudgetBytes.
+    private TileBudget tileBudget;
+    // Whole, a frame costs 8 bytes a pixel: up to about 33 MP fits, 50-108 MP sensors go tiled.
+    private static final long MAX_WHOLE_FRAME_BYTES = 256L * 1024 * 1024;
+    private static final int JPEG_QUALITY = 100;
+    private TiledJpegWriter tiledJpegWriter;
+
+    // Decode, filter, encode and MediaStore writes run here, never on the main thread.
+    private SavePipeline savePipeline;
+
+    // JPEG captures and single-page PDFs are kept as the camera JPEG plus a recipe and exported in
+    // the background. Exported JPEGs are kept up to this many bytes, so the filter can be changed later.
+    // One per process, like CameraStartup, so a recreated activity never runs a job the old one
+    // is still exporting. Main thread.
+    private static final long DEFERRED_RETAINED_BYTES = 256L * 1024 * 1024;
+    // Captures waiting for export beyond this are turned away, so a long burst can't fill the disk.
+    private static final int DEFERRED_MAX_BACKLOG = 32;
+    private static DeferredQueue deferredQueue;
+    // Kept so onDestroy detaches only its own processor, not one a newer instance attached.
+    private final DeferredQueue.Processor deferredProcessor = this::exportDeferred;
+
+    // DCT keeps PDF pages small; pages are fitted to A4 and capped at 300 DPI.
+    private final PdfImageEncoder pdfImageEncoder = PdfImageEncoder.dct(90);
+    private final PdfPageLayout pdfPageLayout = PdfPageLayout.paper(PageSize.A4, 300, PdfPageWriter.PADDING);
+    // New documents use object and xref streams; appended updates follow the original file's format.
+    private final PdfOutputProfile pdfOutputProfile = PdfOutputProfile.COMPACT;
+
+    // Open multi-page scan, or null when the PDF button saves single-page documents.
+    private PdfScanSession scanSession;
+    // Persist work a destroyed instance left queued, its scan session suspend included. Session
+    // files are only touched after it, so a recreated activity never opens or publishes the
+    // session while the old one still writes it. Main thread.
+    private static CompletableFuture<Void> previousPersist = CompletableFuture.completedFuture(null);
+    // Existing PDF that saved pages are appended to as incremental updates, or null.
+    private Uri appendTarget;
+    private FloatingActionButton appendPdfButton;
+
+    private final ActivityResultLauncher<String[]> pickAppendTargetLauncher = registerForActivityResult(
+            new ActivityResultContracts.OpenDocument(),
+            uri -> {
+                if (uri != null) {
+                    appendTarget = uri;
+                    appendPdfButton.setAlpha(1.0f);
+                    rebindIfFormatChanged();
+                    Toast.makeText(this, "PDF pages will be appended to the chosen document", Toast.LENGTH_SHORT).show();
+                }
+            }
+    );
+
     private final ActivityResultLauncher<String[]> requestPermissionLauncher = registerForActivityResult(
             new ActivityResultContracts.RequestMultiplePermissions(),
             permissions -> {
@@ -92,17 +226,60 @@ public class MainActivity extends AppCompatActivity {
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
+        // Normally already done by CameraApp; covers activity starts without it.
+        CameraStartup.prewarm(this);
+        firstFrameRequestNanos = System.nanoTime();
+        firstFrameStage = CaptureMetrics.Stage.FIRST_FRAME;
         setContentView(R.layout.activity_main);
+        tileBudget = new TileBudget(pixelBudgetBytes());
+        tiledJpegWriter = new TiledJpegWriter(bitmapPool, tileBudget, captureMetrics);
+        if (mediaStore == null) {
+            mediaStore = new MediaStoreWriter(getApplicationContext().getContentResolver(), MediaStore.AUTHORITY,
+                    Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q, new File(getFilesDir(), "mediastore-unpublished"));
+            mediaStore.resume();
+        }
 
         viewFinder = findViewById(R.id.viewFinder);
         FloatingActionButton captureButton = findViewById(R.id.capture_button);
         FloatingActionButton flipCameraButton = findViewById(R.id.flip_camera_button);
         FloatingActionButton pdfButton = findViewById(R.id.pdf_button);
         FloatingActionButton flashButton = findViewById(R.id.flash_button);
+        appendPdfButton = findViewById(R.id.append_pdf_button);
+        burstStats = findViewById(R.id.burst_stats);
+        burstFps = getPreferences(MODE_PRIVATE).getFloat(PREF_BURST_FPS, DEFAULT_BURST_FPS);
+        metricsOverlay = findViewById(R.id.metrics_overlay);
+        metricsLog = new MetricsLog(new File(getFilesDir(), "metrics"), "capture-metrics.log", 256 * 1024);
+        livePreview = new LivePreviewFilter(findViewById(R.id.filter_preview), ContextCompat.getMainExecutor(this));
+        quadOverlay = findViewById(R.id.quad_overlay);
+        viewFinder.getPreviewStreamState().observe(this, state -> {
+            if (state == PreviewView.StreamState.STREAMING) {
+                onFirstFrame();
+            }
+        });
+
+        // Created before the first bind, which runs synchronously once the provider is cached.
+        cameraExecutor = Executors.newSingleThreadExecutor();
+        analysisExecutor = Executors.newSingleThreadExecutor();
+        detectExecutor = Executors.newSingleThreadExecutor();
+        savePipeline = new SavePipeline(3, ContextCompat.getMainExecutor(this));
+        if (deferredQueue == null) {
+            deferredQueue = new DeferredQueue(new File(getFilesDir(), "deferred"), DEFERRED_RETAINED_BYTES, DEFERRED_MAX_BACKLOG);
+        }
+        deferredQueue.attach(deferredProcessor, this::onDeferredExported);
+        documentDetector = new DocumentDetector(detectExecutor, (quad, width, height) -> runOnUiThread(() ->
+                quadOverlay.setQuad(quad, width, height, cameraSelector == CameraSelector.DEFAULT_FRONT_CAMERA)));
 
         setupFilterButtons();
         setupFlashButton(flashButton);
 
+        // Long press on flash toggles the stage timing overlay.
+        flashButton.setOnLongClickListener(v -> {
+            boolean show = metricsOverlay.getVisibility() != View.VISIBLE;
+            metricsOverlay.setVisibility(show ? View.VISIBLE : View.GONE);
+            updateMetricsOverlay();
+            return true;
+        });
+
         if (allPermissionsGranted()) {
             startCamera();
         } else {
@@ -110,32 +287,70 @@ public class MainActivity extends AppCompatActivity {
         }
 
         // JPEG capture: uses the high-resolution ImageCapture use case.
-        captureButton.setOnClickListener(v -> captureAndProcessImage(this::saveAsJpeg));
-
-        // PDF capture: grabs the visible preview from the screen.
-        pdfButton.setOnClickListener(v -> {
-            Bitmap bitmap = viewFinder.getBitmap();
-            if (bitmap != null) {
-                Bitmap filteredBitmap = applyFilter(bitmap);
-                showPreviewDialog(filteredBitmap);
+        captureButton.setOnClickListener(v -> {
+            if (burstCapture != null) {
+                stopBurst();
+            } else {
+                captureJpeg();
+            }
+        });
+
+        // Long press starts burst capture; a tap stops it.
+        captureButton.setOnLongClickListener(v -> {
+            if (burstCapture == null) {
+                startBurst();
+            }
+            return true;
+        });
+
+        // A tap on the burst stats moves to the next burst rate, for this burst and later ones.
+        burstStats.setOnClickListener(v -> cycleBurstRate());
+
+        // PDF capture: takes a picture decoded only as large as the PDF page needs.
+        pdfButton.setOnClickListener(v -> capturePdfPage());
+
+        // Long press starts a multi-page scan, or finishes the one in progress.
+        pdfButton.setOnLongClickListener(v -> {
+            if (scanSession == null) {
+                startScanSession();
+            } else {
+                finishScanSession();
+            }
+            return true;
+        });
+
+        // Picks an existing PDF to append pages to, or stops appending.
+        appendPdfButton.setOnClickListener(v -> {
+            if (scanSession != null) {
+                Toast.makeText(this, "Finish the scan first.", Toast.LENGTH_SHORT).show();
+            } else if (appendTarget == null) {
+                pickAppendTargetLauncher.launch(new String[]{"application/pdf"});
             } else {
-                Toast.makeText(this, "Preview not available for PDF capture.", Toast.LENGTH_SHORT).show();
+                appendTarget = null;
+                appendPdfButton.setAlpha(0.6f);
+                rebindIfFormatChanged();
+                Toast.makeText(this, "Appending stopped", Toast.LENGTH_SHORT).show();
             }
         });
 
         flipCameraButton.setOnClickListener(v -> {
             // Restore brightness before switching camera
             restoreOriginalBrightness();
+            stopBurst();
 
             if (cameraSelector == CameraSelector.DEFAULT_BACK_CAMERA) {
                 cameraSelector = CameraSelector.DEFAULT_FRONT_CAMERA;
             } else {
                 cameraSelector = CameraSelector.DEFAULT_BACK_CAMERA;
             }
+            firstFrameRequestNanos = System.nanoTime();
+            firstFrameStage = CaptureMetrics.Stage.CAMERA_SWITCH;
             startCamera();
         });
 
-        cameraExecutor = Executors.newSingleThreadExecutor();
+        loadCubeFilters();
+
+        recoverScanSession();
     }
 
     private void setupFilterButtons() {
@@ -147,18 +362,91 @@ public class MainActivity extends AppCompatActivity {
         setupFilterButton(findViewById(R.id.btn_filter_red), "Red");
         setupFilterButton(findViewById(R.id.btn_filter_green), "Green");
         setupFilterButton(findViewById(R.id.btn_filter_blue), "Blue");
+        setupFilterButton(findViewById(R.id.btn_filter_document_bw), "Document B/W");
 
         // Set initial highlight
         updateButtonHighlights(filterButtons.get(0));
     }
 
+    // .cube LUTs bundled under assets/luts or dropped into the app's external files "luts" folder
+    // become extra filter buttons.
+    private void loadCubeFilters() {
+        File userLuts = getExternalFilesDir("luts");
+        cameraExecutor.execute(() -> {
+            List<String> loaded = new ArrayList<>();
+            try {
+                String[] assets = getAssets().list("luts");
+                if (assets != null) {
+                    for (String asset : assets) {
+                        if (asset.toLowerCase(Locale.US).endsWith(".cube")) {
+                            try (InputStream in = getAssets().open("luts/" + asset)) {
+                                registerCubeFilter(asset, in, loaded);
+                            }
+                        }
+                    }
+                }
+                File[] files = userLuts != null ? userLuts.listFiles((dir, name) -> name.toLowerCase(Locale.US).endsWith(".cube")) : null;
+                if (files != null) {
+                    for (File file : files) {
+                        try (InputStream in = new FileInputStream(file)) {
+                            registerCubeFilter(file.getName(), in, loaded);
+                        }
+                    }
+                }
+            } catch (IOException e) {
+                Log.e("MainActivity", "Failed to list LUT filters", e);
+            }
+            if (!loaded.isEmpty()) {
+                runOnUiThread(() -> addFilterButtons(loaded));
+            }
+        });
+    }
+
+    private static void registerCubeFilter(String fileName, InputStream in, List<String> loaded) {
+        try {
+            ColorLut lut = ColorLut.parseCube(new InputStreamReader(in, StandardCharsets.UTF_8));
+            String name = lut.getTitle() != null && !lut.getTitle().isEmpty()
+                    ? lut.getTitle() : fileName.substring(0, fileName.length() - ".cube".length());
+            if (FilterEngine.register(name, lut)) {
+                loaded.add(name);
+            } else {
+                Log.w("MainActivity", "Skipping LUT " + fileName + ": filter \"" + name + "\" already exists");
+            }
+        } catch (IOException e) {
+            Log.w("MainActivity", "Skipping unreadable LUT " + fileName, e);
+        }
+    }
+
+    private void addFilterButtons(List<String> filterNames) {
+        LinearLayout layout = findViewById(R.id.filter_buttons_layout);
+        for (String filterName : filterNames) {
+            Button button = new Button(this, null, android.R.attr.buttonBarButtonStyle);
+            button.setText(filterName);
+            button.setTextColor(Color.WHITE);
+            button.setAlpha(0.6f);
+            layout.addView(button);
+            setupFilterButton(button, filterName);
+        }
+    }
+
     @OptIn(markerClass = ExperimentalCamera2Interop.class)
     private void setupFilterButton(View button, final String filterName) {
         filterButtons.add(button);
         button.setOnClickListener(v -> {
+            boolean rebind = bufferFormatFor(filterName) != bufferFormatFor(currentFilter)
+                    || needsLivePreview(filterName) != needsLivePreview(currentFilter);
             currentFilter = filterName;
             updateButtonHighlights(v);
-            updatePreviewEffect();
+            if (rebind) {
+                startCamera(); // Also reapplies the preview effect
+            } else {
+                updatePreviewEffect();
+            }
+        });
+        // Long press picks a kept capture to export again with this filter.
+        button.setOnLongClickListener(v -> {
+            chooseCaptureToReprocess(filterName);
+            return true;
         });
     }
 
@@ -242,59 +530,204 @@ public class MainActivity extends AppCompatActivity {
                 (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q || ContextCompat.checkSelfPermission(this, Manifest.permission.WRITE_EXTERNAL_STORAGE) == PackageManager.PERMISSION_GRANTED);
     }
 
-    @OptIn(markerClass = ExperimentalCamera2Interop.class)
     private void startCamera() {
-        ListenableFuture<ProcessCameraProvider> cameraProviderFuture = ProcessCameraProvider.getInstance(this);
-
+        if (cameraProvider != null) {
+            bindUseCases();
+            return;
+        }
+        ListenableFuture<ProcessCameraProvider> cameraProviderFuture = CameraStartup.provider(this);
         cameraProviderFuture.addListener(() -> {
             try {
-                ProcessCameraProvider cameraProvider = cameraProviderFuture.get();
+                cameraProvider = cameraProviderFuture.get();
+                bindUseCases();
+            } catch (Exception e) {
+                Log.e("MainActivity", "Failed to start camera", e);
+                Toast.makeText(this, "Failed to start camera.", Toast.LENGTH_LONG).show();
+            }
+        }, ContextCompat.getMainExecutor(this));
+    }
 
-                Preview preview = new Preview.Builder().build();
+    // Binds only what changed: a camera flip rebinds the same use cases, a filter or mode change swaps one.
+    // setBufferFormat is restricted to the CameraX library group, but it is the only way to take
+    // YUV stills; bufferFormatFor only asks for YUV where the camera supports it.
+    @SuppressLint("RestrictedApi")
+    @OptIn(markerClass = ExperimentalCamera2Interop.class)
+    private void bindUseCases() {
+        try {
+            if (preview == null) {
+                preview = new Preview.Builder().build();
                 preview.setSurfaceProvider(viewFinder.getSurfaceProvider());
+            }
 
+            List<UseCase> stale = new ArrayList<>();
+            int bufferFormat = bufferFormatFor(currentFilter);
+            if (imageCapture == null || imageCapture.getCaptureMode() != captureMode || imageCaptureFormat != bufferFormat) {
+                if (imageCapture != null) {
+                    stale.add(imageCapture);
+                }
                 imageCapture = new ImageCapture.Builder()
-                        .setCaptureMode(ImageCapture.CAPTURE_MODE_MAXIMIZE_QUALITY)
+                        .setCaptureMode(captureMode)
+                        .setBufferFormat(bufferFormat)
                         .setFlashMode(flashMode)
                         .build();
+                imageCaptureFormat = bufferFormat;
+            }
 
+            // Always bound for document detection; RGBA only when the live filter preview needs it too.
+            boolean live = needsLivePreview(currentFilter);
+            int analysisFormat = live ? ImageAnalysis.OUTPUT_IMAGE_FORMAT_RGBA_8888 : ImageAnalysis.OUTPUT_IMAGE_FORMAT_YUV_420_888;
+            if (imageAnalysis == null || imageAnalysisFormat != analysisFormat) {
+                if (imageAnalysis != null) {
+                    stale.add(imageAnalysis);
+                }
+                imageAnalysis = new ImageAnalysis.Builder()
+                        .setResolutionSelector(new ResolutionSelector.Builder()
+                                .setResolutionStrategy(new ResolutionStrategy(LivePreviewFilter.ANALYSIS_SIZE,
+                                        ResolutionStrategy.FALLBACK_RULE_CLOSEST_LOWER_THEN_HIGHER))
+                                .build())
+                        .setBackpressureStrategy(ImageAnalysis.STRATEGY_KEEP_ONLY_LATEST)
+                        .setOutputImageFormat(analysisFormat)
+                        .build();
+                imageAnalysis.setAnalyzer(analysisExecutor, image -> {
+                    try {
+                        documentDetector.submit(image);
+                    } finally {
+                        if (live) {
+                            livePreview.analyze(image); // Closes the image
+                        } else {
+                            image.close();
+                        }
+                    }
+                });
+                imageAnalysisFormat = analysisFormat;
+            }
+
+            List<UseCase> useCases = new ArrayList<>();
+            useCases.add(preview);
+            useCases.add(imageCapture);
+            useCases.add(imageAnalysis);
+
+            if (cameraSelector != boundSelector) {
                 cameraProvider.unbindAll();
-                camera = cameraProvider.bindToLifecycle(this, cameraSelector, preview, imageCapture);
-                updatePreviewEffect();
+            } else if (!stale.isEmpty()) {
+                cameraProvider.unbind(stale.toArray(new UseCase[0]));
+            }
+            // Use cases already bound to this camera are left running.
+            camera = cameraProvider.bindToLifecycle(this, cameraSelector, useCases.toArray(new UseCase[0]));
+            boundSelector = cameraSelector;
+            updatePreviewEffect();
 
-            } catch (Exception e) {
-                Log.e("MainActivity", "Failed to start camera", e);
-                Toast.makeText(this, "Failed to start camera.", Toast.LENGTH_LONG).show();
+            if (onCameraBound != null) {
+                Runnable action = onCameraBound;
+                onCameraBound = null;
+                action.run();
             }
-        }, ContextCompat.getMainExecutor(this));
+
+        } catch (Exception e) {
+            boundSelector = null; // Next bind starts from a clean slate
+            if (imageCaptureFormat == ImageFormat.YUV_420_888 && jpegOnlySelectors.add(cameraSelector)) {
+                Log.w("MainActivity", "YUV capture rejected, falling back to JPEG", e);
+                bindUseCases();
+                return;
+            }
+            Log.e("MainActivity", "Failed to start camera", e);
+            Toast.makeText(this, "Failed to start camera.", Toast.LENGTH_LONG).show();
+        }
     }
 
-    @ExperimentalCamera2Interop
-    private void updatePreviewEffect() {
-        if (camera == null) {
-            return;
+    // Cold start is measured from process start when the platform reports it, otherwise from onCreate.
+    private void onFirstFrame() {
+        CaptureMetrics.Stage stage = firstFrameStage;
+        if (stage == null) return;
+        firstFrameStage = null;
+        long nanos = System.nanoTime() - firstFrameRequestNanos;
+        if (stage == CaptureMetrics.Stage.FIRST_FRAME) {
+            long coldStartMillis = CameraStartup.coldStartMillis();
+            if (coldStartMillis >= 0) {
+                Log.i("MainActivity", "Time to first frame: " + coldStartMillis + " ms from process start, "
+                        + nanos / 1_000_000 + " ms from onCreate");
+                nanos = coldStartMillis * 1_000_000;
+            } else {
+                Log.i("MainActivity", "Time to first frame: " + nanos / 1_000_000 + " ms from onCreate");
+            }
+        } else {
+            Log.i("MainActivity", "Camera switch: " + nanos / 1_000_000 + " ms to first frame");
+        }
+        captureMetrics.record(stage, nanos);
+        updateMetricsOverlay();
+    }
+
+    // Captures that are built from the luma plane alone come in as YUV, on cameras that can deliver
+    // it: Document B/W always, Grayscale only while pages are going into a PDF. A Grayscale JPEG
+    // keeps the camera's JPEG, which is passed through with its chroma dropped.
+    private int bufferFormatFor(String filterName) {
+        boolean luma = "Document B/W".equals(filterName) || "Grayscale".equals(filterName) && collectingPdfPages();
+        return luma && supportsYuvCapture(cameraSelector) ? ImageFormat.YUV_420_888 : ImageFormat.JPEG;
+    }
+
+    private boolean collectingPdfPages() {
+        return scanSession != null || appendTarget != null;
+    }
+
+    // After a scan starts or ends, or appending does: the filter may want the other still format now.
+    private void rebindIfFormatChanged() {
+        if (imageCapture != null && bufferFormatFor(currentFilter) != imageCaptureFormat) {
+            startCamera();
         }
+    }
 
-        int effectMode;
-        switch (currentFilter) {
+    // LEGACY cameras only guarantee a maximum-size YUV stream beside a single preview stream, not
+    // with analysis bound as well. Anything else that rejects it is found by the bind failing.
+    @OptIn(markerClass = ExperimentalCamera2Interop.class)
+    private boolean supportsYuvCapture(CameraSelector selector) {
+        if (jpegOnlySelectors.contains(selector)) return false;
+        if (cameraProvider == null) return true; // Checked again when the camera is bound
+        for (CameraInfo info : selector.filter(cameraProvider.getAvailableCameraInfos())) {
+            Integer level = Camera2CameraInfo.from(info).getCameraCharacteristic(CameraCharacteristics.INFO_SUPPORTED_HARDWARE_LEVEL);
+            if (level == null || level == CameraCharacteristics.INFO_SUPPORTED_HARDWARE_LEVEL_LEGACY) {
+                jpegOnlySelectors.add(selector);
+                return false;
+            }
+            return true;
+        }
+        return false;
+    }
+
+    // Camera effect mode that previews a filter for free, or -1 when it needs the CPU preview.
+    private static int hardwareEffectFor(String filterName) {
+        switch (filterName) {
+            case "Normal":
+                return CaptureRequest.CONTROL_EFFECT_MODE_OFF;
             case "Grayscale":
-                effectMode = CaptureRequest.CONTROL_EFFECT_MODE_MONO;
-                break;
+            case "Document B/W":
+                return CaptureRequest.CONTROL_EFFECT_MODE_MONO;
             case "Sepia":
-                effectMode = CaptureRequest.CONTROL_EFFECT_MODE_SEPIA;
-                break;
+                return CaptureRequest.CONTROL_EFFECT_MODE_SEPIA;
             case "Invert":
-                effectMode = CaptureRequest.CONTROL_EFFECT_MODE_NEGATIVE;
-                break;
+                return CaptureRequest.CONTROL_EFFECT_MODE_NEGATIVE;
             case "Aqua":
-                effectMode = CaptureRequest.CONTROL_EFFECT_MODE_AQUA;
-                break;
+                return CaptureRequest.CONTROL_EFFECT_MODE_AQUA;
             default:
-                effectMode = CaptureRequest.CONTROL_EFFECT_MODE_OFF;
-                if (currentFilter.equals("Red") || currentFilter.equals("Green") || currentFilter.equals("Blue")) {
-                    Toast.makeText(this, currentFilter + " filter only applied to captured image", Toast.LENGTH_SHORT).show();
-                }
-                break;
+                return -1;
+        }
+    }
+
+    private static boolean needsLivePreview(String filterName) {
+        return hardwareEffectFor(filterName) < 0 && !FilterEngine.forName(filterName).isIdentity();
+    }
+
+    @ExperimentalCamera2Interop
+    private void updatePreviewEffect() {
+        if (camera == null) {
+            return;
+        }
+
+        int effectMode = hardwareEffectFor(currentFilter);
+        if (effectMode < 0) {
+            effectMode = CaptureRequest.CONTROL_EFFECT_MODE_OFF;
+            livePreview.setTransform(FilterEngine.forName(currentFilter), cameraSelector == CameraSelector.DEFAULT_FRONT_CAMERA);
+        } else {
+            livePreview.hide();
         }
 
         Camera2CameraControl camera2Control = Camera2CameraControl.from(camera.getCameraControl());
@@ -311,262 +744,981 @@ public class MainActivity extends AppCompatActivity {
         }, ContextCompat.getMainExecutor(this));
     }
 
-    private void captureAndProcessImage(Consumer<Bitmap> saveAction) {
-        if (imageCapture == null) return;
+    private void captureJpeg() {
+        if (!startJpegCapture(null)) {
+            Toast.makeText(this, "Still saving previous captures.", Toast.LENGTH_SHORT).show();
+        }
+    }
+
+    /**
+     * Takes one picture and sends it down the save pipeline. Returns false, without capturing, if
+     * the pipeline is saturated or too many captures wait for export. Burst frames report to
+     * {@code burst} instead of showing toasts.
+     */
+    private boolean startJpegCapture(BurstCapture burst) {
+        if (imageCapture == null) return false;
+        if (!deferredQueue.hasRoom()) return false;
+        if (!savePipeline.tryBegin()) return false;
 
         imageCapture.setTargetRotation(viewFinder.getDisplay().getRotation());
+        final String filter = currentFilter;
+        // Only document shots are cropped to the detected page; photos and burst frames keep the
+        // whole frame, and with it the zero-decode passthrough.
+        final Quad quad = burst == null && "Document B/W".equals(filter) ? documentDetector.latest() : null;
+        final CaptureMetrics.Trace trace = captureMetrics.begin();
 
         imageCapture.takePicture(cameraExecutor, new ImageCapture.OnImageCapturedCallback() {
             @Override
             public void onCaptureSuccess(@NonNull ImageProxy image) {
-                Bitmap sourceBitmap = imageProxyToBitmap(image);
-                image.close();
+                trace.stage(CaptureMetrics.Stage.SHUTTER, trace.getStartNanos());
+                long callbackStart = System.nanoTime();
+                CompletableFuture<Uri> saved = processJpeg(image, filter, quad, trace);
+                trace.stage(CaptureMetrics.Stage.CALLBACK, callbackStart);
+                savePipeline.finish(saved, (uri, error) -> {
+                    if (error == null) {
+                        trace.finish();
+                    }
+                    updateMetricsOverlay();
+                    if (burst != null) {
+                        burst.setQueueDepth(savePipeline.getQueueDepth(), deferredQueue.backlog());
+                        if (error != null) {
+                            Log.w("MainActivity", "Burst frame failed", error);
+                            burst.onFrameFailed();
+                        } else {
+                            burst.onFrameSaved();
+                        }
+                    } else if (error != null) {
+                        Toast.makeText(MainActivity.this, "Failed to save JPEG: " + describe(error), Toast.LENGTH_LONG).show();
+                    } else if (uri == null) {
+                        Toast.makeText(MainActivity.this, "Image captured, processing in background", Toast.LENGTH_SHORT).show();
+                    } else {
+                        Toast.makeText(MainActivity.this, "Image saved as JPEG", Toast.LENGTH_SHORT).show();
+                    }
+                });
+            }
+
+            @Override
+            public void onError(@NonNull ImageCaptureException exception) {
+                savePipeline.abort();
+                runOnUiThread(() -> {
+                    if (burst != null) {
+                        burst.onFrameFailed();
+                    } else {
+                        Toast.makeText(MainActivity.this, "Image capture failed: " + exception.getMessage(), Toast.LENGTH_SHORT).show();
+                    }
+                });
+            }
+        });
+        return true;
+    }
+
+    // Burst capture rebinds ImageCapture in latency mode, then fires at burstFps until stopped.
+    private void startBurst() {
+        if (imageCapture == null) {
+            Toast.makeText(this, "Camera not ready.", Toast.LENGTH_SHORT).show();
+            return;
+        }
+        burstCapture = new BurstCapture(new Handler(Looper.getMainLooper()), burstFps,
+                () -> {
+                    BurstCapture burst = burstCapture;
+                    burst.setQueueDepth(savePipeline.getQueueDepth(), deferredQueue.backlog());
+                    return startJpegCapture(burst);
+                },
+                burst -> burstStats.setText(burst.describe()));
+        burstStats.setText(burstCapture.describe());
+        burstStats.setVisibility(View.VISIBLE);
+
+        // Fire only once the latency-optimised ImageCapture is bound.
+        BurstCapture burst = burstCapture;
+        onCameraBound = () -> {
+            if (burstCapture == burst) {
+                burst.start();
+            }
+        };
+        captureMode = ImageCapture.CAPTURE_MODE_MINIMIZE_LATENCY;
+        startCamera();
+    }
+
+    private void cycleBurstRate() {
+        float next = BURST_RATES[0];
+        for (float rate : BURST_RATES) {
+            if (rate > burstFps) {
+                next = rate;
+                break;
+            }
+        }
+        burstFps = next;
+        getPreferences(MODE_PRIVATE).edit().putFloat(PREF_BURST_FPS, next).apply();
+        if (burstCapture != null) {
+            burstCapture.setFramesPerSecond(next);
+            burstStats.setText(burstCapture.describe());
+        }
+    }
+
+    private void stopBurst() {
+        if (burstCapture == null) return;
+        BurstCapture burst = burstCapture;
+        burst.stop();
+        burstCapture = null;
+        burstStats.setVisibility(View.GONE);
+        Log.i("MainActivity", "Burst finished: " + burst.describe());
+        Toast.makeText(this, "Burst: " + burst.getSaved() + " saved, " + burst.getDropped() + " dropped, "
+                + deferredQueue.backlog() + " still exporting", Toast.LENGTH_SHORT).show();
+
+        captureMode = ImageCapture.CAPTURE_MODE_MAXIMIZE_QUALITY;
+        startCamera();
+    }
+
+    // Runs on the camera executor. A YUV capture is encoded here and now; a JPEG capture is only
+    // stored with its recipe, which is all the shutter waits for, and exported by the deferred queue.
+    private CompletableFuture<Uri> processJpeg(ImageProxy image, String filter, Quad quad, CaptureMetrics.Trace trace) {
+        int rotationDegrees = image.getImageInfo().getRotationDegrees();
+        if (LumaCapture.isYuv(image)) {
+            return processGrayJpeg(image, rotationDegrees, filter, quad, trace);
+        }
+
+        ByteBuffer jpeg = captureDecoder.copyJpeg(image); // Closes the image
+        CaptureRecipe recipe = new CaptureRecipe(filter, rotationDegrees, quad, CaptureRecipe.Output.JPEG, System.currentTimeMillis());
+        return savePipeline.start(SavePipeline.Stage.PERSIST, () -> {
+            try {
+                long start = System.nanoTime();
+                enqueueDeferred(jpeg, recipe);
+                trace.stage(CaptureMetrics.Stage.WRITE, start);
+                return null;
+            } finally {
+                bufferPool.release(jpeg);
+            }
+        });
+    }
+
+    private String enqueueDeferred(ByteBuffer jpeg, CaptureRecipe recipe) {
+        try {
+            return deferredQueue.enqueue(jpeg, recipe);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // Deferred queue thread, at low priority: exports one kept capture as its recipe says. An
+    // export made again goes into the entry the last one wrote.
+    private String exportDeferred(File raw, CaptureRecipe recipe) throws IOException {
+        ByteBuffer jpeg = captureDecoder.readJpeg(raw);
+        CaptureMetrics.Trace trace = captureMetrics.begin();
+        Uri existing = recipe.exportedTo != null ? Uri.parse(recipe.exportedTo) : null;
+        Uri uri;
+        try {
+            if (recipe.output == CaptureRecipe.Output.PDF) {
+                PageImage page = renderPdfPage(jpeg, recipe.rotationDegrees, recipe.filter, recipe.quad, trace);
+                long start = System.nanoTime();
+                uri = writeToMediaStore(existing, PDF_FILE, pdfFileName(recipe.capturedMillis), out -> writePdf(page, out));
+                trace.stage(CaptureMetrics.Stage.WRITE, start);
+            } else {
+                uri = exportJpeg(jpeg, recipe, existing, trace);
+            }
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        } finally {
+            bufferPool.release(jpeg);
+        }
+        trace.finish();
+        return uri.toString();
+    }
+
+    // With a detected page, only the flattened page goes on to filter, encode and write.
+    private Uri exportJpeg(ByteBuffer jpeg, CaptureRecipe recipe, Uri existing, CaptureMetrics.Trace trace) {
+        String filter = recipe.filter;
+        int rotationDegrees = recipe.rotationDegrees;
+        Quad quad = recipe.quad;
+        String name = jpegFileName(recipe.capturedMillis);
+
+        if (quad == null && JpegPassthrough.supports(filter)) {
+            // Zero-decode path: the camera JPEG is written as-is, with rotation stored as EXIF orientation.
+            JpegPassthrough.Rewrite rewrite = JpegPassthrough.rewrite(jpeg, rotationDegrees, filter);
+            if (rewrite != null) {
+                long start = System.nanoTime();
+                Uri uri = writeToMediaStore(existing, JPEG_FILE, name, out -> JpegPassthrough.write(rewrite, jpeg, out));
+                trace.stage(CaptureMetrics.Stage.WRITE, start);
+                return uri;
+            }
+            // Unusual JPEG layout; fall back to decoding.
+        }
+
+        // Document B/W thresholds against neighbourhoods, so it always takes the whole frame.
+        if (quad == null && !"Document B/W".equals(filter)) {
+            BitmapFactory.Options bounds = CaptureDecoder.readBounds(jpeg);
+            if (!tileBudget.fitsWhole(bounds.outWidth, bounds.outHeight)) {
+                // Decode, filter and encode stream straight into the record; the writer records those stages.
+                // Only the deferred queue's single thread gets here, so one oversized capture is in flight.
+                ColorTransform transform = FilterEngine.forName(filter);
+                return streamToMediaStore(existing, JPEG_FILE, name, out ->
+                        tiledJpegWriter.write(jpeg, rotationDegrees, transform, JPEG_QUALITY, out, trace));
+            }
+        }
+
+        // Records DECODE, ROTATE and CROP itself
+        Bitmap decoded = quad != null ? captureDecoder.decodeCropped(jpeg, rotationDegrees, quad) : captureDecoder.decode(jpeg, rotationDegrees);
+        trace.sampleHeaps();
+        long start = System.nanoTime();
+        Bitmap filtered = applyFilter(decoded, filter);
+        trace.stage(CaptureMetrics.Stage.FILTER, start);
+        byte[] bytes;
+        try {
+            start = System.nanoTime();
+            bytes = encodeJpeg(filtered);
+            trace.stage(CaptureMetrics.Stage.ENCODE, start);
+        } finally {
+            bitmapPool.release(filtered);
+        }
+        start = System.nanoTime();
+        Uri uri = writeToMediaStore(existing, JPEG_FILE, name, out -> out.write(bytes));
+        trace.stage(CaptureMetrics.Stage.WRITE, start);
+        return uri;
+    }
+
+    // Deferred queue thread. Successes only refresh the overlay; the capture was acknowledged when it was kept.
+    private void onDeferredExported(String id, CaptureRecipe recipe, Throwable error) {
+        if (error != null) {
+            Log.w("MainActivity", "Deferred export " + id + " (" + recipe + ") failed", error);
+        }
+        runOnUiThread(() -> {
+            updateMetricsOverlay();
+            if (error != null) {
+                Toast.makeText(this, "Failed to process capture: " + describe(error), Toast.LENGTH_LONG).show();
+            }
+        });
+    }
+
+    // Lists the captures still kept, newest first; the chosen one is exported again with the filter.
+    private void chooseCaptureToReprocess(String filterName) {
+        cameraExecutor.execute(() -> {
+            Map<String, CaptureRecipe> retained = deferredQueue.retained();
+            runOnUiThread(() -> {
+                if (isDestroyed()) return;
+                if (retained.isEmpty()) {
+                    Toast.makeText(this, "No capture to reprocess", Toast.LENGTH_SHORT).show();
+                    return;
+                }
+                List<String> ids = new ArrayList<>(retained.keySet());
+                SimpleDateFormat format = new SimpleDateFormat("MMM d, HH:mm:ss", Locale.US);
+                CharSequence[] labels = new CharSequence[ids.size()];
+                for (int i = 0; i < labels.length; i++) {
+                    CaptureRecipe recipe = retained.get(ids.get(i));
+                    labels[i] = format.format(recipe.capturedMillis) + "  " + recipe.output + ", " + recipe.filter;
+                }
+                new AlertDialog.Builder(this)
+                        .setTitle("Reprocess as " + filterName)
+                        .setItems(labels, (dialog, which) -> reprocess(ids.get(which), filterName))
+                        .setNegativeButton("Cancel", null)
+                        .show();
+            });
+        });
+    }
+
+    // The recipe is rewritten off the main thread; the export itself waits its turn in the queue
+    // and replaces the capture's earlier output.
+    private void reprocess(String id, String filterName) {
+        cameraExecutor.execute(() -> {
+            String message;
+            try {
+                message = deferredQueue.reprocess(id, filterName)
+                        ? "Reprocessing capture as " + filterName
+                        : "Capture is no longer kept";
+            } catch (IOException e) {
+                Log.w("MainActivity", "Failed to reprocess capture " + id, e);
+                message = "Failed to reprocess: " + e.getMessage();
+            }
+            String text = message;
+            runOnUiThread(() -> Toast.makeText(this, text, Toast.LENGTH_SHORT).show());
+        });
+    }
+
+    // A captured PDF page waiting for the user to confirm it. Until Save only its thumbnail is made;
+    // the full-resolution decode, filter and encode run in render(), or later for a deferred page.
+    private static final class PendingPage {
+        final long id;
+        private final Function<CaptureMetrics.Trace, PageImage> render;
+        // Keeps a JPEG page for the deferred queue instead; null for YUV pages.
+        private final Consumer<CaptureMetrics.Trace> defer;
+        private final Runnable release;
+        private final AtomicBoolean released = new AtomicBoolean();
+
+        PendingPage(long id, Function<CaptureMetrics.Trace, PageImage> render, Consumer<CaptureMetrics.Trace> defer, Runnable release) {
+            this.id = id;
+            this.render = render;
+            this.defer = defer;
+            this.release = release;
+        }
+
+        /** Hands the page to the deferred queue as a single-page PDF; false if it must be rendered now. */
+        boolean defer(CaptureMetrics.Trace trace) {
+            if (defer == null) return false;
+            try {
+                defer.accept(trace);
+            } finally {
+                release();
+            }
+            return true;
+        }
 
-                Bitmap filteredBitmap = applyFilter(sourceBitmap);
+        PageImage render(CaptureMetrics.Trace trace) {
+            try {
+                return render.apply(trace);
+            } finally {
+                release();
+            }
+        }
+
+        /** Frees the capture's source buffers; safe to call more than once. */
+        void release() {
+            if (released.compareAndSet(false, true)) {
+                release.run();
+            }
+        }
+    }
+
+    // The dialog opens on the tap; the thumbnail fills in once the capture is decoded.
+    private void capturePdfPage() {
+        if (imageCapture == null) return;
+        if (!savePipeline.tryBegin()) {
+            Toast.makeText(this, "Still saving previous captures.", Toast.LENGTH_SHORT).show();
+            return;
+        }
 
-                runOnUiThread(() -> saveAction.accept(filteredBitmap));
+        imageCapture.setTargetRotation(viewFinder.getDisplay().getRotation());
+        final String filter = currentFilter;
+        final Quad quad = documentDetector.latest();
+        final int previewWidth = viewFinder.getWidth();
+        final int previewHeight = viewFinder.getHeight();
+        final long pageId = nextPageId++;
+        // Covers shutter to thumbnail, recorded as PREVIEW; the save after the user confirms is traced separately.
+        final CaptureMetrics.Trace trace = captureMetrics.begin();
+        final CompletableFuture<PendingPage> captured = new CompletableFuture<>();
+        final Dialog dialog = showPreviewDialog(captured);
+
+        imageCapture.takePicture(cameraExecutor, new ImageCapture.OnImageCapturedCallback() {
+            @Override
+            public void onCaptureSuccess(@NonNull ImageProxy image) {
+                trace.stage(CaptureMetrics.Stage.SHUTTER, trace.getStartNanos());
+                long callbackStart = System.nanoTime();
+                CompletableFuture<PendingPage> prepared;
+                if (LumaCapture.isYuv(image)) {
+                    prepared = savePipeline.start(SavePipeline.Stage.DECODE, () -> prepareGrayPdfPage(pageId, image, filter, quad, previewWidth, previewHeight, trace));
+                } else {
+                    int rotationDegrees = image.getImageInfo().getRotationDegrees();
+                    ByteBuffer jpeg = captureDecoder.copyJpeg(image); // Closes the image
+                    prepared = savePipeline.start(SavePipeline.Stage.DECODE, () -> {
+                        try {
+                            return preparePdfPage(pageId, jpeg, rotationDegrees, filter, quad, previewWidth, previewHeight, trace);
+                        } catch (RuntimeException e) {
+                            bufferPool.release(jpeg);
+                            throw e;
+                        } finally {
+                            trace.sampleHeaps();
+                        }
+                    });
+                }
+                trace.stage(CaptureMetrics.Stage.CALLBACK, callbackStart);
+                savePipeline.finish(prepared, (pending, error) -> {
+                    if (error == null) {
+                        trace.finish(CaptureMetrics.Stage.PREVIEW);
+                    }
+                    updateMetricsOverlay();
+                    if (error != null) {
+                        captured.completeExceptionally(error);
+                        dialog.dismiss();
+                        Toast.makeText(MainActivity.this, "Failed to prepare PDF page: " + describe(error), Toast.LENGTH_LONG).show();
+                        return;
+                    }
+                    captured.complete(pending);
+                    if (isFinishing()) {
+                        pending.release();
+                    } else if (dialog.isShowing()) {
+                        ImageView previewImage = dialog.findViewById(R.id.preview_image);
+                        previewImage.setImageBitmap(thumbnails.get(pending.id));
+                    }
+                });
             }
 
             @Override
             public void onError(@NonNull ImageCaptureException exception) {
-                runOnUiThread(() -> Toast.makeText(MainActivity.this, "Image capture failed: " + exception.getMessage(), Toast.LENGTH_SHORT).show());
+                savePipeline.abort();
+                runOnUiThread(() -> {
+                    captured.completeExceptionally(exception);
+                    dialog.dismiss();
+                    Toast.makeText(MainActivity.this, "Image capture failed: " + exception.getMessage(), Toast.LENGTH_SHORT).show();
+                });
             }
         });
     }
 
-    private void showPreviewDialog(Bitmap bitmap) {
+    // Decode stage for a JPEG PDF page: only the thumbnail is decoded now; the JPEG is kept for render.
+    private PendingPage preparePdfPage(long pageId, ByteBuffer jpeg, int rotationDegrees, String filter, Quad quad,
+                                       int previewWidth, int previewHeight, CaptureMetrics.Trace trace) {
+        Bitmap thumbnail = quad != null
+                ? captureDecoder.decodeCroppedThumbnail(jpeg, rotationDegrees, quad, previewWidth, previewHeight)
+                : captureDecoder.decodeThumbnail(jpeg, rotationDegrees, previewWidth, previewHeight);
+        long start = System.nanoTime();
+        thumbnails.put(pageId, applyFilter(thumbnail, filter));
+        trace.stage(CaptureMetrics.Stage.FILTER, start);
+        CaptureRecipe recipe = new CaptureRecipe(filter, rotationDegrees, quad, CaptureRecipe.Output.PDF, System.currentTimeMillis());
+        return new PendingPage(pageId, saveTrace -> renderPdfPage(jpeg, rotationDegrees, filter, quad, saveTrace),
+                saveTrace -> {
+                    long writeStart = System.nanoTime();
+                    enqueueDeferred(jpeg, recipe);
+                    saveTrace.stage(CaptureMetrics.Stage.WRITE, writeStart);
+                },
+                () -> bufferPool.release(jpeg));
+    }
+
+    // Full-resolution JPEG page on Save: never decodes more pixels than the page layout will keep.
+    private PageImage renderPdfPage(ByteBuffer jpeg, int rotationDegrees, String filter, Quad quad, CaptureMetrics.Trace trace) {
+        Bitmap decoded;
+        if (quad != null) {
+            decoded = captureDecoder.decodeCroppedForPage(jpeg, rotationDegrees, quad, pdfPageLayout);
+        } else {
+            BitmapFactory.Options bounds = CaptureDecoder.readBounds(jpeg);
+            if (FilterEngine.forName(filter).isIdentity()) {
+                boolean swap = rotationDegrees % 180 != 0;
+                float scale = pdfPageLayout.resampleScale(swap ? bounds.outHeight : bounds.outWidth, swap ? bounds.outWidth : bounds.outHeight);
+                if (scale >= 1f) {
+                    // Already within the target DPI: embed the camera JPEG without decoding it.
+                    byte[] bytes = new byte[jpeg.remaining()];
+                    jpeg.duplicate().get(bytes);
+                    return PdfImageEncoder.fromCameraJpeg(bytes, bounds.outWidth, bounds.outHeight, rotationDegrees);
+                }
+            }
+            decoded = captureDecoder.decodeForPage(jpeg, rotationDegrees, pdfPageLayout);
+        }
+        long start = System.nanoTime();
+        Bitmap filtered = applyFilter(decoded, filter);
+        trace.stage(CaptureMetrics.Stage.FILTER, start);
+        try {
+            start = System.nanoTime();
+            PageImage page = encodeForPdf(filtered);
+            trace.stage(CaptureMetrics.Stage.ENCODE, start);
+            return page;
+        } finally {
+            bitmapPool.release(filtered);
+        }
+    }
+
+    // YUV capture: JPEG-encodes the luma plane with neutral chroma, rotation goes into EXIF. A detected
+    // page is flattened upright first, so its JPEG needs no orientation tag.
+    private CompletableFuture<Uri> processGrayJpeg(ImageProxy image, int rotationDegrees, String filter, Quad quad, CaptureMetrics.Trace trace) {
+        boolean binarize = "Document B/W".equals(filter);
+        CompletableFuture<byte[]> encoded;
+        if (quad != null) {
+            LumaImage sensor = LumaCapture.read(image, 1f);
+            image.close();
+            encoded = savePipeline.start(SavePipeline.Stage.ENCODE, () -> {
+                long start = System.nanoTime();
+                LumaImage page = PerspectiveWarp.of(quad, rotationDegrees, sensor.width, sensor.height, 1f).apply(sensor);
+                trace.stage(CaptureMetrics.Stage.CROP, start);
+                if (binarize) {
+                    start = System.nanoTime();
+                    AdaptiveBinarizer.binarize(page).expandInto(page.pixels);
+                    trace.stage(CaptureMetrics.Stage.FILTER, start);
+                }
+                ByteBuffer nv21 = LumaCapture.toNv21(page, bufferPool);
+                try {
+                    start = System.nanoTime();
+                    byte[] bytes = LumaCapture.encodeNv21Jpeg(nv21, page.width, page.height, 100);
+                    trace.stage(CaptureMetrics.Stage.ENCODE, start);
+                    return bytes;
+                } finally {
+                    bufferPool.release(nv21);
+                }
+            });
+        } else {
+            int width = image.getWidth();
+            int height = image.getHeight();
+            ByteBuffer nv21 = LumaCapture.copyAsNv21(image, bufferPool); // Closes the image
+            encoded = savePipeline.start(SavePipeline.Stage.ENCODE, () -> {
+                try {
+                    long start = System.nanoTime();
+                    if (binarize) {
+                        LumaCapture.binarizeNv21(nv21, width, height);
+                        trace.stage(CaptureMetrics.Stage.FILTER, start);
+                        start = System.nanoTime();
+                    }
+                    byte[] bytes = LumaCapture.encodeNv21Jpeg(nv21, width, height, 100);
+                    trace.stage(CaptureMetrics.Stage.ENCODE, start);
+                    return bytes;
+                } finally {
+                    bufferPool.release(nv21);
+                }
+            });
+        }
+        int orientation = quad != null ? 0 : rotationDegrees;
+        return savePipeline.then(encoded, SavePipeline.Stage.PERSIST, bytes -> {
+            ByteBuffer jpeg = ByteBuffer.wrap(bytes);
+            JpegPassthrough.Rewrite rewrite = JpegPassthrough.rewrite(jpeg, orientation, "Normal");
+            long start = System.nanoTime();
+            Uri uri = writeToMediaStore(JPEG_FILE, jpegFileName(System.currentTimeMillis()), out -> {
+                if (rewrite != null) {
+                    JpegPassthrough.write(rewrite, jpeg, out);
+                } else {
+                    out.write(bytes);
+                }
+            });
+            trace.stage(CaptureMetrics.Stage.WRITE, start);
+            return uri;
+        });
+    }
+
+    // Decode stage for a YUV PDF page: the luma plane is read at page resolution, so the camera buffer
+    // goes back at once, and a thumbnail is made from it. Crop, rotation and binarizing wait for render.
+    private PendingPage prepareGrayPdfPage(long pageId, ImageProxy image, String filter, Quad quad,
+                                           int previewWidth, int previewHeight, CaptureMetrics.Trace trace) {
+        int rotationDegrees = image.getImageInfo().getRotationDegrees();
+        LumaImage sensor;
+        try {
+            boolean swap = rotationDegrees % 180 != 0;
+            int uprightWidth = swap ? image.getHeight() : image.getWidth();
+            int uprightHeight = swap ? image.getWidth() : image.getHeight();
+            // Page DPI is measured on the flattened page when there is one.
+            int[] size = quad != null ? quad.rotate(rotationDegrees).cropSize(uprightWidth, uprightHeight) : new int[]{uprightWidth, uprightHeight};
+            float scale = pdfPageLayout.resampleScale(size[0], size[1]);
+            long start = System.nanoTime();
+            sensor = LumaCapture.read(image, scale);
+            trace.stage(CaptureMetrics.Stage.DECODE, start);
+        } finally {
+            image.close();
+        }
+
+        boolean binarize = "Document B/W".equals(filter);
+        LumaImage small;
+        if (quad != null) {
+            PerspectiveWarp page = PerspectiveWarp.of(quad, rotationDegrees, sensor.width, sensor.height, 1f);
+            float fit = Math.min(previewWidth / (float) page.outWidth, previewHeight / (float) page.outHeight);
+            small = PerspectiveWarp.of(quad, rotationDegrees, sensor.width, sensor.height, fit).apply(sensor);
+        } else {
+            boolean swap = rotationDegrees % 180 != 0;
+            float fit = Math.min(1f, Math.min(previewWidth / (float) (swap ? sensor.height : sensor.width),
+                    previewHeight / (float) (swap ? sensor.width : sensor.height)));
+            small = LumaImage.fromPlane(ByteBuffer.wrap(sensor.pixels), sensor.width, sensor.width, sensor.height, fit).rotate(rotationDegrees);
+        }
+        if (binarize) {
+            AdaptiveBinarizer.binarize(small).expandInto(small.pixels);
+        }
+        thumbnails.put(pageId, LumaCapture.toPreview(small));
+        return new PendingPage(pageId, saveTrace -> renderGrayPdfPage(sensor, rotationDegrees, quad, binarize, saveTrace), null, () -> {
+        });
+    }
+
+    // Full-resolution YUV page on Save: an 8-bit DeviceGray image, or CCITT G4 bilevel for Document B/W.
+    private PageImage renderGrayPdfPage(LumaImage sensor, int rotationDegrees, Quad quad, boolean binarize, CaptureMetrics.Trace trace) {
+        long start = System.nanoTime();
+        LumaImage luma = quad != null
+                ? PerspectiveWarp.of(quad, rotationDegrees, sensor.width, sensor.height, 1f).apply(sensor)
+                : sensor.rotate(rotationDegrees);
+        trace.stage(quad != null ? CaptureMetrics.Stage.CROP : CaptureMetrics.Stage.ROTATE, start);
+        if (binarize) {
+            start = System.nanoTime();
+            BilevelImage bilevel = AdaptiveBinarizer.binarize(luma);
+            trace.stage(CaptureMetrics.Stage.FILTER, start);
+            start = System.nanoTime();
+            PageImage page = bilevel.toPageImage();
+            trace.stage(CaptureMetrics.Stage.ENCODE, start);
+            return page;
+        }
+        return luma.toPageImage();
+    }
+
+    // Opens at once with an empty image; Save waits for the capture if it hasn't arrived yet.
+    private Dialog showPreviewDialog(CompletableFuture<PendingPage> captured) {
         Dialog dialog = new Dialog(this);
         dialog.setContentView(R.layout.dialog_preview);
 
-        ImageView previewImage = dialog.findViewById(R.id.preview_image);
-        previewImage.setImageBitmap(bitmap);
-
         Button saveButton = dialog.findViewById(R.id.save_button);
         saveButton.setOnClickListener(v -> {
-            saveAsPdf(bitmap);
             dialog.dismiss();
+            savePdfPage(captured);
         });
 
         Button cancelButton = dialog.findViewById(R.id.cancel_button);
-        cancelButton.setOnClickListener(v -> dialog.dismiss());
+        cancelButton.setOnClickListener(v -> dialog.cancel());
+        // Cancel button or back: the page is dropped whenever its capture arrives.
+        dialog.setOnCancelListener(d -> captured.thenAccept(pending -> {
+            pending.release();
+            thumbnails.remove(pending.id);
+        }));
 
         dialog.show();
+        return dialog;
     }
 
-    private Bitmap imageProxyToBitmap(ImageProxy image) {
-        ByteBuffer buffer = image.getPlanes()[0].getBuffer();
-        byte[] bytes = new byte[buffer.remaining()];
-        buffer.get(bytes);
-        Bitmap sourceBitmap = BitmapFactory.decodeByteArray(bytes, 0, bytes.length);
+    private Bitmap applyFilter(Bitmap originalBitmap, String filterName) {
+        if ("Document B/W".equals(filterName)) {
+            return binarize(originalBitmap);
+        }
+        ColorTransform matrix = FilterEngine.forName(filterName);
+        if (matrix.isIdentity()) {
+            return originalBitmap; // Normal
+        }
 
-        Matrix matrix = new Matrix();
-        matrix.postRotate(image.getImageInfo().getRotationDegrees());
+        // Filter in place; only copy when the source can't be written to.
+        Bitmap target = originalBitmap;
+        if (!originalBitmap.isMutable() || originalBitmap.getConfig() != Bitmap.Config.ARGB_8888) {
+            target = originalBitmap.copy(Bitmap.Config.ARGB_8888, true);
+            bitmapPool.release(originalBitmap);
+        }
+        FilterEngine.apply(matrix, new BitmapPixelBuffer(target));
+        return target;
+    }
 
-        return Bitmap.createBitmap(
-                sourceBitmap, 0, 0, sourceBitmap.getWidth(), sourceBitmap.getHeight(), matrix, true
-        );
+    // Pixel-path fallback for Document B/W when a capture arrives as JPEG.
+    private Bitmap binarize(Bitmap originalBitmap) {
+        Bitmap target = originalBitmap;
+        if (!originalBitmap.isMutable() || originalBitmap.getConfig() != Bitmap.Config.ARGB_8888) {
+            target = originalBitmap.copy(Bitmap.Config.ARGB_8888, true);
+            bitmapPool.release(originalBitmap);
+        }
+        LumaImage luma = LumaCapture.fromBitmap(target);
+        AdaptiveBinarizer.binarize(luma).expandInto(luma.pixels);
+        LumaCapture.writeToBitmap(luma, target);
+        return target;
     }
 
-    private Bitmap applyFilter(Bitmap originalBitmap) {
-        switch (currentFilter) {
-            case "Grayscale":
-                return toGrayscale(originalBitmap);
-            case "Sepia":
-                return toSepia(originalBitmap);
-            case "Invert":
-                return toInvert(originalBitmap);
-            case "Aqua":
-                return toAqua(originalBitmap);
-            case "Red":
-                return toRed(originalBitmap);
-            case "Green":
-                return toGreen(originalBitmap);
-            case "Blue":
-                return toBlue(originalBitmap);
-            default: // Normal
-                return originalBitmap;
-        }
-    }
-
-    private Bitmap toGrayscale(Bitmap original) {
-        Bitmap grayscaleBitmap = Bitmap.createBitmap(original.getWidth(), original.getHeight(), Bitmap.Config.ARGB_8888);
-        Canvas canvas = new Canvas(grayscaleBitmap);
-        Paint paint = new Paint();
-        ColorMatrix colorMatrix = new ColorMatrix();
-        colorMatrix.setSaturation(0);
-        ColorMatrixColorFilter filter = new ColorMatrixColorFilter(colorMatrix);
-        paint.setColorFilter(filter);
-        canvas.drawBitmap(original, 0, 0, paint);
-        return grayscaleBitmap;
-    }
-
-    private Bitmap toSepia(Bitmap original) {
-        Bitmap sepiaBitmap = Bitmap.createBitmap(original.getWidth(), original.getHeight(), Bitmap.Config.ARGB_8888);
-        Canvas canvas = new Canvas(sepiaBitmap);
-        Paint paint = new Paint();
-        ColorMatrix matrix = new ColorMatrix();
-        matrix.setSaturation(0);
-        ColorMatrix sepiaMatrix = new ColorMatrix();
-        sepiaMatrix.setScale(1f, 0.95f, 0.82f, 1.0f);
-        matrix.postConcat(sepiaMatrix);
-        paint.setColorFilter(new ColorMatrixColorFilter(matrix));
-        canvas.drawBitmap(original, 0, 0, paint);
-        return sepiaBitmap;
-    }
-
-    private Bitmap toInvert(Bitmap original) {
-        Bitmap invertedBitmap = Bitmap.createBitmap(original.getWidth(), original.getHeight(), Bitmap.Config.ARGB_8888);
-        Canvas canvas = new Canvas(invertedBitmap);
-        Paint paint = new Paint();
-        ColorMatrix matrix = new ColorMatrix();
-        matrix.set(new float[]{
-                -1, 0, 0, 0, 255,
-                0, -1, 0, 0, 255,
-                0, 0, -1, 0, 255,
-                0, 0, 0, 1, 0
-        });
-        paint.setColorFilter(new ColorMatrixColorFilter(matrix));
-        canvas.drawBitmap(original, 0, 0, paint);
-        return invertedBitmap;
-    }
-
-    private Bitmap toAqua(Bitmap original) {
-        Bitmap aquaBitmap = Bitmap.createBitmap(original.getWidth(), original.getHeight(), Bitmap.Config.ARGB_8888);
-        Canvas canvas = new Canvas(aquaBitmap);
-        Paint paint = new Paint();
-        ColorMatrix matrix = new ColorMatrix();
-        matrix.set(new float[]{
-                0, 0, 1, 0, 0,
-                0, 1, 0, 0, 0,
-                1, 0, 0, 0, 0,
-                0, 0, 0, 1, 0
-        });
-        paint.setColorFilter(new ColorMatrixColorFilter(matrix));
-        canvas.drawBitmap(original, 0, 0, paint);
-        return aquaBitmap;
-    }
-
-    private Bitmap toRed(Bitmap original) {
-        Bitmap redBitmap = Bitmap.createBitmap(original.getWidth(), original.getHeight(), Bitmap.Config.ARGB_8888);
-        Canvas canvas = new Canvas(redBitmap);
-        Paint paint = new Paint();
-        ColorMatrix matrix = new ColorMatrix();
-        matrix.set(new float[]{
-                1, 0, 0, 0, 0,
-                0, 0, 0, 0, 0,
-                0, 0, 0, 0, 0,
-                0, 0, 0, 1, 0
-        });
-        paint.setColorFilter(new ColorMatrixColorFilter(matrix));
-        canvas.drawBitmap(original, 0, 0, paint);
-        return redBitmap;
-    }
-
-    private Bitmap toGreen(Bitmap original) {
-        Bitmap greenBitmap = Bitmap.createBitmap(original.getWidth(), original.getHeight(), Bitmap.Config.ARGB_8888);
-        Canvas canvas = new Canvas(greenBitmap);
-        Paint paint = new Paint();
-        ColorMatrix matrix = new ColorMatrix();
-        matrix.set(new float[]{
-                0, 0, 0, 0, 0,
-                0, 1, 0, 0, 0,
-                0, 0, 0, 0, 0,
-                0, 0, 0, 1, 0
-        });
-        paint.setColorFilter(new ColorMatrixColorFilter(matrix));
-        canvas.drawBitmap(original, 0, 0, paint);
-        return greenBitmap;
-    }
-
-    private Bitmap toBlue(Bitmap original) {
-        Bitmap blueBitmap = Bitmap.createBitmap(original.getWidth(), original.getHeight(), Bitmap.Config.ARGB_8888);
-        Canvas canvas = new Canvas(blueBitmap);
-        Paint paint = new Paint();
-        ColorMatrix matrix = new ColorMatrix();
-        matrix.set(new float[]{
-                0, 0, 0, 0, 0,
-                0, 0, 0, 0, 0,
-                0, 0, 1, 0, 0,
-                0, 0, 0, 1, 0
+    private void updateMetricsOverlay() {
+        if (metricsOverlay.getVisibility() == View.VISIBLE) {
+            String summary = captureMetrics.summary();
+            metricsOverlay.setText(summary.isEmpty() ? "No captures yet" : summary);
+        }
+    }
+
+    // Appends the interval since the last export to the rolling metrics file, off the main thread.
+    private void exportMetrics() {
+        String prefix = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ssZ", Locale.US).format(System.currentTimeMillis())
+                + " " + (Build.MANUFACTURER + "/" + Build.MODEL).replace(' ', '_');
+        cameraExecutor.execute(() -> {
+            try {
+                metricsLog.append(captureMetrics.drainReport(prefix));
+            } catch (IOException e) {
+                Log.w("MainActivity", "Failed to write capture metrics", e);
+            }
         });
-        paint.setColorFilter(new ColorMatrixColorFilter(matrix));
-        canvas.drawBitmap(original, 0, 0, paint);
-        return blueBitmap;
     }
 
-    private void saveAsJpeg(Bitmap bitmap) {
-        String fileName = new SimpleDateFormat("'IMG'_yyyyMMdd_HHmmss", Locale.US).format(System.currentTimeMillis()) + ".jpeg";
-        ContentValues contentValues = new ContentValues();
-        contentValues.put(MediaStore.MediaColumns.DISPLAY_NAME, fileName);
-        contentValues.put(MediaStore.MediaColumns.MIME_TYPE, "image/jpeg");
-        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
-            contentValues.put(MediaStore.MediaColumns.RELATIVE_PATH, Environment.DIRECTORY_PICTURES);
+    private static String describe(Throwable error) {
+        Throwable cause = error instanceof UncheckedIOException && error.getCause() != null ? error.getCause() : error;
+        return cause.getMessage();
+    }
+
+    // Persist stage: writes one MediaStore entry, retrying a failed write by replaying the writer.
+    // Errors surface through the pipeline's completion callback.
+    private Uri writeToMediaStore(MediaStoreWriter.Kind kind, String displayName, MediaStoreWriter.StreamWriter writer) {
+        try {
+            return mediaStore.write(kind, displayName, writer);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
         }
+    }
 
-        Uri uri = getContentResolver().insert(MediaStore.Images.Media.EXTERNAL_CONTENT_URI, contentValues);
-        if (uri == null) {
-            Toast.makeText(this, "Failed to create new MediaStore record.", Toast.LENGTH_SHORT).show();
-            return;
+    // As writeToMediaStore, into an earlier export's entry if there is one.
+    private Uri writeToMediaStore(Uri existing, MediaStoreWriter.Kind kind, String displayName, MediaStoreWriter.StreamWriter writer) {
+        try {
+            return mediaStore.rewrite(existing, kind, displayName, writer);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
         }
+    }
 
-        try (OutputStream out = getContentResolver().openOutputStream(uri)) {
-            if (out == null) {
-                Toast.makeText(this, "Failed to open output stream.", Toast.LENGTH_SHORT).show();
-                return;
-            }
-            bitmap.compress(Bitmap.CompressFormat.JPEG, 100, out);
-            Toast.makeText(this, "Image saved as JPEG", Toast.LENGTH_SHORT).show();
-        } catch (Exception e) {
-            Toast.makeText(this, "Failed to save JPEG: " + e.getMessage(), Toast.LENGTH_LONG).show();
+    // As writeToMediaStore, for writers that decode and encode as they go: a failed write isn't redone.
+    private Uri streamToMediaStore(Uri existing, MediaStoreWriter.Kind kind, String displayName, MediaStoreWriter.StreamWriter writer) {
+        try {
+            return mediaStore.rewriteOnce(existing, kind, displayName, writer);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
         }
     }
 
-    private void saveAsPdf(Bitmap bitmap) {
-        String fileName = new SimpleDateFormat("'DOC'_yyyyMMdd_HHmmss", Locale.US).format(System.currentTimeMillis()) + ".pdf";
-        ContentValues contentValues = new ContentValues();
-        contentValues.put(MediaStore.MediaColumns.DISPLAY_NAME, fileName);
-        contentValues.put(MediaStore.MediaColumns.MIME_TYPE, "application/pdf");
-        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
-            contentValues.put(MediaStore.MediaColumns.RELATIVE_PATH, Environment.DIRECTORY_DOCUMENTS);
+    // Named after the capture time, however late the file is written; to the millisecond, as
+    // burst frames come several a second.
+    private static String jpegFileName(long capturedMillis) {
+        return new SimpleDateFormat("'IMG'_yyyyMMdd_HHmmss_SSS", Locale.US).format(capturedMillis) + ".jpeg";
+    }
+
+    private byte[] encodeJpeg(Bitmap bitmap) {
+        ByteArrayOutputStream stream = new ByteArrayOutputStream(bitmap.getWidth() * bitmap.getHeight() / 2);
+        bitmap.compress(Bitmap.CompressFormat.JPEG, JPEG_QUALITY, stream);
+        return stream.toByteArray();
+    }
+
+    private static String pdfFileName(long capturedMillis) {
+        return new SimpleDateFormat("'DOC'_yyyyMMdd_HHmmss_SSS", Locale.US).format(capturedMillis) + ".pdf";
+    }
+
+    private PageImage encodeForPdf(Bitmap bitmap) {
+        return pdfImageEncoder.encode(bitmap, pdfPageLayout);
+    }
+
+    // Renders the page at full resolution off the UI thread, then either saves a single-page PDF or
+    // appends to the open scan or target document. A single-page PDF from a JPEG capture is kept for
+    // the deferred queue instead; pages of a document are written now, in order.
+    private void savePdfPage(CompletableFuture<PendingPage> captured) {
+        if (!savePipeline.tryBegin()) {
+            captured.thenAccept(PendingPage::release);
+            Toast.makeText(this, "Still saving previous captures.", Toast.LENGTH_SHORT).show();
+            return;
+        }
+        PdfScanSession session = scanSession;
+        Uri target = appendTarget;
+        CaptureMetrics.Trace trace = captureMetrics.begin();
+        boolean single = session == null && target == null;
+        // Records DECODE, FILTER and ENCODE itself; null when the page was deferred.
+        CompletableFuture<PageImage> encoded = savePipeline.then(captured, SavePipeline.Stage.ENCODE, pending ->
+                single && pending.defer(trace) ? null : pending.render(trace));
+
+        if (session == null && target != null) {
+            CompletableFuture<Integer> appended = savePipeline.then(encoded, SavePipeline.Stage.PERSIST, page -> {
+                long start = System.nanoTime();
+                int pages = appendToPdf(target, page);
+                trace.stage(CaptureMetrics.Stage.WRITE, start);
+                return pages;
+            });
+            savePipeline.finish(appended, (pages, error) -> {
+                if (error == null) {
+                    trace.finish();
+                }
+                updateMetricsOverlay();
+                if (error != null) {
+                    Toast.makeText(this, "Failed to append page: " + describe(error), Toast.LENGTH_LONG).show();
+                } else {
+                    Toast.makeText(this, "Page " + pages + " appended", Toast.LENGTH_SHORT).show();
+                }
+            });
+            return;
         }
 
-        Uri uri = getContentResolver().insert(MediaStore.Files.getContentUri("external"), contentValues);
-        if (uri == null) {
-            Toast.makeText(this, "Failed to create new MediaStore record.", Toast.LENGTH_SHORT).show();
+        if (session == null) {
+            CompletableFuture<Uri> saved = savePipeline.then(encoded, SavePipeline.Stage.PERSIST, page -> {
+                if (page == null) return null;
+                long start = System.nanoTime();
+                Uri uri = writeToMediaStore(PDF_FILE, pdfFileName(System.currentTimeMillis()), out -> writePdf(page, out));
+                trace.stage(CaptureMetrics.Stage.WRITE, start);
+                return uri;
+            });
+            savePipeline.finish(saved, (uri, error) -> {
+                if (error == null) {
+                    trace.finish();
+                }
+                updateMetricsOverlay();
+                if (error != null) {
+                    Toast.makeText(this, "Failed to save PDF: " + describe(error), Toast.LENGTH_LONG).show();
+                } else if (uri == null) {
+                    Toast.makeText(this, "Page captured, PDF processing in background", Toast.LENGTH_SHORT).show();
+                } else {
+                    Toast.makeText(this, "Image saved as PDF", Toast.LENGTH_SHORT).show();
+                }
+            });
             return;
         }
 
-        try (OutputStream out = getContentResolver().openOutputStream(uri)) {
-            if (out == null) {
-                Toast.makeText(this, "Failed to open output stream.", Toast.LENGTH_SHORT).show();
+        CompletableFuture<Integer> added = savePipeline.then(encoded, SavePipeline.Stage.PERSIST, page -> {
+            long start = System.nanoTime();
+            try {
+                session.addPage(page);
+                trace.stage(CaptureMetrics.Stage.WRITE, start);
+                return session.getPageCount();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+        savePipeline.finish(added, (pages, error) -> {
+            if (error == null) {
+                trace.finish();
+            }
+            updateMetricsOverlay();
+            if (error != null) {
+                Toast.makeText(this, "Failed to add page: " + describe(error), Toast.LENGTH_LONG).show();
+            } else {
+                Toast.makeText(this, "Page " + pages + " added", Toast.LENGTH_SHORT).show();
+            }
+        });
+    }
+
+    // Incremental update in place: only the new page and a new xref section are written.
+    private int appendToPdf(Uri uri, PageImage page) {
+        try (ParcelFileDescriptor descriptor = getContentResolver().openFileDescriptor(uri, "rw");
+             FileInputStream in = new FileInputStream(descriptor.getFileDescriptor());
+             FileOutputStream out = new FileOutputStream(descriptor.getFileDescriptor())) {
+            return PdfAppender.appendPage(in.getChannel(), out.getChannel(), page, pdfPageLayout, pdfImageEncoder.flateLevel());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void writePdf(PageImage page, OutputStream out) {
+        PdfDocument pdf = new PdfDocument(new PdfWriter(out, pdfOutputProfile.apply(pdfImageEncoder.writerProperties())));
+        PdfPageWriter.addImagePage(pdf, page, pdfPageLayout);
+        pdf.close();
+    }
+
+    private File scanSessionDir() {
+        return new File(getFilesDir(), "scan_session");
+    }
+
+    // Picks up a scan that was interrupted by the process being killed, or left by the previous
+    // instance, once that instance has finished with it.
+    private void recoverScanSession() {
+        previousPersist.thenRunAsync(() -> {
+            if (isDestroyed()) return;
+            File dir = scanSessionDir();
+            if (PdfScanSession.hasCompletedSession(dir)) {
+                publishScanOutput(dir);
+            } else if (PdfScanSession.hasUnfinishedSession(dir)) {
+                startScanSession();
+            }
+        }, ContextCompat.getMainExecutor(this));
+    }
+
+    // Opening replays any journaled pages, so it runs on the persist stage like page writes.
+    private void startScanSession() {
+        if (!savePipeline.tryBegin()) {
+            Toast.makeText(this, "Still saving previous captures.", Toast.LENGTH_SHORT).show();
+            return;
+        }
+        CompletableFuture<PdfScanSession> opened = savePipeline.then(previousPersist, SavePipeline.Stage.PERSIST, ignored -> {
+            try {
+                return PdfScanSession.openOrResume(scanSessionDir(), pdfPageLayout, pdfOutputProfile.apply(pdfImageEncoder.writerProperties()));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+        savePipeline.finish(opened, (session, error) -> {
+            if (error != null) {
+                Toast.makeText(this, "Failed to start scan: " + describe(error), Toast.LENGTH_LONG).show();
                 return;
             }
-            PdfWriter writer = new PdfWriter(out);
-            PdfDocument pdf = new PdfDocument(writer);
+            scanSession = session;
+            rebindIfFormatChanged();
+            int pages = session.getPageCount();
+            Toast.makeText(this, pages > 0 ? "Resumed scan with " + pages + " pages" : "Scan started. Long press PDF to finish.", Toast.LENGTH_SHORT).show();
+        });
+    }
 
-            float padding = 10f;
-            PageSize pageSize = new PageSize(bitmap.getWidth() + padding * 2, bitmap.getHeight() + padding * 2);
-            Document document = new Document(pdf, pageSize);
-            document.setMargins(padding, padding, padding, padding);
+    private void finishScanSession() {
+        if (!savePipeline.tryBegin()) {
+            Toast.makeText(this, "Still saving previous captures.", Toast.LENGTH_SHORT).show();
+            return;
+        }
+        PdfScanSession session = scanSession;
+        scanSession = null;
+        rebindIfFormatChanged();
+        // Queued behind any pages still being written.
+        CompletableFuture<Uri> published = savePipeline.start(SavePipeline.Stage.PERSIST, () -> {
+            if (session.getPageCount() == 0) {
+                session.discard();
+                return null;
+            }
+            try {
+                session.close();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return copyScanToMediaStore(session.getDirectory());
+        });
+        savePipeline.finish(published, this::onScanPublished);
+    }
 
-            ByteArrayOutputStream stream = new ByteArrayOutputStream();
-            bitmap.compress(Bitmap.CompressFormat.PNG, 100, stream);
-            Image pdfImage = new Image(ImageDataFactory.create(stream.toByteArray()));
-            pdfImage.setAutoScale(true);
+    private void publishScanOutput(File sessionDir) {
+        if (!savePipeline.tryBegin()) return;
+        savePipeline.finish(savePipeline.then(previousPersist, SavePipeline.Stage.PERSIST, ignored -> copyScanToMediaStore(sessionDir)),
+                this::onScanPublished);
+    }
 
-            document.add(pdfImage);
-            document.close();
+    private Uri copyScanToMediaStore(File sessionDir) {
+        Uri uri = writeToMediaStore(PDF_FILE, pdfFileName(System.currentTimeMillis()), out -> {
+            try (InputStream in = new FileInputStream(PdfScanSession.completedOutput(sessionDir))) {
+                byte[] buffer = new byte[64 * 1024];
+                int n;
+                while ((n = in.read(buffer)) > 0) {
+                    out.write(buffer, 0, n);
+                }
+            }
+        });
+        PdfScanSession.delete(sessionDir);
+        return uri;
+    }
 
-            Toast.makeText(this, "Image saved as PDF", Toast.LENGTH_SHORT).show();
-        } catch (Exception e) {
-            Toast.makeText(this, "Failed to save PDF: " + e.getMessage(), Toast.LENGTH_LONG).show();
+    private void onScanPublished(Uri uri, Throwable error) {
+        if (error != null) {
+            Toast.makeText(this, "Failed to save PDF: " + describe(error), Toast.LENGTH_LONG).show();
+        } else if (uri == null) {
+            Toast.makeText(this, "Scan cancelled", Toast.LENGTH_SHORT).show();
+        } else {
+            Toast.makeText(this, "Scan saved as PDF", Toast.LENGTH_SHORT).show();
+        }
+    }
+
+    /**
+     * Pixel memory one capture may use. Bitmap pixels have been native allocations since Android 8,
+     * so there the Java heap limit says little and the RAM the system can spare decides; before
+     * that they count against the heap.
+     */
+    private long pixelBudgetBytes() {
+        long heapShare = Runtime.getRuntime().maxMemory() / 4;
+        ActivityManager activityManager = (ActivityManager) getSystemService(ACTIVITY_SERVICE);
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.O || activityManager == null) {
+            return heapShare;
+        }
+        ActivityManager.MemoryInfo memory = new ActivityManager.MemoryInfo();
+        activityManager.getMemoryInfo(memory);
+        // Headroom above the point where the system starts killing background processes.
+        long spare = Math.max(0, memory.availMem - memory.threshold);
+        long share = activityManager.isLowRamDevice() ? spare / 8 : spare / 4;
+        return Math.max(heapShare, Math.min(MAX_WHOLE_FRAME_BYTES, share));
+    }
+
+    @Override
+    public void onTrimMemory(int level) {
+        super.onTrimMemory(level);
+        if (level >= TRIM_MEMORY_RUNNING_LOW) {
+            bitmapPool.clear();
+            bufferPool.clear();
+            thumbnails.evictAll();
+        }
+        // Later captures use smaller strips, or go tiled sooner, until the pressure passes.
+        if (level >= TRIM_MEMORY_RUNNING_CRITICAL) {
+            tileBudget.underPressure(8);
+        } else if (level >= TRIM_MEMORY_RUNNING_LOW) {
+            tileBudget.underPressure(4);
+        } else if (level >= TRIM_MEMORY_RUNNING_MODERATE) {
+            tileBudget.underPressure(2);
         }
     }
 
+    @Override
+    protected void onPause() {
+        super.onPause();
+        stopBurst();
+        exportMetrics();
+        // Publishes finished files now and drops unused placeholders, in case the process is not coming back.
+        cameraExecutor.execute(mediaStore::flush);
+    }
+
     @Override
     protected void onDestroy() {
         super.onDestroy();
         cameraExecutor.shutdown();
+        analysisExecutor.shutdown();
+        detectExecutor.shutdown();
+        Log.i("MainActivity", "Live filter preview: " + livePreview.describe());
+        Log.i("MainActivity", "Document detection: " + documentDetector.describe());
+        PdfScanSession session = scanSession;
+        if (session != null) {
+            // Behind any queued page writes; resumed from the journal on next start.
+            savePipeline.start(SavePipeline.Stage.PERSIST, () -> {
+                session.suspend();
+                return null;
+            });
+        }
+        previousPersist = savePipeline.drained(SavePipeline.Stage.PERSIST);
+        savePipeline.shutdown(); // Queued saves still complete
+        deferredQueue.detach(deferredProcessor); // A running export finishes; the rest wait for the next activity
+        bitmapPool.clear();
+        bufferPool.clear();
         restoreOriginalBrightness(); // Ensure brightness is restored when the app closes
     }
 }
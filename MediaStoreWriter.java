@@ -0,0 +1,470 @@
+package com.maya.camera;
+
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.content.OperationApplicationException;
+import android.net.Uri;
+import android.os.ParcelFileDescriptor;
+import android.os.RemoteException;
+import android.provider.MediaStore;
+import android.util.Log;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Writes files into MediaStore with as few provider round trips as a burst allows. Entries are
+ * inserted as {@code IS_PENDING} placeholders, several per {@code applyBatch} once captures come
+ * in quick succession. Each file is written through its descriptor's {@link FileChannel} in large
+ * chunks. Finished entries are renamed and published together in one batch, shortly after the
+ * last one completes. A failed write is retried into the same entry by replaying the writer, so
+ * the caller's already-encoded bytes are never produced twice.
+ *
+ * <p>Finished entries that are not published yet are listed in a small journal file. A batch that
+ * fails is tried again one entry at a time; whatever is still pending, then or because the process
+ * died, is published by {@link #resume()} on the next start rather than left for MediaStore to expire.
+ *
+ * <p>Everything goes through the given resolver and authority, so the class can run against a
+ * fake provider registered under another authority.
+ */
+final class MediaStoreWriter {
+
+    /** Produces a file's contents; may be called again after a failed attempt. */
+    interface StreamWriter {
+        void writeTo(OutputStream out) throws IOException;
+    }
+
+    /** Where a file goes: a collection, its MIME type and, where supported, a relative path. Compared by identity. */
+    static final class Kind {
+        final Uri collection;
+        final String mimeType;
+        final String relativePath;
+
+        Kind(Uri collection, String mimeType, String relativePath) {
+            this.collection = collection;
+            this.mimeType = mimeType;
+            this.relativePath = relativePath;
+        }
+    }
+
+    private static final int ATTEMPTS = 3;
+    private static final int CHUNK = 1024 * 1024;
+    // Placeholders inserted per batch once saves arrive within the burst window of each other.
+    private static final int RESERVE_BATCH = 4;
+    private static final long BURST_WINDOW_NANOS = 2_000_000_000L;
+    private static final int PUBLISH_BATCH = 8;
+    private static final long PUBLISH_DELAY_MS = 250;
+
+    private static final ThreadLocal<ByteBuffer> BUFFER = new ThreadLocal<>();
+
+    private final ContentResolver resolver;
+    private final String authority;
+    private final boolean pendingSupported;
+    private final File journal;
+    private final ScheduledExecutorService publisher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "mediastore-publish");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    // Guarded by this.
+    private final Map<Kind, ArrayDeque<Uri>> reserved = new HashMap<>();
+    // Finished entries and their final names: all not yet published, and those not yet in a batch.
+    private final Map<Uri, String> unpublished = new LinkedHashMap<>();
+    private final Map<Uri, String> publishes = new LinkedHashMap<>();
+    private long lastReserveNanos = System.nanoTime() - BURST_WINDOW_NANOS;
+    private boolean publishScheduled;
+
+    /**
+     * {@code pendingSupported} is false before Android 10, where entries are inserted under their
+     * final name and visible immediately, one insert per file. {@code journal} lists finished
+     * entries that are not published yet.
+     */
+    MediaStoreWriter(ContentResolver resolver, String authority, boolean pendingSupported, File journal) {
+        this.resolver = resolver;
+        this.authority = authority;
+        this.pendingSupported = pendingSupported;
+        this.journal = journal;
+    }
+
+    /** Publishes, in the background, entries an earlier process finished but never published. */
+    void resume() {
+        if (!pendingSupported) return;
+        publisher.execute(() -> {
+            Map<Uri, String> entries = readJournal();
+            if (entries.isEmpty()) return;
+            Log.i("MediaStoreWriter", "Publishing " + entries.size() + " entries left pending");
+            synchronized (this) {
+                for (Map.Entry<Uri, String> entry : entries.entrySet()) {
+                    if (unpublished.putIfAbsent(entry.getKey(), entry.getValue()) == null) {
+                        publishes.put(entry.getKey(), entry.getValue());
+                    }
+                }
+            }
+            publishNow();
+        });
+    }
+
+    /** Writes a new entry, retrying failed attempts into the same entry. Returns its URI. */
+    Uri write(Kind kind, String displayName, StreamWriter writer) throws IOException {
+        return write(kind, displayName, writer, ATTEMPTS);
+    }
+
+    /** As {@link #write}, in a single attempt, for writers that do real work as they stream. */
+    Uri writeOnce(Kind kind, String displayName, StreamWriter writer) throws IOException {
+        return write(kind, displayName, writer, 1);
+    }
+
+    /**
+     * As {@link #write}, but into {@code existing}, an entry written earlier, when a capture's
+     * output is made again: it keeps its name and place in the gallery. A new entry is written if
+     * {@code existing} is null, deleted, or no longer this app's.
+     */
+    Uri rewrite(Uri existing, Kind kind, String displayName, StreamWriter writer) throws IOException {
+        return rewrite(existing, kind, displayName, writer, ATTEMPTS);
+    }
+
+    /** As {@link #rewrite}, in a single attempt. */
+    Uri rewriteOnce(Uri existing, Kind kind, String displayName, StreamWriter writer) throws IOException {
+        return rewrite(existing, kind, displayName, writer, 1);
+    }
+
+    /** Publishes everything finished and deletes unused placeholders, e.g. when the app goes to the background. */
+    void flush() {
+        publishNow();
+        List<Uri> unused = new ArrayList<>();
+        synchronized (this) {
+            for (ArrayDeque<Uri> uris : reserved.values()) {
+                unused.addAll(uris);
+            }
+            reserved.clear();
+        }
+        if (unused.isEmpty()) return;
+        ArrayList<ContentProviderOperation> deletes = new ArrayList<>();
+        for (Uri uri : unused) {
+            deletes.add(ContentProviderOperation.newDelete(uri).build());
+        }
+        try {
+            applyBatch(deletes);
+        } catch (IOException e) {
+            // MediaStore expires abandoned pending entries on its own.
+            Log.w("MediaStoreWriter", "Failed to delete " + unused.size() + " unused placeholders", e);
+        }
+    }
+
+    private Uri write(Kind kind, String displayName, StreamWriter writer, int attempts) throws IOException {
+        Uri uri = reserve(kind, displayName);
+        IOException failure = null;
+        try {
+            for (int attempt = 1; attempt <= attempts; attempt++) {
+                try {
+                    writeFile(uri, writer);
+                    publish(uri, displayName);
+                    return uri;
+                } catch (IOException e) {
+                    Log.w("MediaStoreWriter", "Write attempt " + attempt + " of " + attempts + " failed for " + displayName, e);
+                    failure = e;
+                }
+            }
+        } catch (RuntimeException e) {
+            // A writer's own failure; writing again would fail the same way.
+            resolver.delete(uri, null, null);
+            throw e;
+        }
+        resolver.delete(uri, null, null);
+        throw failure;
+    }
+
+    private Uri rewrite(Uri existing, Kind kind, String displayName, StreamWriter writer, int attempts) throws IOException {
+        if (existing != null) {
+            try {
+                return overwrite(existing, writer, attempts);
+            } catch (FileNotFoundException | SecurityException e) {
+                Log.i("MediaStoreWriter", "Cannot rewrite " + existing + ", writing " + displayName + " anew", e);
+            }
+        }
+        return write(kind, displayName, writer, attempts);
+    }
+
+    // A failed attempt leaves the entry as it is for the next one; it is never deleted.
+    private Uri overwrite(Uri uri, StreamWriter writer, int attempts) throws IOException {
+        for (int attempt = 1; ; attempt++) {
+            try {
+                writeFile(uri, writer);
+                return uri;
+            } catch (FileNotFoundException e) {
+                throw e;
+            } catch (IOException e) {
+                if (attempt >= attempts) throw e;
+                Log.w("MediaStoreWriter", "Rewrite attempt " + attempt + " of " + attempts + " failed for " + uri, e);
+            }
+        }
+    }
+
+    private Uri reserve(Kind kind, String displayName) throws IOException {
+        if (!pendingSupported) {
+            Uri uri = resolver.insert(kind.collection, values(kind, displayName));
+            if (uri == null) {
+                throw new IOException("Failed to create new MediaStore record.");
+            }
+            return uri;
+        }
+
+        int count;
+        synchronized (this) {
+            ArrayDeque<Uri> uris = reserved.get(kind);
+            if (uris != null && !uris.isEmpty()) {
+                return uris.poll();
+            }
+            long now = System.nanoTime();
+            count = now - lastReserveNanos < BURST_WINDOW_NANOS ? RESERVE_BATCH : 1;
+            lastReserveNanos = now;
+        }
+        // Placeholders get their real name when published; until then only this app can see them.
+        ArrayList<ContentProviderOperation> inserts = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            ContentValues values = values(kind, i == 0 ? displayName : "pending-" + System.nanoTime() + "-" + i);
+            values.put(MediaStore.MediaColumns.IS_PENDING, 1);
+            inserts.add(ContentProviderOperation.newInsert(kind.collection).withValues(values).build());
+        }
+        ContentProviderResult[] results = applyBatch(inserts);
+        synchronized (this) {
+            ArrayDeque<Uri> uris = reserved.computeIfAbsent(kind, k -> new ArrayDeque<>());
+            for (int i = 1; i < results.length; i++) {
+                if (results[i].uri != null) {
+                    uris.add(results[i].uri);
+                }
+            }
+        }
+        if (results.length == 0 || results[0].uri == null) {
+            throw new IOException("Failed to create new MediaStore record.");
+        }
+        return results[0].uri;
+    }
+
+    private static ContentValues values(Kind kind, String displayName) {
+        ContentValues values = new ContentValues();
+        values.put(MediaStore.MediaColumns.DISPLAY_NAME, displayName);
+        values.put(MediaStore.MediaColumns.MIME_TYPE, kind.mimeType);
+        if (kind.relativePath != null) {
+            values.put(MediaStore.MediaColumns.RELATIVE_PATH, kind.relativePath);
+        }
+        return values;
+    }
+
+    // Each attempt truncates and writes the whole file.
+    private void writeFile(Uri uri, StreamWriter writer) throws IOException {
+        try (ParcelFileDescriptor descriptor = resolver.openFileDescriptor(uri, "rw")) {
+            if (descriptor == null) {
+                throw new IOException("Failed to open output file.");
+            }
+            writeFile(descriptor, writer);
+        }
+    }
+
+    private static void writeFile(ParcelFileDescriptor descriptor, StreamWriter writer) throws IOException {
+        try (FileOutputStream file = new FileOutputStream(descriptor.getFileDescriptor())) {
+            FileChannel channel = file.getChannel();
+            channel.truncate(0);
+            ChannelOutputStream out = new ChannelOutputStream(channel, buffer());
+            writer.writeTo(out);
+            out.flush();
+        }
+    }
+
+    private void publish(Uri uri, String displayName) {
+        if (!pendingSupported) return;
+        boolean full;
+        synchronized (this) {
+            unpublished.put(uri, displayName);
+            publishes.put(uri, displayName);
+            full = publishes.size() >= PUBLISH_BATCH;
+            if (!full && !publishScheduled) {
+                publishScheduled = true;
+                publisher.schedule(this::publishNow, PUBLISH_DELAY_MS, TimeUnit.MILLISECONDS);
+            }
+        }
+        // Listed before anything can publish it, so a later rewrite never loses the entry.
+        writeJournal();
+        if (full) {
+            publishNow();
+        }
+    }
+
+    private void publishNow() {
+        Map<Uri, String> entries;
+        synchronized (this) {
+            publishScheduled = false;
+            if (publishes.isEmpty()) return;
+            entries = new LinkedHashMap<>(publishes);
+            publishes.clear();
+        }
+        ArrayList<ContentProviderOperation> batch = new ArrayList<>(entries.size());
+        for (Map.Entry<Uri, String> entry : entries.entrySet()) {
+            batch.add(ContentProviderOperation.newUpdate(entry.getKey()).withValues(published(entry.getValue())).build());
+        }
+        List<Uri> done = new ArrayList<>(entries.keySet());
+        try {
+            applyBatch(batch);
+        } catch (IOException e) {
+            // One bad entry fails the whole batch; the others can still be published on their own.
+            Log.w("MediaStoreWriter", "Failed to publish " + batch.size() + " entries, retrying one by one", e);
+            done.clear();
+            for (Map.Entry<Uri, String> entry : entries.entrySet()) {
+                try {
+                    resolver.update(entry.getKey(), published(entry.getValue()), null, null);
+                    done.add(entry.getKey());
+                } catch (RuntimeException single) {
+                    Log.e("MediaStoreWriter", "Failed to publish " + entry.getKey(), single);
+                }
+            }
+        }
+        synchronized (this) {
+            unpublished.keySet().removeAll(done);
+            // Goes with the next batch or flush, or with resume() after a restart.
+            for (Map.Entry<Uri, String> entry : entries.entrySet()) {
+                if (unpublished.containsKey(entry.getKey())) {
+                    publishes.putIfAbsent(entry.getKey(), entry.getValue());
+                }
+            }
+        }
+        writeJournal();
+    }
+
+    private static ContentValues published(String displayName) {
+        ContentValues values = new ContentValues();
+        values.put(MediaStore.MediaColumns.DISPLAY_NAME, displayName);
+        values.put(MediaStore.MediaColumns.IS_PENDING, 0);
+        return values;
+    }
+
+    // Not synced: the journal only has to outlive the process, not the device. Serialized, so the
+    // last write always reflects the latest state.
+    private void writeJournal() {
+        synchronized (journal) {
+            Map<Uri, String> entries;
+            synchronized (this) {
+                entries = new LinkedHashMap<>(unpublished);
+            }
+            if (entries.isEmpty()) {
+                journal.delete();
+                return;
+            }
+            File tmp = new File(journal.getPath() + ".tmp");
+            try (Writer out = new OutputStreamWriter(new FileOutputStream(tmp), StandardCharsets.UTF_8)) {
+                for (Map.Entry<Uri, String> entry : entries.entrySet()) {
+                    out.write(entry.getKey() + "\t" + entry.getValue() + "\n");
+                }
+            } catch (IOException e) {
+                Log.w("MediaStoreWriter", "Failed to write " + journal, e);
+                return;
+            }
+            if (!tmp.renameTo(journal)) {
+                Log.w("MediaStoreWriter", "Failed to replace " + journal);
+            }
+        }
+    }
+
+    private Map<Uri, String> readJournal() {
+        Map<Uri, String> entries = new LinkedHashMap<>();
+        synchronized (journal) {
+            try (BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(journal), StandardCharsets.UTF_8))) {
+                for (String line; (line = in.readLine()) != null; ) {
+                    int tab = line.indexOf('\t');
+                    if (tab > 0) {
+                        entries.put(Uri.parse(line.substring(0, tab)), line.substring(tab + 1));
+                    }
+                }
+            } catch (FileNotFoundException e) {
+                // Nothing left pending.
+            } catch (IOException e) {
+                Log.w("MediaStoreWriter", "Failed to read " + journal, e);
+            }
+        }
+        return entries;
+    }
+
+    private ContentProviderResult[] applyBatch(ArrayList<ContentProviderOperation> operations) throws IOException {
+        try {
+            return resolver.applyBatch(authority, operations);
+        } catch (RemoteException | OperationApplicationException e) {
+            throw new IOException("MediaStore batch of " + operations.size() + " failed", e);
+        }
+    }
+
+    private static ByteBuffer buffer() {
+        ByteBuffer buffer = BUFFER.get();
+        if (buffer == null) {
+            buffer = ByteBuffer.allocateDirect(CHUNK);
+            BUFFER.set(buffer);
+        }
+        buffer.clear();
+        return buffer;
+    }
+
+    // Gathers small writes into one large channel write; large writes go straight through.
+    private static final class ChannelOutputStream extends OutputStream {
+        private final FileChannel channel;
+        private final ByteBuffer buffer;
+
+        ChannelOutputStream(FileChannel channel, ByteBuffer buffer) {
+            this.channel = channel;
+            this.buffer = buffer;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            if (!buffer.hasRemaining()) {
+                flush();
+            }
+            buffer.put((byte) b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (len > buffer.remaining()) {
+                flush();
+            }
+            if (len >= buffer.capacity()) {
+                writeFully(ByteBuffer.wrap(b, off, len));
+            } else {
+                buffer.put(b, off, len);
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            buffer.flip();
+            writeFully(buffer);
+            buffer.clear();
+        }
+
+        private void writeFully(ByteBuffer src) throws IOException {
+            while (src.hasRemaining()) {
+                channel.write(src);
+            }
+        }
+    }
+}
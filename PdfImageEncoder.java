@@ -0,0 +1,96 @@
+package com.maya.camera;
+
+import android.graphics.Bitmap;
+
+import com.itextpdf.kernel.pdf.CompressionConstants;
+import com.itextpdf.kernel.pdf.WriterProperties;
+
+import java.io.ByteArrayOutputStream;
+
+/**
+ * Encodes captured bitmaps into {@link PageImage}s: JPEG bytes embedded directly as DCT streams,
+ * or raw RGB samples that the writer Flate-compresses at a configurable level.
+ */
+final class PdfImageEncoder {
+
+    enum Format { DCT, FLATE }
+
+    private final Format format;
+    private final int jpegQuality;
+    private final int flateLevel;
+
+    private PdfImageEncoder(Format format, int jpegQuality, int flateLevel) {
+        this.format = format;
+        this.jpegQuality = jpegQuality;
+        this.flateLevel = flateLevel;
+    }
+
+    static PdfImageEncoder dct(int jpegQuality) {
+        return new PdfImageEncoder(Format.DCT, jpegQuality, CompressionConstants.DEFAULT_COMPRESSION);
+    }
+
+    /** Lossless; {@code level} runs from {@link CompressionConstants#BEST_SPEED} to BEST_COMPRESSION. */
+    static PdfImageEncoder flate(int level) {
+        return new PdfImageEncoder(Format.FLATE, 0, level);
+    }
+
+    /** Flate level for raw image streams, as a {@link CompressionConstants} value. */
+    int flateLevel() {
+        return flateLevel;
+    }
+
+    /** Writer settings that apply this encoder's Flate level to the image streams. */
+    WriterProperties writerProperties() {
+        return new WriterProperties().setCompressionLevel(flateLevel);
+    }
+
+    /** Uses the camera's own JPEG as the page image, with no decode and no re-encode. */
+    static PageImage fromCameraJpeg(byte[] jpeg, int width, int height, int rotationDegrees) {
+        return new PageImage(PageImage.JPEG, width, height, rotationDegrees, jpeg);
+    }
+
+    /**
+     * Resamples an upright bitmap down to the layout's target DPI if needed, then encodes it.
+     * The input bitmap is left untouched.
+     */
+    PageImage encode(Bitmap bitmap, PdfPageLayout layout) {
+        Bitmap source = bitmap;
+        float scale = layout.resampleScale(bitmap.getWidth(), bitmap.getHeight());
+        if (scale < 1f) {
+            int width = Math.max(1, Math.round(bitmap.getWidth() * scale));
+            int height = Math.max(1, Math.round(bitmap.getHeight() * scale));
+            source = Bitmap.createScaledBitmap(bitmap, width, height, true);
+        }
+        try {
+            return format == Format.DCT ? encodeJpeg(source) : encodeRgb(source);
+        } finally {
+            if (source != bitmap) {
+                source.recycle();
+            }
+        }
+    }
+
+    private PageImage encodeJpeg(Bitmap bitmap) {
+        ByteArrayOutputStream stream = new ByteArrayOutputStream(bitmap.getWidth() * bitmap.getHeight() / 4);
+        bitmap.compress(Bitmap.CompressFormat.JPEG, jpegQuality, stream);
+        return new PageImage(PageImage.JPEG, bitmap.getWidth(), bitmap.getHeight(), 0, stream.toByteArray());
+    }
+
+    private static PageImage encodeRgb(Bitmap bitmap) {
+        int width = bitmap.getWidth();
+        int height = bitmap.getHeight();
+        byte[] rgb = new byte[width * height * 3];
+        int[] row = new int[width];
+        int out = 0;
+        for (int y = 0; y < height; y++) {
+            bitmap.getPixels(row, 0, width, 0, y, width, 1);
+            for (int x = 0; x < width; x++) {
+                int p = row[x];
+                rgb[out++] = (byte) (p >> 16);
+                rgb[out++] = (byte) (p >> 8);
+                rgb[out++] = (byte) p;
+            }
+        }
+        return new PageImage(PageImage.RAW_RGB, width, height, 0, rgb);
+    }
+}
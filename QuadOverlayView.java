@@ -0,0 +1,59 @@
+package com.maya.camera;
+
+import android.content.Context;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.graphics.Path;
+import android.util.AttributeSet;
+import android.view.View;
+
+/** Outlines the detected document over the viewfinder, with the same centre-crop as the PreviewView. */
+public final class QuadOverlayView extends View {
+
+    private final Paint paint = new Paint(Paint.ANTI_ALIAS_FLAG);
+    private final Path path = new Path();
+
+    private Quad quad;
+    private int frameWidth;
+    private int frameHeight;
+
+    public QuadOverlayView(Context context, AttributeSet attrs) {
+        super(context, attrs);
+        paint.setStyle(Paint.Style.STROKE);
+        paint.setStrokeWidth(6f);
+        paint.setColor(Color.GREEN);
+    }
+
+    /** Upright corners on a {@code frameWidth} x {@code frameHeight} frame, or null to clear. Main thread. */
+    void setQuad(Quad quad, int frameWidth, int frameHeight, boolean mirrored) {
+        this.quad = mirrored && quad != null ? quad.mirror() : quad;
+        this.frameWidth = frameWidth;
+        this.frameHeight = frameHeight;
+        invalidate();
+    }
+
+    @Override
+    protected void onDraw(Canvas canvas) {
+        Quad q = quad;
+        if (q == null || frameWidth == 0 || frameHeight == 0) {
+            return;
+        }
+        float scale = Math.max(getWidth() / (float) frameWidth, getHeight() / (float) frameHeight);
+        float dx = (getWidth() - frameWidth * scale) / 2;
+        float dy = (getHeight() - frameHeight * scale) / 2;
+        float[] points = q.toPixels(frameWidth, frameHeight);
+        path.reset();
+        for (int i = 0; i < 4; i++) {
+            float x = dx + points[i * 2] * scale;
+            float y = dy + points[i * 2 + 1] * scale;
+            if (i == 0) {
+                path.moveTo(x, y);
+            } else {
+                path.lineTo(x, y);
+            }
+        }
+        path.close();
+        canvas.drawPath(path, paint);
+    }
+}
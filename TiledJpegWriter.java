@@ -0,0 +1,85 @@
+package com.maya.camera;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.BitmapRegionDecoder;
+import android.graphics.Rect;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * Filters and re-encodes a capture too large to hold as one bitmap. The camera JPEG is decoded
+ * a strip of rows at a time into one pooled strip bitmap, filtered, and streamed into a
+ * {@link StripJpegEncoder}, so peak memory follows the {@link TileBudget}'s strip size rather
+ * than the sensor resolution. Rotation is written as EXIF orientation, so strips stay in sensor
+ * order.
+ */
+final class TiledJpegWriter {
+
+    private final BitmapPool bitmapPool;
+    private final TileBudget budget;
+    private final CaptureMetrics metrics;
+
+    TiledJpegWriter(BitmapPool bitmapPool, TileBudget budget, CaptureMetrics metrics) {
+        this.bitmapPool = bitmapPool;
+        this.budget = budget;
+        this.metrics = metrics;
+    }
+
+    /** Writes the filtered capture to {@code out} as a JPEG; the heaps are sampled after every strip. */
+    void write(ByteBuffer jpeg, int rotationDegrees, ColorTransform transform, int quality,
+               OutputStream out, CaptureMetrics.Trace trace) throws IOException {
+        BitmapRegionDecoder decoder = CaptureDecoder.newRegionDecoder(jpeg);
+        if (decoder == null) {
+            throw new IOException("Failed to open the capture for region decoding.");
+        }
+        int width = decoder.getWidth();
+        int height = decoder.getHeight();
+        // Read once: the budget may shrink mid-capture, but the strip bitmap is already sized.
+        int stripRows = Math.min(height, budget.stripRows(width));
+        Bitmap strip = bitmapPool.lease(width, stripRows, Bitmap.Config.ARGB_8888);
+        int[] pixels = new int[width * stripRows];
+        long decodeNanos = 0;
+        long filterNanos = 0;
+        long encodeNanos = 0;
+        try {
+            BitmapFactory.Options options = new BitmapFactory.Options();
+            options.inPreferredConfig = Bitmap.Config.ARGB_8888;
+            options.inMutable = true;
+            Rect region = new Rect();
+            StripJpegEncoder encoder = new StripJpegEncoder(out, width, height, quality, rotationDegrees);
+            for (int top = 0; top < height; top += stripRows) {
+                int rows = Math.min(stripRows, height - top);
+                long start = System.nanoTime();
+                region.set(0, top, width, top + rows);
+                // A shorter last strip lands in the top rows of the same bitmap.
+                options.inBitmap = strip;
+                Bitmap decoded = decoder.decodeRegion(region, options);
+                decoded.getPixels(pixels, 0, width, 0, 0, width, rows);
+                if (decoded != strip) {
+                    decoded.recycle();
+                }
+                long decodedAt = System.nanoTime();
+                FilterEngine.apply(transform, pixels, width, rows);
+                long filteredAt = System.nanoTime();
+                encoder.writeRows(pixels, rows);
+                long encodedAt = System.nanoTime();
+                decodeNanos += decodedAt - start;
+                filterNanos += filteredAt - decodedAt;
+                encodeNanos += encodedAt - filteredAt;
+                trace.sampleHeaps();
+            }
+            long start = System.nanoTime();
+            encoder.finish();
+            encodeNanos += System.nanoTime() - start;
+        } finally {
+            decoder.recycle();
+            bitmapPool.release(strip);
+        }
+        metrics.record(CaptureMetrics.Stage.DECODE, decodeNanos);
+        metrics.record(CaptureMetrics.Stage.FILTER, filterNanos);
+        metrics.record(CaptureMetrics.Stage.ENCODE, encodeNanos);
+    }
+}
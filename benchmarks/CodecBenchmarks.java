@@ -0,0 +1,81 @@
+package com.maya.camera;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * JPEG decode and encode, the zero-decode passthrough save, and the strip encoder that tiled
+ * saves stream through. Decode and encode use the JDK codec, since the Android ones can't run
+ * off-device; passthrough and strip encoding are the app's own code.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 4)
+@Fork(value = 1, jvmArgsAppend = {"-Xms4g", "-Xmx8g", "-Djava.awt.headless=true"})
+public class CodecBenchmarks {
+
+    @State(Scope.Benchmark)
+    public static class Capture {
+        @Param({"12", "50", "108"})
+        public int megapixels;
+
+        ArgbImage frame;
+        byte[] jpeg;
+
+        @Setup(Level.Trial)
+        public void setUp() throws IOException {
+            frame = SyntheticFrames.frame(megapixels);
+            jpeg = SyntheticFrames.cameraJpeg(megapixels);
+        }
+    }
+
+    @Benchmark
+    public ArgbImage decode(Capture capture) throws IOException {
+        return ImageIoCodec.decode(capture.jpeg);
+    }
+
+    // Quality 100, as the app encodes filtered captures.
+    @Benchmark
+    public byte[] encodeJpeg(Capture capture) throws IOException {
+        return ImageIoCodec.encodeJpeg(capture.frame, 1.0f);
+    }
+
+    // 256-row strips; the tile budget picks 16 to 1024 rows depending on heap size and memory pressure.
+    @Benchmark
+    public void encodeStrips(Capture capture) throws IOException {
+        ArgbImage frame = capture.frame;
+        int stripRows = 256;
+        int[] strip = new int[frame.width * stripRows];
+        StripJpegEncoder encoder = new StripJpegEncoder(OutputStream.nullOutputStream(), frame.width, frame.height, 100, 90);
+        for (int top = 0; top < frame.height; top += stripRows) {
+            int rows = Math.min(stripRows, frame.height - top);
+            System.arraycopy(frame.pixels, top * frame.width, strip, 0, rows * frame.width);
+            encoder.writeRows(strip, rows);
+        }
+        encoder.finish();
+    }
+
+    @Benchmark
+    public JpegPassthrough.Rewrite passthroughGrayscale(Capture capture) throws IOException {
+        ByteBuffer jpeg = ByteBuffer.wrap(capture.jpeg);
+        JpegPassthrough.Rewrite rewrite = JpegPassthrough.rewrite(jpeg, 90, "Grayscale");
+        JpegPassthrough.write(rewrite, jpeg, OutputStream.nullOutputStream());
+        return rewrite;
+    }
+}
@@ -0,0 +1,70 @@
+package com.maya.camera;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Iterator;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.ImageOutputStream;
+
+/**
+ * JPEG decode and encode through the JDK's libjpeg-derived codec, the off-device stand-in for
+ * {@code BitmapFactory} and {@code Bitmap.compress}. Pixels go straight into an int ARGB raster
+ * so no per-pixel conversion is timed along with the codec.
+ */
+final class ImageIoCodec {
+
+    private ImageIoCodec() {
+    }
+
+    static ArgbImage decode(byte[] jpeg) throws IOException {
+        try (ImageInputStream in = ImageIO.createImageInputStream(new ByteArrayInputStream(jpeg))) {
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(in);
+            if (!readers.hasNext()) {
+                throw new IOException("No image reader for stream");
+            }
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(in, true, true);
+                int width = reader.getWidth(0);
+                int height = reader.getHeight(0);
+                BufferedImage destination = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+                ImageReadParam param = reader.getDefaultReadParam();
+                param.setDestination(destination);
+                reader.read(0, param);
+                int[] pixels = ((DataBufferInt) destination.getRaster().getDataBuffer()).getData();
+                return new ArgbImage(width, height, pixels);
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    static byte[] encodeJpeg(ArgbImage image, float quality) throws IOException {
+        BufferedImage source = new BufferedImage(image.width, image.height, BufferedImage.TYPE_INT_RGB);
+        int[] raster = ((DataBufferInt) source.getRaster().getDataBuffer()).getData();
+        System.arraycopy(image.pixels, 0, raster, 0, raster.length);
+
+        ImageWriter writer = ImageIO.getImageWritersByFormatName("jpeg").next();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(image.width * image.height / 4);
+        try (ImageOutputStream out = ImageIO.createImageOutputStream(bytes)) {
+            ImageWriteParam param = writer.getDefaultWriteParam();
+            param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+            param.setCompressionQuality(quality);
+            writer.setOutput(out);
+            writer.write(null, new IIOImage(source, null, null), param);
+        } finally {
+            writer.dispose();
+        }
+        return bytes.toByteArray();
+    }
+}
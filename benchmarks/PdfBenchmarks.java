@@ -0,0 +1,119 @@
+package com.maya.camera;
+
+import com.itextpdf.kernel.geom.PageSize;
+import com.itextpdf.kernel.pdf.PdfDocument;
+import com.itextpdf.kernel.pdf.PdfWriter;
+import com.itextpdf.kernel.pdf.WriterProperties;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * PDF build through {@link PdfPageWriter}, one page and a ten-page scan, for each kind of page
+ * image the app produces: the camera JPEG embedded as-is, 8-bit gray and CCITT G4 bilevel. Each
+ * runs under every {@link PdfOutputProfile}; the file size of the last build is printed at the
+ * end of the trial, next to the timings.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 4)
+@Fork(value = 1, jvmArgsAppend = {"-Xms4g", "-Xmx8g", "-Djava.awt.headless=true"})
+public class PdfBenchmarks {
+
+    static final int SCAN_PAGES = 10;
+
+    // Same page layout as the app: A4, capped at 300 DPI.
+    static final PdfPageLayout LAYOUT = PdfPageLayout.paper(PageSize.A4, 300, PdfPageWriter.PADDING);
+
+    @State(Scope.Benchmark)
+    public static class Page {
+        @Param({"12", "50", "108"})
+        public int megapixels;
+
+        @Param({"jpeg", "gray", "bilevel"})
+        public String kind;
+
+        @Param({"STANDARD", "COMPACT"})
+        public String profile;
+
+        PageImage image;
+        long singlePageBytes;
+        long multiPageBytes;
+
+        @Setup(Level.Trial)
+        public void setUp() throws IOException {
+            ArgbImage frame = SyntheticFrames.frame(megapixels);
+            switch (kind) {
+                case "jpeg":
+                    image = new PageImage(PageImage.JPEG, frame.width, frame.height, 90, SyntheticFrames.cameraJpeg(megapixels));
+                    break;
+                case "gray":
+                    image = frame.toLuma().toPageImage();
+                    break;
+                default:
+                    image = AdaptiveBinarizer.binarize(frame.toLuma()).toPageImage();
+                    break;
+            }
+        }
+
+        @TearDown(Level.Trial)
+        public void reportSize() {
+            if (singlePageBytes > 0) {
+                System.out.printf("%n%s %s %d MP, single page: %d bytes%n", profile, kind, megapixels, singlePageBytes);
+            }
+            if (multiPageBytes > 0) {
+                System.out.printf("%n%s %s %d MP, %d pages: %d bytes%n", profile, kind, megapixels, SCAN_PAGES, multiPageBytes);
+            }
+        }
+    }
+
+    @Benchmark
+    public long singlePage(Page page) throws IOException {
+        return page.singlePageBytes = build(page, 1);
+    }
+
+    @Benchmark
+    public long multiPage(Page page) throws IOException {
+        return page.multiPageBytes = build(page, SCAN_PAGES);
+    }
+
+    private static long build(Page page, int pages) throws IOException {
+        CountingOutputStream out = new CountingOutputStream();
+        try (PdfDocument pdf = new PdfDocument(new PdfWriter(out, PdfOutputProfile.valueOf(page.profile).apply(new WriterProperties())))) {
+            for (int i = 0; i < pages; i++) {
+                PdfPageWriter.addImagePage(pdf, page.image, LAYOUT);
+            }
+        }
+        return out.count;
+    }
+
+    private static final class CountingOutputStream extends OutputStream {
+        long count;
+
+        @Override
+        public void write(int b) {
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            count += len;
+        }
+    }
+}
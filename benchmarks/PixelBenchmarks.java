@@ -0,0 +1,163 @@
+package com.maya.camera;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.concurrent.TimeUnit;
+
+/** Filters, rotation and binarization over full-size frames, through the same code the app runs. */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 4)
+@Fork(value = 1, jvmArgsAppend = {"-Xms4g", "-Xmx8g", "-Djava.awt.headless=true"})
+public class PixelBenchmarks {
+
+    static final String LUT_3D = "LUT 3D";
+    static final Quad PAGE = Quad.of(new float[]{0.18f, 0.12f, 0.84f, 0.16f, 0.88f, 0.90f, 0.14f, 0.86f});
+
+    @State(Scope.Benchmark)
+    public static class Frame {
+        @Param({"12", "50", "108"})
+        public int megapixels;
+
+        ArgbImage argb;
+        LumaImage luma;
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            argb = SyntheticFrames.copy(SyntheticFrames.frame(megapixels));
+            luma = argb.toLuma();
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class Filter {
+        @Param({"Grayscale", "Sepia", "Invert", "Aqua", "Red", "Green", "Blue", LUT_3D})
+        public String name;
+
+        ColorTransform transform;
+
+        @Setup(Level.Trial)
+        public void setUp() throws IOException {
+            transform = LUT_3D.equals(name) ? sepiaCube(33) : FilterEngine.forName(name);
+        }
+    }
+
+    // Analysis-sized luma frame with the page drawn bright on a darker desk.
+    @State(Scope.Benchmark)
+    public static class Preview {
+        LumaImage luma;
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            int width = QuadDetector.DETECT_SIZE;
+            int height = width * 3 / 4;
+            byte[] pixels = new byte[width * height];
+            float[] corners = PAGE.toPixels(width, height);
+            for (int y = 0; y < height; y++) {
+                for (int x = 0; x < width; x++) {
+                    pixels[y * width + x] = (byte) (inside(corners, x + 0.5f, y + 0.5f) ? 220 : 70);
+                }
+            }
+            luma = new LumaImage(width, height, pixels);
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class Bilevel {
+        BilevelImage image;
+
+        @Setup(Level.Trial)
+        public void setUp(Frame frame) {
+            image = AdaptiveBinarizer.binarize(frame.luma);
+        }
+    }
+
+    // In place and repeated on the same frame: matrix and LUT cost doesn't depend on pixel values.
+    @Benchmark
+    public ArgbImage filter(Frame frame, Filter filter) {
+        FilterEngine.apply(filter.transform, frame.argb);
+        return frame.argb;
+    }
+
+    @Benchmark
+    public ArgbImage rotateArgb90(Frame frame) {
+        return frame.argb.rotate(90);
+    }
+
+    @Benchmark
+    public LumaImage rotateLuma90(Frame frame) {
+        return frame.luma.rotate(90);
+    }
+
+    // Flattening a skewed page covering about 60% of the frame, rotation included.
+    @Benchmark
+    public LumaImage cropLuma90(Frame frame) {
+        return PerspectiveWarp.of(PAGE, 90, frame.luma.width, frame.luma.height, 1f).apply(frame.luma);
+    }
+
+    @Benchmark
+    public ArgbImage cropArgb90(Frame frame) {
+        return PerspectiveWarp.of(PAGE, 90, frame.argb.width, frame.argb.height, 1f).apply(frame.argb);
+    }
+
+    @Benchmark
+    public Quad detectPage(Preview preview) {
+        return QuadDetector.detect(preview.luma);
+    }
+
+    @Benchmark
+    public BilevelImage binarize(Frame frame) {
+        return AdaptiveBinarizer.binarize(frame.luma);
+    }
+
+    @Benchmark
+    public PageImage encodeG4(Bilevel bilevel) {
+        return bilevel.image.toPageImage();
+    }
+
+    // Even-odd point-in-polygon test.
+    static boolean inside(float[] corners, float x, float y) {
+        boolean in = false;
+        for (int i = 0, j = 3; i < 4; j = i++) {
+            float xi = corners[i * 2], yi = corners[i * 2 + 1];
+            float xj = corners[j * 2], yj = corners[j * 2 + 1];
+            if ((yi > y) != (yj > y) && x < (xj - xi) * (y - yi) / (yj - yi) + xi) {
+                in = !in;
+            }
+        }
+        return in;
+    }
+
+    // A 3D cube of a matrix filter, so LUT and matrix cost can be compared on the same output.
+    static ColorLut sepiaCube(int size) throws IOException {
+        ColorTransform sepia = FilterEngine.forName("Sepia");
+        StringBuilder cube = new StringBuilder("LUT_3D_SIZE ").append(size).append('\n');
+        int[] node = new int[1];
+        for (int b = 0; b < size; b++) {
+            for (int g = 0; g < size; g++) {
+                for (int r = 0; r < size; r++) {
+                    node[0] = 0xFF000000 | (r * 255 / (size - 1)) << 16 | (g * 255 / (size - 1)) << 8 | b * 255 / (size - 1);
+                    sepia.applyArgb(node, 0, 1);
+                    cube.append(((node[0] >> 16) & 0xFF) / 255f).append(' ')
+                            .append(((node[0] >> 8) & 0xFF) / 255f).append(' ')
+                            .append((node[0] & 0xFF) / 255f).append('\n');
+                }
+            }
+        }
+        return ColorLut.parseCube(new StringReader(cube.toString()));
+    }
+}
@@ -0,0 +1,78 @@
+package com.maya.camera;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Deterministic camera-like test frames: a lit page with text-sized dark strokes, a colour
+ * gradient and sensor-style noise, so codecs and filters see realistic entropy.
+ */
+final class SyntheticFrames {
+
+    private static final Map<Integer, ArgbImage> FRAMES = new HashMap<>();
+    private static final Map<Integer, byte[]> JPEGS = new HashMap<>();
+
+    private SyntheticFrames() {
+    }
+
+    /** Frame of about {@code megapixels} million pixels at the 4:3 aspect of phone sensors. */
+    static synchronized ArgbImage frame(int megapixels) {
+        return FRAMES.computeIfAbsent(megapixels, SyntheticFrames::render);
+    }
+
+    /** {@link #frame} encoded at quality 95, standing in for the JPEG a camera HAL would deliver. */
+    static synchronized byte[] cameraJpeg(int megapixels) throws IOException {
+        byte[] jpeg = JPEGS.get(megapixels);
+        if (jpeg == null) {
+            jpeg = ImageIoCodec.encodeJpeg(frame(megapixels), 0.95f);
+            JPEGS.put(megapixels, jpeg);
+        }
+        return jpeg;
+    }
+
+    static int widthFor(int megapixels) {
+        return (int) Math.round(Math.sqrt(megapixels * 1e6 * 4 / 3) / 16) * 16;
+    }
+
+    static int heightFor(int megapixels) {
+        return widthFor(megapixels) * 3 / 4;
+    }
+
+    /** Copy of a frame, for benchmarks that filter in place. */
+    static ArgbImage copy(ArgbImage source) {
+        return new ArgbImage(source.width, source.height, source.pixels.clone());
+    }
+
+    private static ArgbImage render(int megapixels) {
+        int width = widthFor(megapixels);
+        int height = heightFor(megapixels);
+        int[] pixels = new int[width * height];
+        int lineHeight = Math.max(8, height / 120);
+        int glyphWidth = Math.max(4, lineHeight / 2);
+        int seed = 0x2545F491;
+        for (int y = 0; y < height; y++) {
+            boolean textRow = (y / lineHeight) % 2 == 1 && y % lineHeight < lineHeight * 2 / 3;
+            int light = 150 + 80 * y / height;
+            for (int x = 0; x < width; x++) {
+                seed ^= seed << 13;
+                seed ^= seed >>> 17;
+                seed ^= seed << 5;
+                int noise = (seed & 15) - 8;
+                int v = light + 20 * x / width + noise;
+                if (textRow && (x / glyphWidth) % 3 != 2 && ((x * 7 + y * 3) / glyphWidth) % 5 != 0) {
+                    v -= 120;
+                }
+                int r = clamp(v + 12);
+                int g = clamp(v);
+                int b = clamp(v - 18 + 30 * x / width);
+                pixels[y * width + x] = 0xFF000000 | (r << 16) | (g << 8) | b;
+            }
+        }
+        return new ArgbImage(width, height, pixels);
+    }
+
+    private static int clamp(int v) {
+        return v < 0 ? 0 : (v > 255 ? 255 : v);
+    }
+}
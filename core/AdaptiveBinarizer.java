@@ -0,0 +1,122 @@
+package com.maya.camera;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Sauvola adaptive thresholding for text pages. Local mean and standard deviation come from
+ * per-column sums over a window of rows that slides down each band, one row in and one row out,
+ * so a band's working memory is a few rows whatever the image size. Bands are several window
+ * radii tall, which keeps the rows summed only to prime the window small next to the rows
+ * thresholded, and run in parallel on the fork-join pool.
+ */
+final class AdaptiveBinarizer {
+
+    private static final float K = 0.34f;
+    private static final float R = 128f;
+    private static final int MIN_BAND_ROWS = 64;
+    // Priming a band's window costs about two radii of rows; this keeps it near a quarter of the band.
+    private static final int BAND_RADII = 8;
+
+    private AdaptiveBinarizer() {
+    }
+
+    static BilevelImage binarize(LumaImage image) {
+        int rowBytes = (image.width + 7) / 8;
+        byte[] bits = new byte[rowBytes * image.height];
+        // Roughly a couple of text line heights at document resolutions.
+        int radius = Math.max(8, Math.min(image.width, image.height) / 80);
+        int bandRows = Math.max(MIN_BAND_ROWS, BAND_RADII * radius);
+        ForkJoinPool.commonPool().invoke(new Band(image, bits, rowBytes, radius, bandRows, 0, image.height));
+        return new BilevelImage(image.width, image.height, bits);
+    }
+
+    private static final class Band extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final LumaImage image;
+        private final byte[] bits;
+        private final int rowBytes;
+        private final int radius;
+        private final int bandRows;
+        private final int startRow;
+        private final int endRow;
+
+        Band(LumaImage image, byte[] bits, int rowBytes, int radius, int bandRows, int startRow, int endRow) {
+            this.image = image;
+            this.bits = bits;
+            this.rowBytes = rowBytes;
+            this.radius = radius;
+            this.bandRows = bandRows;
+            this.startRow = startRow;
+            this.endRow = endRow;
+        }
+
+        @Override
+        protected void compute() {
+            int rows = endRow - startRow;
+            if (rows <= bandRows) {
+                threshold();
+                return;
+            }
+            int mid = startRow + rows / 2;
+            invokeAll(new Band(image, bits, rowBytes, radius, bandRows, startRow, mid),
+                    new Band(image, bits, rowBytes, radius, bandRows, mid, endRow));
+        }
+
+        private void threshold() {
+            final int width = image.width;
+            final int height = image.height;
+            final byte[] pixels = image.pixels;
+            // Per column, over the window's rows: sum and sum of squares. At most 2 * radius + 1 rows
+            // of 255^2 each, well within an int for any radius a real image produces.
+            final int[] columnSum = new int[width];
+            final int[] columnSq = new int[width];
+            // Running totals of the column sums along the current row; index 0 is the zero border.
+            final long[] sum = new long[width + 1];
+            final long[] sq = new long[width + 1];
+
+            // Prime the window for startRow, all but its last row, which the loop adds.
+            for (int y = Math.max(0, startRow - radius); y < Math.min(height, startRow + radius); y++) {
+                addRow(pixels, y * width, width, columnSum, columnSq, 1);
+            }
+
+            for (int y = startRow; y < endRow; y++) {
+                if (y + radius < height) {
+                    addRow(pixels, (y + radius) * width, width, columnSum, columnSq, 1);
+                }
+                if (y > startRow && y - radius - 1 >= 0) {
+                    addRow(pixels, (y - radius - 1) * width, width, columnSum, columnSq, -1);
+                }
+                for (int x = 0; x < width; x++) {
+                    sum[x + 1] = sum[x] + columnSum[x];
+                    sq[x + 1] = sq[x] + columnSq[x];
+                }
+
+                int windowRows = Math.min(height, y + radius + 1) - Math.max(0, y - radius);
+                int src = y * width;
+                int out = y * rowBytes;
+                for (int x = 0; x < width; x++) {
+                    int wx0 = Math.max(0, x - radius);
+                    int wx1 = Math.min(width, x + radius + 1);
+                    float area = windowRows * (wx1 - wx0);
+                    float mean = (sum[wx1] - sum[wx0]) / area;
+                    float variance = Math.max(0f, (sq[wx1] - sq[wx0]) / area - mean * mean);
+                    float threshold = mean * (1f + K * ((float) Math.sqrt(variance) / R - 1f));
+                    if ((pixels[src + x] & 0xFF) <= threshold) {
+                        bits[out + (x >> 3)] |= (byte) (0x80 >> (x & 7));
+                    }
+                }
+            }
+        }
+
+        // Adds (sign 1) or removes (sign -1) one image row from the column sums.
+        private static void addRow(byte[] pixels, int src, int width, int[] columnSum, int[] columnSq, int sign) {
+            for (int x = 0; x < width; x++) {
+                int v = pixels[src + x] & 0xFF;
+                columnSum[x] += sign * v;
+                columnSq[x] += sign * v * v;
+            }
+        }
+    }
+}
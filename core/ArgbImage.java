@@ -0,0 +1,147 @@
+package com.maya.camera;
+
+import java.util.Arrays;
+
+/**
+ * Heap-backed packed ARGB frame, row-major with no padding. The plain-JVM counterpart of a
+ * {@code Bitmap}, for code and tools that run without Android.
+ */
+final class ArgbImage implements PixelBuffer {
+
+    final int width;
+    final int height;
+    final int[] pixels;
+
+    ArgbImage(int width, int height, int[] pixels) {
+        this.width = width;
+        this.height = height;
+        this.pixels = pixels;
+    }
+
+    ArgbImage(int width, int height) {
+        this(width, height, new int[width * height]);
+    }
+
+    @Override
+    public int getWidth() {
+        return width;
+    }
+
+    @Override
+    public int getHeight() {
+        return height;
+    }
+
+    @Override
+    public void readRows(int y, int rows, int[] dst) {
+        System.arraycopy(pixels, y * width, dst, 0, rows * width);
+    }
+
+    @Override
+    public void writeRows(int y, int rows, int[] src) {
+        System.arraycopy(src, 0, pixels, y * width, rows * width);
+    }
+
+    /** Returns this image turned clockwise by a multiple of 90 degrees, by index remapping. */
+    ArgbImage rotate(int rotationDegrees) {
+        int degrees = ((rotationDegrees % 360) + 360) % 360;
+        if (degrees == 0) {
+            return this;
+        }
+        boolean swap = degrees == 90 || degrees == 270;
+        int outWidth = swap ? height : width;
+        int outHeight = swap ? width : height;
+        int[] out = new int[pixels.length];
+        for (int y = 0; y < height; y++) {
+            int row = y * width;
+            switch (degrees) {
+                case 90:
+                    for (int x = 0, index = height - 1 - y; x < width; x++, index += outWidth) {
+                        out[index] = pixels[row + x];
+                    }
+                    break;
+                case 180:
+                    for (int x = 0, index = (height - y) * outWidth - 1; x < width; x++, index--) {
+                        out[index] = pixels[row + x];
+                    }
+                    break;
+                default: // 270
+                    for (int x = 0, index = (width - 1) * outWidth + y; x < width; x++, index -= outWidth) {
+                        out[index] = pixels[row + x];
+                    }
+                    break;
+            }
+        }
+        return new ArgbImage(outWidth, outHeight, out);
+    }
+
+    /** Box-filters the image down by {@code scale} (at most 1), averaging every source pixel it covers. */
+    ArgbImage downscale(float scale) {
+        if (scale >= 1f) {
+            return this;
+        }
+        int outWidth = Math.max(1, Math.round(width * scale));
+        int outHeight = Math.max(1, Math.round(height * scale));
+        int[] out = new int[outWidth * outHeight];
+        int[] x0 = new int[outWidth + 1];
+        for (int ox = 0; ox <= outWidth; ox++) {
+            x0[ox] = (int) ((long) ox * width / outWidth);
+        }
+        // Per output column: red, green, blue sums over the current output row's band.
+        int[] sums = new int[outWidth * 3];
+        for (int oy = 0; oy < outHeight; oy++) {
+            int y0 = (int) ((long) oy * height / outHeight);
+            int y1 = Math.max(y0 + 1, (int) ((long) (oy + 1) * height / outHeight));
+            Arrays.fill(sums, 0);
+            for (int y = y0; y < y1; y++) {
+                int row = y * width;
+                for (int ox = 0; ox < outWidth; ox++) {
+                    int r = 0;
+                    int g = 0;
+                    int b = 0;
+                    for (int x = x0[ox]; x < Math.max(x0[ox] + 1, x0[ox + 1]); x++) {
+                        int p = pixels[row + x];
+                        r += (p >> 16) & 0xFF;
+                        g += (p >> 8) & 0xFF;
+                        b += p & 0xFF;
+                    }
+                    sums[ox * 3] += r;
+                    sums[ox * 3 + 1] += g;
+                    sums[ox * 3 + 2] += b;
+                }
+            }
+            int rows = y1 - y0;
+            int base = oy * outWidth;
+            for (int ox = 0; ox < outWidth; ox++) {
+                int count = rows * Math.max(1, x0[ox + 1] - x0[ox]);
+                int r = (sums[ox * 3] + count / 2) / count;
+                int g = (sums[ox * 3 + 1] + count / 2) / count;
+                int b = (sums[ox * 3 + 2] + count / 2) / count;
+                out[base + ox] = 0xFF000000 | (r << 16) | (g << 8) | b;
+            }
+        }
+        return new ArgbImage(outWidth, outHeight, out);
+    }
+
+    /** Luma with the same weights as {@link ColorFilterMatrix#saturation}. */
+    LumaImage toLuma() {
+        byte[] luma = new byte[width * height];
+        for (int i = 0; i < luma.length; i++) {
+            int p = pixels[i];
+            luma[i] = (byte) ((54 * ((p >> 16) & 0xFF) + 183 * ((p >> 8) & 0xFF) + 19 * (p & 0xFF) + 128) >> 8);
+        }
+        return new LumaImage(width, height, luma);
+    }
+
+    /** Packed 8-bit RGB samples for a DeviceRGB page image, Flate-compressed by the writer. */
+    PageImage toPageImage() {
+        byte[] rgb = new byte[width * height * 3];
+        for (int i = 0, j = 0; i < pixels.length; i++) {
+            int p = pixels[i];
+            rgb[j++] = (byte) (p >> 16);
+            rgb[j++] = (byte) (p >> 8);
+            rgb[j++] = (byte) p;
+        }
+        return new PageImage(PageImage.RAW_RGB, width, height, 0, rgb);
+    }
+}
@@ -0,0 +1,48 @@
+package com.maya.camera;
+
+import com.itextpdf.io.codec.CCITTG4Encoder;
+
+/** 1-bit image, rows packed MSB first and padded to whole bytes; a set bit is black. */
+final class BilevelImage {
+
+    final int width;
+    final int height;
+    final byte[] bits;
+
+    BilevelImage(int width, int height, byte[] bits) {
+        this.width = width;
+        this.height = height;
+        this.bits = bits;
+    }
+
+    int rowBytes() {
+        return (width + 7) / 8;
+    }
+
+    boolean isBlack(int x, int y) {
+        return (bits[y * rowBytes() + (x >> 3)] & (0x80 >> (x & 7))) != 0;
+    }
+
+    /** Writes the image as 0/255 luma into {@code pixels}, row-major with a stride of {@link #width}. */
+    void expandInto(byte[] pixels) {
+        int rowBytes = rowBytes();
+        for (int y = 0; y < height; y++) {
+            int row = y * rowBytes;
+            int out = y * width;
+            for (int x = 0; x < width; x++) {
+                pixels[out + x] = (bits[row + (x >> 3)] & (0x80 >> (x & 7))) != 0 ? 0 : (byte) 0xFF;
+            }
+        }
+    }
+
+    LumaImage toLuma() {
+        byte[] pixels = new byte[width * height];
+        expandInto(pixels);
+        return new LumaImage(width, height, pixels);
+    }
+
+    /** CCITT Group 4 page image; typically an order of magnitude smaller than an 8-bit scan. */
+    PageImage toPageImage() {
+        return new PageImage(PageImage.CCITT_G4, width, height, 0, CCITTG4Encoder.compress(bits, width, height));
+    }
+}
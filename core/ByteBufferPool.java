@@ -0,0 +1,40 @@
+package com.maya.camera;
+
+import java.nio.ByteBuffer;
+
+/** Pool of direct byte buffers, bucketed by capacity so slightly different JPEG sizes share buffers. */
+final class ByteBufferPool extends SizeKeyedPool<Integer, ByteBuffer> {
+
+    private static final int BUCKET = 256 * 1024;
+
+    ByteBufferPool(long maxBytes) {
+        super(maxBytes);
+    }
+
+    /** Returns a cleared buffer with a capacity of at least {@code minCapacity} and its limit set to it. */
+    ByteBuffer lease(int minCapacity) {
+        int capacity = (minCapacity + BUCKET - 1) / BUCKET * BUCKET;
+        ByteBuffer buffer = acquire(capacity);
+        if (buffer == null) {
+            buffer = ByteBuffer.allocateDirect(capacity);
+        }
+        buffer.clear();
+        buffer.limit(minCapacity);
+        return buffer;
+    }
+
+    void release(ByteBuffer buffer) {
+        if (buffer == null) return;
+        offer(buffer.capacity(), buffer);
+    }
+
+    @Override
+    protected long sizeOf(ByteBuffer buffer) {
+        return buffer.capacity();
+    }
+
+    @Override
+    protected void discard(ByteBuffer buffer) {
+        // Direct memory is released when the buffer is collected.
+    }
+}
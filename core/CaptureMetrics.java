@@ -0,0 +1,166 @@
+package com.maya.camera;
+
+import java.util.ArrayDeque;
+import java.util.Locale;
+import java.util.function.LongSupplier;
+
+/**
+ * Per-stage latency and per-capture peak memory, kept in {@link LatencyHistogram}s. Stage
+ * timings are recorded from wherever the stage runs; a {@link Trace} follows one capture through
+ * the pipeline and samples Java and native heap at every stage boundary it passes. Stages are
+ * timed as start/stop {@link System#nanoTime()} pairs, and finished traces are reused, so timing a
+ * capture allocates nothing once the pool has filled.
+ */
+final class CaptureMetrics {
+
+    enum Stage {
+        // takePicture() until the image reaches the callback.
+        SHUTTER,
+        // Time spent in the capture callback itself, on the camera executor.
+        CALLBACK,
+        DECODE,
+        ROTATE,
+        // Perspective crop to the detected document.
+        CROP,
+        FILTER,
+        ENCODE,
+        // MediaStore or scan-session write.
+        WRITE,
+        // Shutter press (or PDF save tap) until the result is persisted.
+        TOTAL,
+        // PDF shutter press until the page's preview thumbnail is ready.
+        PREVIEW,
+        // Not per capture: cold start until the first preview frame, and camera flip until its first frame.
+        FIRST_FRAME,
+        CAMERA_SWITCH
+    }
+
+    private static final long NANOS_PER_MS = 1_000_000L;
+    // More than the captures that can be in flight at once; extra finished traces are dropped.
+    private static final int SPARE_TRACES = 8;
+
+    private final LatencyHistogram[] latencies = new LatencyHistogram[Stage.values().length];
+    // Peaks in kilobytes.
+    private final LatencyHistogram peakJavaHeap = new LatencyHistogram();
+    private final LatencyHistogram peakNativeHeap = new LatencyHistogram();
+    private final LongSupplier nativeHeapBytes;
+    // Guarded by itself. Finished traces; one that never finishes, e.g. a failed capture's, is just dropped.
+    private final ArrayDeque<Trace> spareTraces = new ArrayDeque<>(SPARE_TRACES);
+
+    /** {@code nativeHeapBytes} reports native allocations, e.g. {@code Debug::getNativeHeapAllocatedSize}. */
+    CaptureMetrics(LongSupplier nativeHeapBytes) {
+        this.nativeHeapBytes = nativeHeapBytes;
+        for (int i = 0; i < latencies.length; i++) {
+            latencies[i] = new LatencyHistogram();
+        }
+    }
+
+    /**
+     * One capture's trip through the pipeline; hand it from stage to stage along with the capture.
+     * Once finished it belongs to the next {@link #begin}, so it must not be touched again.
+     */
+    final class Trace {
+        private long startNanos;
+        private long peakJava;
+        private long peakNative;
+
+        /**
+         * Records the time since {@code stageStartNanos} for {@code stage} and samples the heaps:
+         * {@code long start = System.nanoTime(); ...; trace.stage(stage, start);}. A stage that throws
+         * is not recorded.
+         */
+        void stage(Stage stage, long stageStartNanos) {
+            record(stage, System.nanoTime() - stageStartNanos);
+            sampleHeaps();
+        }
+
+        /** Records the capture's total time and its peak heap usage. */
+        void finish() {
+            finish(Stage.TOTAL);
+        }
+
+        /** As {@link #finish()}, recording the time since {@link #begin} as {@code total}. */
+        void finish(Stage total) {
+            record(total, System.nanoTime() - startNanos);
+            sampleHeaps();
+            peakJavaHeap.record(peakJava / 1024);
+            peakNativeHeap.record(peakNative / 1024);
+            synchronized (spareTraces) {
+                if (spareTraces.size() < SPARE_TRACES) {
+                    spareTraces.push(this);
+                }
+            }
+        }
+
+        long getStartNanos() {
+            return startNanos;
+        }
+
+        /** Folds current heap usage into this capture's peaks; stages timed elsewhere call this at their end. */
+        void sampleHeaps() {
+            Runtime runtime = Runtime.getRuntime();
+            peakJava = Math.max(peakJava, runtime.totalMemory() - runtime.freeMemory());
+            peakNative = Math.max(peakNative, nativeHeapBytes.getAsLong());
+        }
+    }
+
+    Trace begin() {
+        Trace trace;
+        synchronized (spareTraces) {
+            trace = spareTraces.poll();
+        }
+        if (trace == null) {
+            trace = new Trace();
+        }
+        trace.startNanos = System.nanoTime();
+        trace.peakJava = 0;
+        trace.peakNative = 0;
+        return trace;
+    }
+
+    void record(Stage stage, long nanos) {
+        latencies[stage.ordinal()].record(nanos);
+    }
+
+    /** Compact multi-line summary for the debug overlay: count, p50 and p99 per stage. */
+    String summary() {
+        StringBuilder out = new StringBuilder();
+        for (Stage stage : Stage.values()) {
+            LatencyHistogram h = latencies[stage.ordinal()];
+            if (h.getCount() == 0) continue;
+            out.append(String.format(Locale.US, "%-8s %4d  p50 %6.1f  p99 %6.1f ms%n",
+                    stage.name().toLowerCase(Locale.US), h.getCount(),
+                    h.getValueAtPercentile(50) / (double) NANOS_PER_MS,
+                    h.getValueAtPercentile(99) / (double) NANOS_PER_MS));
+        }
+        if (peakJavaHeap.getCount() > 0) {
+            out.append(String.format(Locale.US, "heap p99 %.0f MB  native p99 %.0f MB",
+                    peakJavaHeap.getValueAtPercentile(99) / 1024.0, peakNativeHeap.getValueAtPercentile(99) / 1024.0));
+        }
+        return out.toString();
+    }
+
+    /**
+     * One line per stage and heap with count, p50, p90, p99 and max since the last call, then
+     * resets, so successive reports form an interval log. Each line starts with {@code prefix}.
+     */
+    String drainReport(String prefix) {
+        StringBuilder out = new StringBuilder();
+        for (Stage stage : Stage.values()) {
+            appendLine(out, prefix, stage.name().toLowerCase(Locale.US), "ms", NANOS_PER_MS, latencies[stage.ordinal()].drain());
+        }
+        appendLine(out, prefix, "peak_java_heap", "MB", 1024, peakJavaHeap.drain());
+        appendLine(out, prefix, "peak_native_heap", "MB", 1024, peakNativeHeap.drain());
+        return out.toString();
+    }
+
+    private static void appendLine(StringBuilder out, String prefix, String name, String unit, long divisor, LatencyHistogram h) {
+        if (h.getCount() == 0) return;
+        out.append(String.format(Locale.US, "%s %s n=%d p50=%.1f p90=%.1f p99=%.1f max=%.1f %s%n",
+                prefix, name, h.getCount(),
+                h.getValueAtPercentile(50) / (double) divisor,
+                h.getValueAtPercentile(90) / (double) divisor,
+                h.getValueAtPercentile(99) / (double) divisor,
+                h.getMax() / (double) divisor, unit));
+    }
+}
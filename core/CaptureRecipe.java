@@ -0,0 +1,108 @@
+package com.maya.camera;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Locale;
+import java.util.Properties;
+
+/**
+ * How to turn a kept camera JPEG into its output: filter, sensor rotation, the page crop if one
+ * was detected, and whether it becomes a JPEG or a single-page PDF. Stored next to the JPEG, so
+ * the output can be made later, or made again with another filter in place of the first one.
+ */
+final class CaptureRecipe {
+
+    enum Output { JPEG, PDF }
+
+    final String filter;
+    final int rotationDegrees;
+    // Page corners in sensor orientation, or null for the whole frame.
+    final Quad quad;
+    final Output output;
+    final long capturedMillis;
+    // Where the last export went (a MediaStore URI), or null if it hasn't been exported yet.
+    final String exportedTo;
+
+    CaptureRecipe(String filter, int rotationDegrees, Quad quad, Output output, long capturedMillis) {
+        this(filter, rotationDegrees, quad, output, capturedMillis, null);
+    }
+
+    private CaptureRecipe(String filter, int rotationDegrees, Quad quad, Output output, long capturedMillis, String exportedTo) {
+        this.filter = filter;
+        this.rotationDegrees = rotationDegrees;
+        this.quad = quad;
+        this.output = output;
+        this.capturedMillis = capturedMillis;
+        this.exportedTo = exportedTo;
+    }
+
+    CaptureRecipe withFilter(String filter) {
+        return new CaptureRecipe(filter, rotationDegrees, quad, output, capturedMillis, exportedTo);
+    }
+
+    CaptureRecipe withExportedTo(String exportedTo) {
+        return new CaptureRecipe(filter, rotationDegrees, quad, output, capturedMillis, exportedTo);
+    }
+
+    /** Writes the recipe to {@code file} through a synced temporary file and a rename, so it is never half-written. */
+    void writeTo(File file) throws IOException {
+        Properties properties = new Properties();
+        properties.setProperty("filter", filter);
+        properties.setProperty("rotation", Integer.toString(rotationDegrees));
+        properties.setProperty("output", output.name());
+        properties.setProperty("captured", Long.toString(capturedMillis));
+        if (exportedTo != null) {
+            properties.setProperty("exported", exportedTo);
+        }
+        if (quad != null) {
+            StringBuilder corners = new StringBuilder();
+            for (int i = 0; i < 4; i++) {
+                corners.append(i == 0 ? "" : ",").append(quad.x(i)).append(',').append(quad.y(i));
+            }
+            properties.setProperty("quad", corners.toString());
+        }
+        File tmp = new File(file.getPath() + ".tmp");
+        try (FileOutputStream out = new FileOutputStream(tmp)) {
+            properties.store(out, null);
+            out.getFD().sync();
+        }
+        if (!tmp.renameTo(file)) {
+            throw new IOException("Cannot write recipe " + file);
+        }
+    }
+
+    static CaptureRecipe read(File file) throws IOException {
+        Properties properties = new Properties();
+        try (InputStream in = new FileInputStream(file)) {
+            properties.load(in);
+        }
+        try {
+            Quad quad = null;
+            String corners = properties.getProperty("quad");
+            if (corners != null) {
+                String[] parts = corners.split(",");
+                float[] points = new float[8];
+                for (int i = 0; i < 8; i++) {
+                    points[i] = Float.parseFloat(parts[i]);
+                }
+                quad = Quad.of(points);
+            }
+            return new CaptureRecipe(properties.getProperty("filter", "Normal"),
+                    Integer.parseInt(properties.getProperty("rotation", "0")),
+                    quad,
+                    Output.valueOf(properties.getProperty("output", "JPEG")),
+                    Long.parseLong(properties.getProperty("captured", "0")),
+                    properties.getProperty("exported"));
+        } catch (IllegalArgumentException | ArrayIndexOutOfBoundsException e) {
+            throw new IOException("Malformed recipe " + file, e);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.US, "%s %s, %d deg%s", output, filter, rotationDegrees, quad != null ? ", cropped" : "");
+    }
+}
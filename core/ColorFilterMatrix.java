@@ -0,0 +1,176 @@
+package com.maya.camera;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * 4x5 colour matrix laid out like {@code android.graphics.ColorMatrix} (rows R, G, B, A;
+ * columns R, G, B, A, offset), evaluated in 16.16 fixed point over packed pixels.
+ */
+final class ColorFilterMatrix implements ColorTransform {
+
+    private static final int SHIFT = 16;
+    private static final int ONE = 1 << SHIFT;
+    private static final int HALF = ONE >> 1;
+
+    private static final int[] IDENTITY_FIXED = {
+            ONE, 0, 0, 0, 0,
+            0, ONE, 0, 0, 0,
+            0, 0, ONE, 0, 0,
+            0, 0, 0, ONE, 0
+    };
+
+    static final ColorFilterMatrix IDENTITY = new ColorFilterMatrix(new float[]{
+            1, 0, 0, 0, 0,
+            0, 1, 0, 0, 0,
+            0, 0, 1, 0, 0,
+            0, 0, 0, 1, 0
+    });
+
+    // Float values are kept so that fusing matrices does not accumulate rounding error.
+    private final float[] values;
+    private final int[] fixed = new int[20];
+    private final boolean identity;
+    private final boolean alphaPassthrough;
+
+    private ColorFilterMatrix(float[] values) {
+        this.values = values;
+        for (int i = 0; i < 20; i++) {
+            // Offsets are in 0..255 units, the same scale as the channel values they are added to.
+            fixed[i] = Math.round(values[i] * ONE);
+        }
+        alphaPassthrough = fixed[15] == 0 && fixed[16] == 0 && fixed[17] == 0 && fixed[18] == ONE && fixed[19] == 0
+                && fixed[3] == 0 && fixed[8] == 0 && fixed[13] == 0;
+        identity = Arrays.equals(fixed, IDENTITY_FIXED);
+    }
+
+    static ColorFilterMatrix of(float... values) {
+        if (values.length != 20) {
+            throw new IllegalArgumentException("Colour matrix needs 20 values, got " + values.length);
+        }
+        return new ColorFilterMatrix(values.clone());
+    }
+
+    // Same luminance weights as ColorMatrix.setSaturation.
+    static ColorFilterMatrix saturation(float sat) {
+        float invSat = 1 - sat;
+        float r = 0.213f * invSat;
+        float g = 0.715f * invSat;
+        float b = 0.072f * invSat;
+        return new ColorFilterMatrix(new float[]{
+                r + sat, g, b, 0, 0,
+                r, g + sat, b, 0, 0,
+                r, g, b + sat, 0, 0,
+                0, 0, 0, 1, 0
+        });
+    }
+
+    static ColorFilterMatrix scale(float rScale, float gScale, float bScale, float aScale) {
+        return new ColorFilterMatrix(new float[]{
+                rScale, 0, 0, 0, 0,
+                0, gScale, 0, 0, 0,
+                0, 0, bScale, 0, 0,
+                0, 0, 0, aScale, 0
+        });
+    }
+
+    /**
+     * Returns a matrix equivalent to applying this matrix and then {@code next}, so chained
+     * filters cost a single pass over the pixels.
+     */
+    ColorFilterMatrix then(ColorFilterMatrix next) {
+        if (identity) return next;
+        if (next.identity) return this;
+        float[] a = next.values;
+        float[] b = values;
+        float[] out = new float[20];
+        for (int row = 0; row < 4; row++) {
+            int r = row * 5;
+            for (int col = 0; col < 5; col++) {
+                float sum = a[r] * b[col] + a[r + 1] * b[5 + col] + a[r + 2] * b[10 + col] + a[r + 3] * b[15 + col];
+                if (col == 4) {
+                    sum += a[r + 4];
+                }
+                out[r + col] = sum;
+            }
+        }
+        return new ColorFilterMatrix(out);
+    }
+
+    @Override
+    public boolean isIdentity() {
+        return identity;
+    }
+
+    /** True when each output channel depends only on the same input channel, so a 1D LUT is exact. */
+    boolean isSeparable() {
+        return alphaPassthrough
+                && fixed[1] == 0 && fixed[2] == 0
+                && fixed[5] == 0 && fixed[7] == 0
+                && fixed[10] == 0 && fixed[11] == 0;
+    }
+
+    float[] toArray() {
+        return values.clone();
+    }
+
+    /** Filters {@code length} packed ARGB pixels starting at {@code offset}, in place. */
+    @Override
+    public void applyArgb(int[] pixels, int offset, int length) {
+        if (identity) return;
+        final int[] m = fixed;
+        final int end = offset + length;
+        if (alphaPassthrough) {
+            for (int i = offset; i < end; i++) {
+                int p = pixels[i];
+                int r = (p >> 16) & 0xFF;
+                int g = (p >> 8) & 0xFF;
+                int b = p & 0xFF;
+                int nr = clamp((m[0] * r + m[1] * g + m[2] * b + m[4] + HALF) >> SHIFT);
+                int ng = clamp((m[5] * r + m[6] * g + m[7] * b + m[9] + HALF) >> SHIFT);
+                int nb = clamp((m[10] * r + m[11] * g + m[12] * b + m[14] + HALF) >> SHIFT);
+                pixels[i] = (p & 0xFF000000) | (nr << 16) | (ng << 8) | nb;
+            }
+            return;
+        }
+        for (int i = offset; i < end; i++) {
+            int p = pixels[i];
+            int a = p >>> 24;
+            int r = (p >> 16) & 0xFF;
+            int g = (p >> 8) & 0xFF;
+            int b = p & 0xFF;
+            int nr = clamp((m[0] * r + m[1] * g + m[2] * b + m[3] * a + m[4] + HALF) >> SHIFT);
+            int ng = clamp((m[5] * r + m[6] * g + m[7] * b + m[8] * a + m[9] + HALF) >> SHIFT);
+            int nb = clamp((m[10] * r + m[11] * g + m[12] * b + m[13] * a + m[14] + HALF) >> SHIFT);
+            int na = clamp((m[15] * r + m[16] * g + m[17] * b + m[18] * a + m[19] + HALF) >> SHIFT);
+            pixels[i] = (na << 24) | (nr << 16) | (ng << 8) | nb;
+        }
+    }
+
+    /**
+     * Filters {@code pixelCount} RGBA byte quadruples starting at byte {@code offset}, in place.
+     * This is the memory order produced by {@code Bitmap.copyPixelsToBuffer} for ARGB_8888.
+     */
+    @Override
+    public void applyRgba(ByteBuffer buffer, int offset, int pixelCount) {
+        if (identity) return;
+        final int[] m = fixed;
+        final int end = offset + pixelCount * 4;
+        for (int i = offset; i < end; i += 4) {
+            int r = buffer.get(i) & 0xFF;
+            int g = buffer.get(i + 1) & 0xFF;
+            int b = buffer.get(i + 2) & 0xFF;
+            int a = buffer.get(i + 3) & 0xFF;
+            buffer.put(i, (byte) clamp((m[0] * r + m[1] * g + m[2] * b + m[3] * a + m[4] + HALF) >> SHIFT));
+            buffer.put(i + 1, (byte) clamp((m[5] * r + m[6] * g + m[7] * b + m[8] * a + m[9] + HALF) >> SHIFT));
+            buffer.put(i + 2, (byte) clamp((m[10] * r + m[11] * g + m[12] * b + m[13] * a + m[14] + HALF) >> SHIFT));
+            if (!alphaPassthrough) {
+                buffer.put(i + 3, (byte) clamp((m[15] * r + m[16] * g + m[17] * b + m[18] * a + m[19] + HALF) >> SHIFT));
+            }
+        }
+    }
+
+    private static int clamp(int v) {
+        return v < 0 ? 0 : (v > 255 ? 255 : v);
+    }
+}
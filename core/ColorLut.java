@@ -0,0 +1,310 @@
+package com.maya.camera;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.util.Locale;
+
+/**
+ * Precomputed colour lookup table: either three per-channel 1D tables or a 3D lattice evaluated
+ * with tetrahedral interpolation. Tables can be baked from a separable {@link ColorFilterMatrix}
+ * or read from Adobe/Resolve {@code .cube} files.
+ */
+final class ColorLut implements ColorTransform {
+
+    private static final int ROUND = 1 << 15;
+
+    private final String title;
+    private final boolean identity;
+
+    // 1D: output values already shifted into ARGB position. Null for 3D tables.
+    private final int[] redTable;
+    private final int[] greenTable;
+    private final int[] blueTable;
+
+    // 3D: lattice size and node values in 8.8 fixed point, red varying fastest (the .cube order).
+    private final int size;
+    private final int[] gridRed;
+    private final int[] gridGreen;
+    private final int[] gridBlue;
+    // Per input value: offset of the lower lattice node along each axis, and the weight (0..256) of the upper one.
+    private final int[] redBase;
+    private final int[] greenBase;
+    private final int[] blueBase;
+    private final int[] redFrac;
+    private final int[] greenFrac;
+    private final int[] blueFrac;
+
+    private ColorLut(String title, int[] red, int[] green, int[] blue) {
+        this.title = title;
+        this.redTable = new int[256];
+        this.greenTable = new int[256];
+        this.blueTable = new int[256];
+        boolean same = true;
+        for (int v = 0; v < 256; v++) {
+            redTable[v] = red[v] << 16;
+            greenTable[v] = green[v] << 8;
+            blueTable[v] = blue[v];
+            same &= red[v] == v && green[v] == v && blue[v] == v;
+        }
+        this.identity = same;
+        this.size = 0;
+        this.gridRed = this.gridGreen = this.gridBlue = null;
+        this.redBase = this.greenBase = this.blueBase = null;
+        this.redFrac = this.greenFrac = this.blueFrac = null;
+    }
+
+    private ColorLut(String title, int size, float[] lattice, float[] domainMin, float[] domainMax) {
+        this.title = title;
+        this.identity = false;
+        this.redTable = this.greenTable = this.blueTable = null;
+        this.size = size;
+        int nodes = size * size * size;
+        gridRed = new int[nodes];
+        gridGreen = new int[nodes];
+        gridBlue = new int[nodes];
+        for (int i = 0; i < nodes; i++) {
+            gridRed[i] = toFixed(lattice[i * 3]);
+            gridGreen[i] = toFixed(lattice[i * 3 + 1]);
+            gridBlue[i] = toFixed(lattice[i * 3 + 2]);
+        }
+        redBase = new int[256];
+        greenBase = new int[256];
+        blueBase = new int[256];
+        redFrac = new int[256];
+        greenFrac = new int[256];
+        blueFrac = new int[256];
+        axis(domainMin[0], domainMax[0], 1, redBase, redFrac);
+        axis(domainMin[1], domainMax[1], size, greenBase, greenFrac);
+        axis(domainMin[2], domainMax[2], size * size, blueBase, blueFrac);
+    }
+
+    /** Bakes a separable matrix (no channel mixing) into 1D tables; returns null for any other matrix. */
+    static ColorLut fromMatrix(ColorFilterMatrix matrix) {
+        if (!matrix.isSeparable()) {
+            return null;
+        }
+        int[] ramp = new int[256];
+        for (int v = 0; v < 256; v++) {
+            ramp[v] = 0xFF000000 | (v << 16) | (v << 8) | v;
+        }
+        matrix.applyArgb(ramp, 0, 256);
+        int[] red = new int[256];
+        int[] green = new int[256];
+        int[] blue = new int[256];
+        for (int v = 0; v < 256; v++) {
+            red[v] = (ramp[v] >> 16) & 0xFF;
+            green[v] = (ramp[v] >> 8) & 0xFF;
+            blue[v] = ramp[v] & 0xFF;
+        }
+        return new ColorLut(null, red, green, blue);
+    }
+
+    /**
+     * Parses a {@code .cube} file with either {@code LUT_1D_SIZE} or {@code LUT_3D_SIZE} data.
+     * {@code DOMAIN_MIN}/{@code DOMAIN_MAX} and the Resolve {@code LUT_*_INPUT_RANGE} keywords are honoured.
+     */
+    static ColorLut parseCube(Reader source) throws IOException {
+        BufferedReader reader = source instanceof BufferedReader ? (BufferedReader) source : new BufferedReader(source);
+        String title = null;
+        int size1d = 0;
+        int size3d = 0;
+        float[] domainMin = {0f, 0f, 0f};
+        float[] domainMax = {1f, 1f, 1f};
+        float[] data = null;
+        int values = 0;
+
+        String line;
+        int lineNumber = 0;
+        while ((line = reader.readLine()) != null) {
+            lineNumber++;
+            line = line.trim();
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+            String[] tokens = line.split("\\s+");
+            String keyword = tokens[0].toUpperCase(Locale.US);
+            try {
+                switch (keyword) {
+                    case "TITLE":
+                        int quote = line.indexOf('"');
+                        title = quote >= 0 ? line.substring(quote + 1, Math.max(quote + 1, line.lastIndexOf('"'))) : line.substring(5).trim();
+                        continue;
+                    case "LUT_1D_SIZE":
+                        size1d = Integer.parseInt(tokens[1]);
+                        continue;
+                    case "LUT_3D_SIZE":
+                        size3d = Integer.parseInt(tokens[1]);
+                        continue;
+                    case "DOMAIN_MIN":
+                        domainMin = parseTriple(tokens);
+                        continue;
+                    case "DOMAIN_MAX":
+                        domainMax = parseTriple(tokens);
+                        continue;
+                    case "LUT_1D_INPUT_RANGE":
+                    case "LUT_3D_INPUT_RANGE":
+                        float min = Float.parseFloat(tokens[1]);
+                        float max = Float.parseFloat(tokens[2]);
+                        domainMin = new float[]{min, min, min};
+                        domainMax = new float[]{max, max, max};
+                        continue;
+                    default:
+                        break;
+                }
+                if (!Character.isDigit(keyword.charAt(0)) && keyword.charAt(0) != '-' && keyword.charAt(0) != '.') {
+                    continue; // Unknown keyword; the format allows vendor extensions
+                }
+                if (data == null) {
+                    if ((size1d > 0) == (size3d > 0)) {
+                        throw new IOException("Cube file must declare exactly one of LUT_1D_SIZE and LUT_3D_SIZE");
+                    }
+                    if (size1d > 0 && (size1d < 2 || size1d > 65536) || size3d > 0 && (size3d < 2 || size3d > 256)) {
+                        throw new IOException("Unsupported cube LUT size " + Math.max(size1d, size3d));
+                    }
+                    data = new float[(size1d > 0 ? size1d : size3d * size3d * size3d) * 3];
+                }
+                if (tokens.length < 3 || values + 3 > data.length) {
+                    throw new IOException("Malformed cube data at line " + lineNumber);
+                }
+                data[values++] = Float.parseFloat(tokens[0]);
+                data[values++] = Float.parseFloat(tokens[1]);
+                data[values++] = Float.parseFloat(tokens[2]);
+            } catch (NumberFormatException | ArrayIndexOutOfBoundsException e) {
+                throw new IOException("Malformed cube line " + lineNumber + ": " + line, e);
+            }
+        }
+        if (data == null || values != data.length) {
+            throw new IOException("Cube file has " + values / 3 + " entries, expected " + (data == null ? "some" : data.length / 3));
+        }
+        for (int c = 0; c < 3; c++) {
+            if (domainMax[c] <= domainMin[c]) {
+                throw new IOException("Cube domain is empty");
+            }
+        }
+        return size3d > 0
+                ? new ColorLut(title, size3d, data, domainMin, domainMax)
+                : resample1d(title, size1d, data, domainMin, domainMax);
+    }
+
+    /** The cube file's TITLE, or null. */
+    String getTitle() {
+        return title;
+    }
+
+    @Override
+    public boolean isIdentity() {
+        return identity;
+    }
+
+    @Override
+    public void applyArgb(int[] pixels, int offset, int length) {
+        if (identity) return;
+        final int end = offset + length;
+        if (gridRed == null) {
+            final int[] rt = redTable;
+            final int[] gt = greenTable;
+            final int[] bt = blueTable;
+            for (int i = offset; i < end; i++) {
+                int p = pixels[i];
+                pixels[i] = (p & 0xFF000000) | rt[(p >> 16) & 0xFF] | gt[(p >> 8) & 0xFF] | bt[p & 0xFF];
+            }
+            return;
+        }
+        for (int i = offset; i < end; i++) {
+            int p = pixels[i];
+            pixels[i] = (p & 0xFF000000) | lookup3d((p >> 16) & 0xFF, (p >> 8) & 0xFF, p & 0xFF);
+        }
+    }
+
+    @Override
+    public void applyRgba(ByteBuffer buffer, int offset, int pixelCount) {
+        if (identity) return;
+        final int end = offset + pixelCount * 4;
+        for (int i = offset; i < end; i += 4) {
+            int r = buffer.get(i) & 0xFF;
+            int g = buffer.get(i + 1) & 0xFF;
+            int b = buffer.get(i + 2) & 0xFF;
+            int rgb = gridRed == null
+                    ? redTable[r] | greenTable[g] | blueTable[b]
+                    : lookup3d(r, g, b);
+            buffer.put(i, (byte) (rgb >> 16));
+            buffer.put(i + 1, (byte) (rgb >> 8));
+            buffer.put(i + 2, (byte) rgb);
+        }
+    }
+
+    // Tetrahedral interpolation: four lattice reads per channel instead of trilinear's eight.
+    private int lookup3d(int r, int g, int b) {
+        final int n = size;
+        final int nn = size * size;
+        int base = redBase[r] + greenBase[g] + blueBase[b];
+        int fr = redFrac[r];
+        int fg = greenFrac[g];
+        int fb = blueFrac[b];
+        int i1;
+        int i2;
+        int w0;
+        int w1;
+        int w2;
+        int w3;
+        if (fr >= fg) {
+            if (fg >= fb) {
+                i1 = base + 1; i2 = base + 1 + n; w0 = 256 - fr; w1 = fr - fg; w2 = fg - fb; w3 = fb;
+            } else if (fr >= fb) {
+                i1 = base + 1; i2 = base + 1 + nn; w0 = 256 - fr; w1 = fr - fb; w2 = fb - fg; w3 = fg;
+            } else {
+                i1 = base + nn; i2 = base + 1 + nn; w0 = 256 - fb; w1 = fb - fr; w2 = fr - fg; w3 = fg;
+            }
+        } else {
+            if (fb >= fg) {
+                i1 = base + nn; i2 = base + n + nn; w0 = 256 - fb; w1 = fb - fg; w2 = fg - fr; w3 = fr;
+            } else if (fr >= fb) {
+                i1 = base + n; i2 = base + 1 + n; w0 = 256 - fg; w1 = fg - fr; w2 = fr - fb; w3 = fb;
+            } else {
+                i1 = base + n; i2 = base + n + nn; w0 = 256 - fg; w1 = fg - fb; w2 = fb - fr; w3 = fr;
+            }
+        }
+        int i3 = base + 1 + n + nn;
+        int nr = (w0 * gridRed[base] + w1 * gridRed[i1] + w2 * gridRed[i2] + w3 * gridRed[i3] + ROUND) >> 16;
+        int ng = (w0 * gridGreen[base] + w1 * gridGreen[i1] + w2 * gridGreen[i2] + w3 * gridGreen[i3] + ROUND) >> 16;
+        int nb = (w0 * gridBlue[base] + w1 * gridBlue[i1] + w2 * gridBlue[i2] + w3 * gridBlue[i3] + ROUND) >> 16;
+        return (nr << 16) | (ng << 8) | nb;
+    }
+
+    private void axis(float min, float max, int stride, int[] base, int[] frac) {
+        for (int v = 0; v < 256; v++) {
+            float position = clamp01((v / 255f - min) / (max - min)) * (size - 1);
+            int lower = Math.min((int) position, size - 2);
+            base[v] = lower * stride;
+            frac[v] = Math.round((position - lower) * 256);
+        }
+    }
+
+    private static ColorLut resample1d(String title, int size, float[] data, float[] domainMin, float[] domainMax) {
+        int[][] tables = new int[3][256];
+        for (int c = 0; c < 3; c++) {
+            for (int v = 0; v < 256; v++) {
+                float position = clamp01((v / 255f - domainMin[c]) / (domainMax[c] - domainMin[c])) * (size - 1);
+                int lower = Math.min((int) position, size - 2);
+                float t = position - lower;
+                float value = data[lower * 3 + c] * (1 - t) + data[(lower + 1) * 3 + c] * t;
+                tables[c][v] = Math.round(clamp01(value) * 255);
+            }
+        }
+        return new ColorLut(title, tables[0], tables[1], tables[2]);
+    }
+
+    private static float[] parseTriple(String[] tokens) {
+        return new float[]{Float.parseFloat(tokens[1]), Float.parseFloat(tokens[2]), Float.parseFloat(tokens[3])};
+    }
+
+    private static int toFixed(float value) {
+        return Math.round(clamp01(value) * (255 << 8));
+    }
+
+    private static float clamp01(float v) {
+        return v < 0f ? 0f : (v > 1f ? 1f : v);
+    }
+}
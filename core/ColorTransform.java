@@ -0,0 +1,15 @@
+package com.maya.camera;
+
+import java.nio.ByteBuffer;
+
+/** Per-pixel colour mapping that {@link FilterEngine} can run over a frame in tiles. */
+interface ColorTransform {
+
+    boolean isIdentity();
+
+    /** Maps {@code length} packed ARGB pixels starting at {@code offset}, in place. */
+    void applyArgb(int[] pixels, int offset, int length);
+
+    /** Maps {@code pixelCount} RGBA byte quadruples starting at byte {@code offset}, in place. */
+    void applyRgba(ByteBuffer buffer, int offset, int pixelCount);
+}
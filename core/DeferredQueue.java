@@ -0,0 +1,330 @@
+package com.maya.camera;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedByInterruptException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Captures kept as the camera's own JPEG plus a {@link CaptureRecipe}, and exported later on one
+ * low-priority thread. A capture costs one file write up front; decode, filter, encode and the
+ * MediaStore write happen when nothing more urgent is running.
+ *
+ * <p>Each job is {@code <id>.jpg} and {@code <id>.recipe} in the queue directory, plus a
+ * {@code <id>.pending} marker written last. The first {@link #attach} queues every job whose marker
+ * survived process death, and retries failed ones a few times. Exported JPEGs stay behind, up to
+ * a byte budget, so a recent capture can be exported again with another filter; the recipe keeps
+ * where the last export went, so the new output can replace it. Jobs still waiting
+ * are never pruned; callers keep their number down by checking {@link #hasRoom} before capturing.
+ *
+ * <p>Meant to be one per process and directory, outliving the activities that feed it: an
+ * activity attaches its processor while it exists, and jobs that come up while none is attached
+ * wait for the next one.
+ */
+final class DeferredQueue {
+
+    /**
+     * Makes the output for one job; runs on the queue's thread. Returns where the output went, or
+     * null; it is kept in the recipe as {@link CaptureRecipe#exportedTo} for the next export.
+     */
+    interface Processor {
+        String process(File jpeg, CaptureRecipe recipe) throws IOException;
+    }
+
+    /** Told about every finished job, with the error if it failed; runs on the queue's thread. */
+    interface Listener {
+        void onProcessed(String id, CaptureRecipe recipe, Throwable error);
+    }
+
+    private static final String RAW = ".jpg";
+    private static final String RECIPE = ".recipe";
+    private static final String PENDING = ".pending";
+    // Holds the number of failed attempts, as does a .pending marker renamed back from it.
+    private static final String FAILED = ".failed";
+    private static final int MAX_ATTEMPTS = 3;
+
+    private final File directory;
+    private final long retainedBytes;
+    private final int maxBacklog;
+    private final ExecutorService worker = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "deferred-export");
+        thread.setPriority(Thread.MIN_PRIORITY);
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    // Guarded by this. Ids waiting on the worker; one resubmitted while it runs goes round again.
+    private final Set<String> queued = new HashSet<>();
+    // Ids that came up while no processor was attached.
+    private final List<String> parked = new ArrayList<>();
+    // The job the worker is exporting, if any.
+    private String running;
+    private Processor processor;
+    private Listener listener;
+    private boolean resumed;
+    private long lastIdMillis;
+    private int sequence;
+
+    /**
+     * Jobs in {@code directory}; JPEGs that are no longer pending are kept up to {@code retainedBytes}.
+     * {@link #hasRoom} turns captures away once {@code maxBacklog} jobs are waiting.
+     */
+    DeferredQueue(File directory, long retainedBytes, int maxBacklog) {
+        this.directory = directory;
+        this.retainedBytes = retainedBytes;
+        this.maxBacklog = maxBacklog;
+    }
+
+    /** Jobs not exported yet: queued, waiting for a processor, or running. */
+    synchronized int backlog() {
+        return queued.size() + parked.size() + (running != null ? 1 : 0);
+    }
+
+    /**
+     * Whether another capture should be queued. Checked before capturing, so captures already in
+     * flight can still take the backlog a little past the limit.
+     */
+    boolean hasRoom() {
+        return backlog() < maxBacklog;
+    }
+
+    /**
+     * Sets who exports jobs and hears about them, replacing any earlier pair, and starts jobs
+     * waiting for one. The first call also queues jobs left over from earlier processes; the
+     * directory is read on the queue's thread, not the caller's.
+     */
+    synchronized void attach(Processor processor, Listener listener) {
+        this.processor = processor;
+        this.listener = listener;
+        if (!resumed) {
+            resumed = true;
+            worker.execute(this::resume);
+        }
+        for (String id : parked) {
+            submit(id);
+        }
+        parked.clear();
+    }
+
+    /**
+     * Clears {@code processor} if it is still the attached one. A job it is running finishes;
+     * later jobs wait for the next {@link #attach}.
+     */
+    synchronized void detach(Processor processor) {
+        if (this.processor == processor) {
+            this.processor = null;
+            this.listener = null;
+        }
+    }
+
+    /**
+     * Stores the capture and queues it. Returns once the JPEG, recipe and marker are on disk, so
+     * {@code jpeg} can be reused straight away.
+     */
+    String enqueue(ByteBuffer jpeg, CaptureRecipe recipe) throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Cannot create queue directory " + directory);
+        }
+        String id = nextId();
+        try (FileOutputStream file = new FileOutputStream(file(id, RAW))) {
+            FileChannel channel = file.getChannel();
+            ByteBuffer src = jpeg.duplicate();
+            while (src.hasRemaining()) {
+                channel.write(src);
+            }
+            file.getFD().sync();
+        }
+        recipe.writeTo(file(id, RECIPE));
+        if (!file(id, PENDING).createNewFile()) {
+            throw new IOException("Cannot queue capture " + id);
+        }
+        synchronized (this) {
+            submit(id);
+        }
+        return id;
+    }
+
+    /**
+     * Captures whose JPEG is still kept, newest first, with their recipes. Reads the directory, so
+     * call it off the main thread.
+     */
+    Map<String, CaptureRecipe> retained() {
+        String[] ids = ids(RAW);
+        Map<String, CaptureRecipe> retained = new LinkedHashMap<>();
+        for (int i = ids.length - 1; i >= 0; i--) {
+            try {
+                retained.put(ids[i], CaptureRecipe.read(file(ids[i], RECIPE)));
+            } catch (IOException e) {
+                // Pruned since the listing, or never finished queuing.
+            }
+        }
+        return retained;
+    }
+
+    /**
+     * Exports capture {@code id} again with {@code filter}, keeping its crop, rotation and output
+     * type. Returns false if its JPEG has been pruned already. Reads and rewrites the recipe, so
+     * call it off the main thread.
+     */
+    synchronized boolean reprocess(String id, String filter) throws IOException {
+        if (!file(id, RAW).exists()) {
+            return false;
+        }
+        CaptureRecipe recipe = CaptureRecipe.read(file(id, RECIPE));
+        recipe.withFilter(filter).writeTo(file(id, RECIPE));
+        // A fresh request: earlier failed attempts no longer count.
+        file(id, FAILED).delete();
+        if (!file(id, PENDING).exists() && !file(id, PENDING).createNewFile()) {
+            throw new IOException("Cannot queue capture " + id);
+        }
+        submit(id);
+        return true;
+    }
+
+    // Queue's thread: jobs pending from earlier processes, oldest first, and failed ones with attempts left.
+    private synchronized void resume() {
+        for (String id : ids(FAILED)) {
+            if (attempts(file(id, FAILED)) < MAX_ATTEMPTS) {
+                file(id, FAILED).renameTo(file(id, PENDING));
+            }
+        }
+        for (String id : ids(PENDING)) {
+            submit(id);
+        }
+    }
+
+    private void submit(String id) {
+        if (queued.add(id)) {
+            worker.execute(() -> run(id));
+        }
+    }
+
+    private void run(String id) {
+        Processor processor;
+        Listener listener;
+        synchronized (this) {
+            queued.remove(id);
+            processor = this.processor;
+            listener = this.listener;
+            if (processor == null) {
+                parked.add(id);
+                return;
+            }
+            running = id;
+        }
+        CaptureRecipe recipe = null;
+        String exportedTo = null;
+        Throwable error = null;
+        try {
+            recipe = CaptureRecipe.read(file(id, RECIPE));
+            exportedTo = processor.process(file(id, RAW), recipe);
+        } catch (IOException | RuntimeException e) {
+            error = e;
+        }
+        // Cut short rather than failed: the job stays pending for another go.
+        boolean interrupted = Thread.interrupted()
+                || error instanceof InterruptedIOException || error instanceof ClosedByInterruptException;
+        synchronized (this) {
+            running = null;
+            if (error == null && exportedTo != null && !exportedTo.equals(recipe.exportedTo)) {
+                recordExport(id, exportedTo);
+            }
+            // A job resubmitted meanwhile keeps its marker and runs again with the new recipe.
+            if (!queued.contains(id) && !interrupted) {
+                File pending = file(id, PENDING);
+                if (error == null) {
+                    pending.delete();
+                } else {
+                    markFailed(pending, file(id, FAILED));
+                }
+            }
+            prune();
+        }
+        if (listener != null && !interrupted) {
+            listener.onProcessed(id, recipe, error);
+        }
+    }
+
+    // Read again rather than reusing the job's copy: a reprocess request may have changed the filter since.
+    private void recordExport(String id, String exportedTo) {
+        try {
+            CaptureRecipe.read(file(id, RECIPE)).withExportedTo(exportedTo).writeTo(file(id, RECIPE));
+        } catch (IOException e) {
+            // The next export of this capture makes a new entry instead of replacing this one.
+        }
+    }
+
+    private static void markFailed(File pending, File failed) {
+        try {
+            Files.write(pending.toPath(), Integer.toString(attempts(pending) + 1).getBytes(StandardCharsets.US_ASCII));
+        } catch (IOException e) {
+            // Counts as a first failure; at worst one extra retry.
+        }
+        pending.renameTo(failed);
+    }
+
+    private static int attempts(File marker) {
+        try {
+            String count = new String(Files.readAllBytes(marker.toPath()), StandardCharsets.US_ASCII).trim();
+            return count.isEmpty() ? 0 : Integer.parseInt(count);
+        } catch (IOException | NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    // Drops the oldest JPEGs that no longer have work pending until the rest fit the budget.
+    private void prune() {
+        String[] ids = ids(RAW);
+        long total = 0;
+        for (String id : ids) {
+            total += file(id, RAW).length();
+        }
+        for (int i = 0; i < ids.length && total > retainedBytes; i++) {
+            String id = ids[i];
+            if (queued.contains(id) || parked.contains(id) || file(id, PENDING).exists()) continue;
+            total -= file(id, RAW).length();
+            file(id, RAW).delete();
+            file(id, RECIPE).delete();
+            file(id, FAILED).delete();
+        }
+    }
+
+    // Sortable: capture time, then a sequence number within the same millisecond.
+    private synchronized String nextId() {
+        long now = System.currentTimeMillis();
+        sequence = now == lastIdMillis ? sequence + 1 : 0;
+        lastIdMillis = now;
+        return String.format(Locale.US, "%013d-%03d", now, sequence);
+    }
+
+    private String[] ids(String suffix) {
+        String[] names = directory.list((dir, name) -> name.endsWith(suffix));
+        if (names == null) {
+            return new String[0];
+        }
+        for (int i = 0; i < names.length; i++) {
+            names[i] = names[i].substring(0, names[i].length() - suffix.length());
+        }
+        Arrays.sort(names);
+        return names;
+    }
+
+    private File file(String id, String suffix) {
+        return new File(directory, id + suffix);
+    }
+}
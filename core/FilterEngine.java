@@ -0,0 +1,205 @@
+package com.maya.camera;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Applies {@link ColorTransform} filters in place, splitting the frame into horizontal tiles
+ * that run on a fork-join pool. Built-in filters are colour matrices; the per-channel ones are
+ * baked into 1D LUTs, and {@code .cube} LUTs can be registered at runtime.
+ */
+final class FilterEngine {
+
+    // Below this many pixels a tile is processed on the calling worker instead of being split further.
+    private static final int MIN_TILE_PIXELS = 64 * 1024;
+
+    private static final Map<String, ColorFilterMatrix> MATRICES = new HashMap<>();
+    private static final Map<String, ColorTransform> FILTERS = new ConcurrentHashMap<>();
+
+    static {
+        ColorFilterMatrix grayscale = ColorFilterMatrix.saturation(0);
+        MATRICES.put("Normal", ColorFilterMatrix.IDENTITY);
+        MATRICES.put("Grayscale", grayscale);
+        MATRICES.put("Sepia", grayscale.then(ColorFilterMatrix.scale(1f, 0.95f, 0.82f, 1.0f)));
+        MATRICES.put("Invert", ColorFilterMatrix.of(
+                -1, 0, 0, 0, 255,
+                0, -1, 0, 0, 255,
+                0, 0, -1, 0, 255,
+                0, 0, 0, 1, 0));
+        MATRICES.put("Aqua", ColorFilterMatrix.of(
+                0, 0, 1, 0, 0,
+                0, 1, 0, 0, 0,
+                1, 0, 0, 0, 0,
+                0, 0, 0, 1, 0));
+        MATRICES.put("Red", ColorFilterMatrix.scale(1, 0, 0, 1));
+        MATRICES.put("Green", ColorFilterMatrix.scale(0, 1, 0, 1));
+        MATRICES.put("Blue", ColorFilterMatrix.scale(0, 0, 1, 1));
+        for (Map.Entry<String, ColorFilterMatrix> entry : MATRICES.entrySet()) {
+            ColorLut lut = ColorLut.fromMatrix(entry.getValue());
+            FILTERS.put(entry.getKey(), lut != null ? lut : entry.getValue());
+        }
+    }
+
+    private static final ThreadLocal<int[]> STRIP = new ThreadLocal<>();
+
+    private FilterEngine() {
+    }
+
+    /** Returns the precomputed transform for a filter name, or the identity for unknown names. */
+    static ColorTransform forName(String filterName) {
+        ColorTransform transform = FILTERS.get(filterName);
+        return transform != null ? transform : ColorFilterMatrix.IDENTITY;
+    }
+
+    /** Adds a filter under {@code filterName}; returns false if the name is already taken. */
+    static boolean register(String filterName, ColorTransform transform) {
+        return FILTERS.putIfAbsent(filterName, transform) == null;
+    }
+
+    /** Fuses the named built-in matrix filters, in order, into one matrix (e.g. "Grayscale", "Blue"). */
+    static ColorFilterMatrix chain(String... filterNames) {
+        ColorFilterMatrix result = ColorFilterMatrix.IDENTITY;
+        for (String name : filterNames) {
+            ColorFilterMatrix matrix = MATRICES.get(name);
+            if (matrix == null) {
+                throw new IllegalArgumentException("Not a matrix filter: " + name);
+            }
+            result = result.then(matrix);
+        }
+        return result;
+    }
+
+    static List<String> filterNames() {
+        return new ArrayList<>(FILTERS.keySet());
+    }
+
+    /** Filters a packed ARGB frame in place. */
+    static void apply(ColorTransform transform, int[] pixels, int width, int height) {
+        if (transform.isIdentity()) return;
+        ForkJoinPool.commonPool().invoke(new ArrayTile(transform, pixels, width, 0, height));
+    }
+
+    /** Filters an RGBA byte frame in place; {@code buffer} is addressed absolutely from index 0. */
+    static void apply(ColorTransform transform, ByteBuffer buffer, int width, int height) {
+        if (transform.isIdentity()) return;
+        ForkJoinPool.commonPool().invoke(new ByteTile(transform, buffer, width, 0, height));
+    }
+
+    /** Filters a strip-addressable frame in place; only one strip per worker is ever materialised. */
+    static void apply(ColorTransform transform, PixelBuffer buffer) {
+        if (transform.isIdentity()) return;
+        ForkJoinPool.commonPool().invoke(new StripTile(transform, buffer, 0, buffer.getHeight()));
+    }
+
+    private static int tileRows(int width) {
+        return Math.max(1, MIN_TILE_PIXELS / Math.max(1, width));
+    }
+
+    private static final class ArrayTile extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final ColorTransform transform;
+        private final int[] pixels;
+        private final int width;
+        private final int startRow;
+        private final int endRow;
+
+        ArrayTile(ColorTransform transform, int[] pixels, int width, int startRow, int endRow) {
+            this.transform = transform;
+            this.pixels = pixels;
+            this.width = width;
+            this.startRow = startRow;
+            this.endRow = endRow;
+        }
+
+        @Override
+        protected void compute() {
+            int rows = endRow - startRow;
+            if (rows <= tileRows(width)) {
+                transform.applyArgb(pixels, startRow * width, rows * width);
+                return;
+            }
+            int mid = startRow + rows / 2;
+            invokeAll(new ArrayTile(transform, pixels, width, startRow, mid),
+                    new ArrayTile(transform, pixels, width, mid, endRow));
+        }
+    }
+
+    private static final class ByteTile extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final ColorTransform transform;
+        private final ByteBuffer buffer;
+        private final int width;
+        private final int startRow;
+        private final int endRow;
+
+        ByteTile(ColorTransform transform, ByteBuffer buffer, int width, int startRow, int endRow) {
+            this.transform = transform;
+            this.buffer = buffer;
+            this.width = width;
+            this.startRow = startRow;
+            this.endRow = endRow;
+        }
+
+        @Override
+        protected void compute() {
+            int rows = endRow - startRow;
+            if (rows <= tileRows(width)) {
+                transform.applyRgba(buffer, startRow * width * 4, rows * width);
+                return;
+            }
+            int mid = startRow + rows / 2;
+            invokeAll(new ByteTile(transform, buffer, width, startRow, mid),
+                    new ByteTile(transform, buffer, width, mid, endRow));
+        }
+    }
+
+    private static final class StripTile extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final ColorTransform transform;
+        private final PixelBuffer buffer;
+        private final int startRow;
+        private final int endRow;
+
+        StripTile(ColorTransform transform, PixelBuffer buffer, int startRow, int endRow) {
+            this.transform = transform;
+            this.buffer = buffer;
+            this.startRow = startRow;
+            this.endRow = endRow;
+        }
+
+        @Override
+        protected void compute() {
+            int width = buffer.getWidth();
+            int tileRows = tileRows(width);
+            int rows = endRow - startRow;
+            if (rows <= tileRows) {
+                int[] strip = strip(rows * width);
+                buffer.readRows(startRow, rows, strip);
+                transform.applyArgb(strip, 0, rows * width);
+                buffer.writeRows(startRow, rows, strip);
+                return;
+            }
+            int mid = startRow + rows / 2;
+            invokeAll(new StripTile(transform, buffer, startRow, mid),
+                    new StripTile(transform, buffer, mid, endRow));
+        }
+
+        private static int[] strip(int size) {
+            int[] strip = STRIP.get();
+            if (strip == null || strip.length < size) {
+                strip = new int[size];
+                STRIP.set(strip);
+            }
+            return strip;
+        }
+    }
+}
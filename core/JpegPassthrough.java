@@ -0,0 +1,313 @@
+package com.maya.camera;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * Writes camera JPEGs without decoding them. Rotation is recorded as an EXIF orientation tag, and
+ * filters that have an exact compressed-domain equivalent are applied by patching headers only.
+ *
+ * <p>Grayscale is the only such filter: zeroing the chroma quantisation tables makes every Cb/Cr
+ * coefficient dequantise to 0 (neutral), while the luma data stays bit-identical. The other filters
+ * mix RGB channels and need the pixel path.
+ */
+final class JpegPassthrough {
+
+    private static final int SOI = 0xD8;
+    private static final int SOS = 0xDA;
+    private static final int DQT = 0xDB;
+    private static final int APP1 = 0xE1;
+    private static final int TAG_ORIENTATION = 0x0112;
+
+    private static final int CHUNK = 64 * 1024;
+
+    /** Header bytes to write in place of {@code jpeg[0, bodyOffset)}, followed by the rest unchanged. */
+    static final class Rewrite {
+        final byte[] header;
+        final int bodyOffset;
+
+        Rewrite(byte[] header, int bodyOffset) {
+            this.header = header;
+            this.bodyOffset = bodyOffset;
+        }
+    }
+
+    private JpegPassthrough() {
+    }
+
+    static boolean supports(String filterName) {
+        return "Normal".equals(filterName) || "Grayscale".equals(filterName);
+    }
+
+    /**
+     * Builds the patched header for {@code jpeg} (read from its position, which is not moved).
+     * Returns null when the stream can't be rewritten losslessly, in which case the caller should
+     * decode it instead.
+     */
+    static Rewrite rewrite(ByteBuffer jpeg, int rotationDegrees, String filterName) {
+        ByteBuffer in = jpeg.slice();
+        int length = in.remaining();
+        if (length < 4 || (in.get(0) & 0xFF) != 0xFF || (in.get(1) & 0xFF) != SOI) {
+            return null;
+        }
+
+        int exifStart = -1;
+        int[] dqtStarts = new int[4];
+        int dqtCount = 0;
+        int sofStart = -1;
+        int pos = 2;
+        int sosStart = -1;
+        while (pos + 4 <= length) {
+            if ((in.get(pos) & 0xFF) != 0xFF) {
+                return null;
+            }
+            int marker = in.get(pos + 1) & 0xFF;
+            if (marker == 0xFF) {
+                pos++; // Fill byte
+                continue;
+            }
+            if (marker == SOS) {
+                sosStart = pos;
+                break;
+            }
+            if (marker == 0x01 || (marker >= 0xD0 && marker <= 0xD7)) {
+                pos += 2;
+                continue;
+            }
+            int segmentLength = in.getShort(pos + 2) & 0xFFFF;
+            if (marker == APP1 && exifStart < 0 && isExif(in, pos)) {
+                exifStart = pos;
+            } else if (marker == DQT && dqtCount < dqtStarts.length) {
+                dqtStarts[dqtCount++] = pos;
+            } else if (isStartOfFrame(marker)) {
+                sofStart = pos;
+            }
+            pos += 2 + segmentLength;
+        }
+        if (sosStart < 0 || sofStart < 0) {
+            return null;
+        }
+
+        byte[] original = new byte[sosStart];
+        in.get(original);
+
+        if ("Grayscale".equals(filterName) && !zeroChromaTables(original, sofStart, dqtStarts, dqtCount)) {
+            return null;
+        }
+
+        short orientation = orientationFor(rotationDegrees);
+        if (exifStart >= 0) {
+            if (!patchOrientation(original, exifStart, orientation)) {
+                // The camera wrote EXIF without an orientation entry; growing its IFD isn't worth it here.
+                return null;
+            }
+            return new Rewrite(original, sosStart);
+        }
+
+        byte[] app1 = minimalExif(orientation);
+        byte[] header = new byte[original.length + app1.length];
+        header[0] = (byte) 0xFF;
+        header[1] = (byte) SOI;
+        System.arraycopy(app1, 0, header, 2, app1.length);
+        System.arraycopy(original, 2, header, 2 + app1.length, original.length - 2);
+        return new Rewrite(header, sosStart);
+    }
+
+    /** Streams the patched header and then the untouched entropy-coded data to {@code out}. */
+    static void write(Rewrite rewrite, ByteBuffer jpeg, OutputStream out) throws IOException {
+        out.write(rewrite.header);
+        ByteBuffer body = jpeg.slice();
+        body.position(rewrite.bodyOffset);
+        if (out instanceof FileOutputStream) {
+            // MediaStore hands out file-backed streams; let the channel write straight from the buffer.
+            out.flush();
+            while (body.hasRemaining()) {
+                ((FileOutputStream) out).getChannel().write(body);
+            }
+            return;
+        }
+        if (body.hasArray()) {
+            out.write(body.array(), body.arrayOffset() + body.position(), body.remaining());
+            return;
+        }
+        byte[] chunk = new byte[Math.min(CHUNK, body.remaining())];
+        while (body.hasRemaining()) {
+            int n = Math.min(chunk.length, body.remaining());
+            body.get(chunk, 0, n);
+            out.write(chunk, 0, n);
+        }
+    }
+
+    /**
+     * Clockwise rotation that the EXIF orientation of {@code jpeg} asks for, or 0 without one.
+     * Mirrored orientations, which cameras don't write, also count as 0.
+     */
+    static int rotationOf(byte[] jpeg) {
+        if (jpeg.length < 4 || (jpeg[0] & 0xFF) != 0xFF || (jpeg[1] & 0xFF) != SOI) {
+            return 0;
+        }
+        ByteBuffer in = ByteBuffer.wrap(jpeg);
+        int pos = 2;
+        while (pos + 4 <= jpeg.length && (jpeg[pos] & 0xFF) == 0xFF) {
+            int marker = jpeg[pos + 1] & 0xFF;
+            if (marker == 0xFF) {
+                pos++; // Fill byte
+                continue;
+            }
+            if (marker == SOS) {
+                break;
+            }
+            if (marker == 0x01 || (marker >= 0xD0 && marker <= 0xD7)) {
+                pos += 2;
+                continue;
+            }
+            if (marker == APP1 && isExif(in, pos)) {
+                int entry = orientationEntry(jpeg, pos);
+                if (entry < 0) {
+                    return 0;
+                }
+                switch (readShort(jpeg, entry + 8, jpeg[pos + 10] == 'I')) {
+                    case 6:
+                        return 90;
+                    case 3:
+                        return 180;
+                    case 8:
+                        return 270;
+                    default:
+                        return 0;
+                }
+            }
+            pos += 2 + readShort(jpeg, pos + 2, false);
+        }
+        return 0;
+    }
+
+    static short orientationFor(int rotationDegrees) {
+        switch (((rotationDegrees % 360) + 360) % 360) {
+            case 90:
+                return 6;
+            case 180:
+                return 3;
+            case 270:
+                return 8;
+            default:
+                return 1;
+        }
+    }
+
+    private static boolean isExif(ByteBuffer in, int pos) {
+        return pos + 10 <= in.limit()
+                && in.get(pos + 4) == 'E' && in.get(pos + 5) == 'x' && in.get(pos + 6) == 'i'
+                && in.get(pos + 7) == 'f' && in.get(pos + 8) == 0 && in.get(pos + 9) == 0;
+    }
+
+    private static boolean isStartOfFrame(int marker) {
+        return marker >= 0xC0 && marker <= 0xCF && marker != 0xC4 && marker != 0xC8 && marker != 0xCC;
+    }
+
+    private static boolean patchOrientation(byte[] header, int exifStart, short orientation) {
+        int entry = orientationEntry(header, exifStart);
+        if (entry < 0) return false;
+        writeShort(header, entry + 8, orientation, header[exifStart + 10] == 'I');
+        return true;
+    }
+
+    // Offset of the orientation entry in IFD0 of the EXIF segment at exifStart, or -1.
+    private static int orientationEntry(byte[] b, int exifStart) {
+        int tiff = exifStart + 10;
+        int segmentEnd = Math.min(b.length, exifStart + 2 + readShort(b, exifStart + 2, false));
+        if (tiff + 8 > segmentEnd) return -1;
+        boolean little = b[tiff] == 'I' && b[tiff + 1] == 'I';
+        int ifd = tiff + readInt(b, tiff + 4, little);
+        if (ifd < tiff || ifd + 2 > segmentEnd) return -1;
+        int entries = readShort(b, ifd, little);
+        for (int i = 0; i < entries; i++) {
+            int entry = ifd + 2 + i * 12;
+            if (entry + 12 > segmentEnd) return -1;
+            if (readShort(b, entry, little) == TAG_ORIENTATION) {
+                return entry;
+            }
+        }
+        return -1;
+    }
+
+    private static boolean zeroChromaTables(byte[] header, int sofStart, int[] dqtStarts, int dqtCount) {
+        int components = header[sofStart + 9] & 0xFF;
+        if (components == 1) {
+            return true; // Already grayscale
+        }
+        if (components != 3) {
+            return false;
+        }
+        int lumaTable = header[sofStart + 10 + 2] & 0x0F;
+        int chromaMask = 0;
+        for (int c = 1; c < 3; c++) {
+            int table = header[sofStart + 10 + c * 3 + 2] & 0x0F;
+            if (table == lumaTable) {
+                return false; // Shared table; zeroing it would blank luma too
+            }
+            chromaMask |= 1 << table;
+        }
+
+        for (int i = 0; i < dqtCount; i++) {
+            int start = dqtStarts[i];
+            int end = start + 2 + readShort(header, start + 2, false);
+            int pos = start + 4;
+            while (pos < end) {
+                int precision = (header[pos] >> 4) & 0x0F;
+                int table = header[pos] & 0x0F;
+                int size = precision == 0 ? 64 : 128;
+                if ((chromaMask & (1 << table)) != 0) {
+                    for (int k = 1; k <= size; k++) {
+                        header[pos + k] = 0;
+                    }
+                }
+                pos += 1 + size;
+            }
+        }
+        return true;
+    }
+
+    static byte[] minimalExif(short orientation) {
+        // APP1 with a big-endian TIFF header and a single-entry IFD0 holding the orientation.
+        byte[] app1 = new byte[36];
+        app1[0] = (byte) 0xFF;
+        app1[1] = (byte) APP1;
+        writeShort(app1, 2, (short) (app1.length - 2), false);
+        app1[4] = 'E';
+        app1[5] = 'x';
+        app1[6] = 'i';
+        app1[7] = 'f';
+        app1[10] = 'M';
+        app1[11] = 'M';
+        app1[13] = 0x2A;
+        app1[17] = 8; // IFD0 offset
+        app1[19] = 1; // Entry count
+        writeShort(app1, 20, (short) TAG_ORIENTATION, false);
+        app1[23] = 3; // SHORT
+        app1[27] = 1; // Count
+        writeShort(app1, 28, orientation, false);
+        return app1; // Next-IFD offset (bytes 32..35) stays 0
+    }
+
+    private static int readShort(byte[] b, int pos, boolean little) {
+        return little
+                ? (b[pos] & 0xFF) | (b[pos + 1] & 0xFF) << 8
+                : (b[pos] & 0xFF) << 8 | (b[pos + 1] & 0xFF);
+    }
+
+    private static int readInt(byte[] b, int pos, boolean little) {
+        return little
+                ? readShort(b, pos, true) | readShort(b, pos + 2, true) << 16
+                : readShort(b, pos, false) << 16 | readShort(b, pos + 2, false);
+    }
+
+    private static void writeShort(byte[] b, int pos, short value, boolean little) {
+        byte hi = (byte) (value >> 8);
+        byte lo = (byte) value;
+        b[pos] = little ? lo : hi;
+        b[pos + 1] = little ? hi : lo;
+    }
+}
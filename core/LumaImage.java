@@ -0,0 +1,105 @@
+package com.maya.camera;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/** 8-bit grayscale image, one byte per pixel, row-major with no padding. */
+final class LumaImage {
+
+    final int width;
+    final int height;
+    final byte[] pixels;
+
+    LumaImage(int width, int height, byte[] pixels) {
+        this.width = width;
+        this.height = height;
+        this.pixels = pixels;
+    }
+
+    /**
+     * Reads a luma plane, box-filtering it down by {@code scale} (at most 1) on the way so a full
+     * resolution copy is never made. {@code plane} is read with absolute indexes.
+     */
+    static LumaImage fromPlane(ByteBuffer plane, int rowStride, int width, int height, float scale) {
+        if (scale >= 1f) {
+            byte[] out = new byte[width * height];
+            ByteBuffer src = plane.duplicate();
+            for (int y = 0; y < height; y++) {
+                src.position(y * rowStride);
+                src.get(out, y * width, width);
+            }
+            return new LumaImage(width, height, out);
+        }
+
+        int outWidth = Math.max(1, Math.round(width * scale));
+        int outHeight = Math.max(1, Math.round(height * scale));
+        byte[] out = new byte[outWidth * outHeight];
+        // Per-column source spans are the same for every output row, so compute them once.
+        int[] x0 = new int[outWidth + 1];
+        for (int ox = 0; ox <= outWidth; ox++) {
+            x0[ox] = (int) ((long) ox * width / outWidth);
+        }
+        int[] sums = new int[outWidth];
+        byte[] row = new byte[width];
+        ByteBuffer src = plane.duplicate();
+        for (int oy = 0; oy < outHeight; oy++) {
+            int y0 = (int) ((long) oy * height / outHeight);
+            int y1 = Math.max(y0 + 1, (int) ((long) (oy + 1) * height / outHeight));
+            Arrays.fill(sums, 0);
+            for (int y = y0; y < y1; y++) {
+                src.position(y * rowStride);
+                src.get(row, 0, width);
+                for (int ox = 0; ox < outWidth; ox++) {
+                    int sum = 0;
+                    for (int x = x0[ox]; x < Math.max(x0[ox] + 1, x0[ox + 1]); x++) {
+                        sum += row[x] & 0xFF;
+                    }
+                    sums[ox] += sum;
+                }
+            }
+            int rows = y1 - y0;
+            int base = oy * outWidth;
+            for (int ox = 0; ox < outWidth; ox++) {
+                int count = rows * Math.max(1, x0[ox + 1] - x0[ox]);
+                out[base + ox] = (byte) ((sums[ox] + count / 2) / count);
+            }
+        }
+        return new LumaImage(outWidth, outHeight, out);
+    }
+
+    /** Returns this image turned clockwise by a multiple of 90 degrees, by index remapping. */
+    LumaImage rotate(int rotationDegrees) {
+        int degrees = ((rotationDegrees % 360) + 360) % 360;
+        if (degrees == 0) {
+            return this;
+        }
+        boolean swap = degrees == 90 || degrees == 270;
+        int outWidth = swap ? height : width;
+        int outHeight = swap ? width : height;
+        byte[] out = new byte[pixels.length];
+        for (int y = 0; y < height; y++) {
+            int row = y * width;
+            for (int x = 0; x < width; x++) {
+                int index;
+                switch (degrees) {
+                    case 90:
+                        index = x * outWidth + (height - 1 - y);
+                        break;
+                    case 180:
+                        index = (height - 1 - y) * outWidth + (width - 1 - x);
+                        break;
+                    default: // 270
+                        index = (width - 1 - x) * outWidth + y;
+                        break;
+                }
+                out[index] = pixels[row + x];
+            }
+        }
+        return new LumaImage(outWidth, outHeight, out);
+    }
+
+    /** 1-byte-per-pixel DeviceGray page image, Flate-compressed by the writer. */
+    PageImage toPageImage() {
+        return new PageImage(PageImage.RAW_GRAY, width, height, 0, pixels);
+    }
+}
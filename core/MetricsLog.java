@@ -0,0 +1,47 @@
+package com.maya.camera;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Append-only text log that rolls over at a size limit, keeping the current file and one
+ * previous generation ({@code name} and {@code name.1}), so field metrics never grow unbounded.
+ */
+final class MetricsLog {
+
+    private final File file;
+    private final File previous;
+    private final long maxBytes;
+
+    MetricsLog(File dir, String name, long maxBytes) {
+        this.file = new File(dir, name);
+        this.previous = new File(dir, name + ".1");
+        this.maxBytes = maxBytes;
+    }
+
+    synchronized void append(String text) throws IOException {
+        if (text.isEmpty()) {
+            return;
+        }
+        File dir = file.getParentFile();
+        if (dir != null && !dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Cannot create " + dir);
+        }
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        if (file.length() + bytes.length > maxBytes && file.exists()) {
+            if (previous.exists() && !previous.delete() || !file.renameTo(previous)) {
+                throw new IOException("Cannot roll over " + file);
+            }
+        }
+        try (OutputStream out = new FileOutputStream(file, true)) {
+            out.write(bytes);
+        }
+    }
+
+    File getFile() {
+        return file;
+    }
+}
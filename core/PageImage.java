@@ -0,0 +1,80 @@
+package com.maya.camera;
+
+import com.itextpdf.io.image.ImageData;
+import com.itextpdf.io.image.ImageDataFactory;
+import com.itextpdf.io.image.RawImageData;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * Image ready to be embedded in a PDF page: a JPEG that becomes a DCTDecode stream as-is, a CCITT
+ * Group 4 bilevel stream, or raw samples that iText Flate-compresses at the writer's compression level.
+ */
+final class PageImage {
+
+    static final int JPEG = 0;
+    static final int RAW_RGB = 1;
+    static final int RAW_GRAY = 2;
+    static final int CCITT_G4 = 3;
+
+    final int format;
+    final int width;
+    final int height;
+    // Clockwise rotation that makes the stored image upright; applied when the page is laid out.
+    final int rotationDegrees;
+    final byte[] data;
+
+    PageImage(int format, int width, int height, int rotationDegrees, byte[] data) {
+        this.format = format;
+        this.width = width;
+        this.height = height;
+        this.rotationDegrees = ((rotationDegrees % 360) + 360) % 360;
+        this.data = data;
+    }
+
+    /** Width once rotated upright. */
+    int uprightWidth() {
+        return rotationDegrees == 90 || rotationDegrees == 270 ? height : width;
+    }
+
+    int uprightHeight() {
+        return rotationDegrees == 90 || rotationDegrees == 270 ? width : height;
+    }
+
+    ImageData toImageData() {
+        switch (format) {
+            case JPEG:
+                return ImageDataFactory.createJpeg(data);
+            case RAW_RGB:
+                return ImageDataFactory.create(width, height, 3, 8, data, null);
+            case RAW_GRAY:
+                return ImageDataFactory.create(width, height, 1, 8, data, null);
+            case CCITT_G4:
+                // No BlackIs1: the encoder's runs already decode with BilevelImage's set bits as black.
+                return ImageDataFactory.create(width, height, false, RawImageData.CCITTG4, 0, data, null);
+            default:
+                throw new IllegalStateException("Unknown page image format " + format);
+        }
+    }
+
+    void writeTo(DataOutputStream out) throws IOException {
+        out.writeInt(format);
+        out.writeInt(width);
+        out.writeInt(height);
+        out.writeInt(rotationDegrees);
+        out.writeInt(data.length);
+        out.write(data);
+    }
+
+    static PageImage readFrom(DataInputStream in) throws IOException {
+        int format = in.readInt();
+        int width = in.readInt();
+        int height = in.readInt();
+        int rotationDegrees = in.readInt();
+        byte[] data = new byte[in.readInt()];
+        in.readFully(data);
+        return new PageImage(format, width, height, rotationDegrees, data);
+    }
+}
@@ -0,0 +1,502 @@
+package com.maya.camera;
+
+import com.itextpdf.io.source.IRandomAccessSource;
+import com.itextpdf.kernel.geom.PageSize;
+import com.itextpdf.kernel.geom.Rectangle;
+import com.itextpdf.kernel.pdf.PdfArray;
+import com.itextpdf.kernel.pdf.PdfBoolean;
+import com.itextpdf.kernel.pdf.PdfDictionary;
+import com.itextpdf.kernel.pdf.PdfDocument;
+import com.itextpdf.kernel.pdf.PdfIndirectReference;
+import com.itextpdf.kernel.pdf.PdfName;
+import com.itextpdf.kernel.pdf.PdfNumber;
+import com.itextpdf.kernel.pdf.PdfObject;
+import com.itextpdf.kernel.pdf.PdfReader;
+import com.itextpdf.kernel.pdf.PdfString;
+import com.itextpdf.kernel.pdf.ReaderProperties;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+/**
+ * Adds pages to an existing PDF as an incremental update. The new page, its content stream and
+ * image, the root page tree node with the page added, and a cross-reference section whose trailer
+ * points back at the previous one are written after the file's current end; nothing before it is
+ * copied or rewritten. iText only reads the trailer and the page tree root, through positional
+ * reads on the channel, so an append costs about the size of the page whatever the file's size.
+ */
+final class PdfAppender {
+
+    // How far from the end of the file to look for startxref.
+    private static final int TAIL = 1024;
+
+    private PdfAppender() {
+    }
+
+    /**
+     * Appends one page to a PDF and returns the new page count. {@code source} and {@code sink}
+     * are readable and writable channels on the same file, which may be one channel; Android
+     * gives separate ones for a content URI's descriptor. Raw page images are Flate-compressed at
+     * {@code compressionLevel}. On failure the file is truncated back to its original length,
+     * which is the original document.
+     */
+    static int appendPage(FileChannel source, FileChannel sink, PageImage page, PdfPageLayout layout, int compressionLevel) throws IOException {
+        float width = page.uprightWidth();
+        float height = page.uprightHeight();
+        PageSize pageSize = layout.pageSizeFor(width, height);
+        String mediaBox = "[" + number(pageSize.getLeft()) + " " + number(pageSize.getBottom()) + " "
+                + number(pageSize.getLeft() + pageSize.getWidth()) + " " + number(pageSize.getBottom() + pageSize.getHeight()) + "]";
+        StringBuilder content = new StringBuilder("q\n");
+        for (float value : PdfPageWriter.imageMatrix(page.rotationDegrees, layout.imageRect(pageSize, width, height))) {
+            content.append(number(value)).append(' ');
+        }
+        content.append("cm\n/Im1 Do\nQ\n");
+
+        long originalLength = sink.size();
+        try {
+            long previousXref = startXref(source, originalLength);
+            // A file whose last section is a cross-reference stream gets another one; a table
+            // after it would only be followed by readers that accept hybrid files.
+            boolean xrefStream = !startsWith(source, previousXref, "xref");
+
+            Tree tree = readTree(source, originalLength);
+            int pageNumber = tree.size;
+            int contentNumber = tree.size + 1;
+            int imageNumber = tree.size + 2;
+            PdfIndirectReference pages = tree.pages;
+            // Offsets of the page, content, image and, last, the rewritten page tree root.
+            long[] offsets = new long[4];
+
+            SectionStream out = new SectionStream(sink, originalLength);
+            out.ascii("\n");
+            offsets[2] = out.offset();
+            writeImage(out, imageNumber, page, compressionLevel);
+            offsets[1] = out.offset();
+            writeStream(out, contentNumber, "", content.toString().getBytes(StandardCharsets.US_ASCII));
+            offsets[0] = out.offset();
+            // Directly under the root, so anything the root passes down is overridden here.
+            out.ascii(pageNumber + " 0 obj\n<</Type /Page /Parent " + pages.getObjNumber() + " " + pages.getGenNumber() + " R"
+                    + " /MediaBox " + mediaBox + (tree.inheritsCropBox ? " /CropBox " + mediaBox : "")
+                    + (tree.inheritsRotate ? " /Rotate 0" : "")
+                    + " /Resources <</XObject <</Im1 " + imageNumber + " 0 R>>>> /Contents " + contentNumber + " 0 R>>\nendobj\n");
+            offsets[3] = out.offset();
+            out.ascii(pages.getObjNumber() + " " + pages.getGenNumber() + " obj\n<<" + tree.pagesEntries
+                    + " /Kids [" + tree.kids + pageNumber + " 0 R] /Count " + (tree.count + 1) + ">>\nendobj\n");
+
+            long xref = out.offset();
+            if (xrefStream) {
+                writeXrefStream(out, tree, offsets, previousXref);
+            } else {
+                writeXrefTable(out, tree, offsets, previousXref);
+            }
+            out.ascii("startxref\n" + xref + "\n%%EOF\n");
+            out.flush();
+            sink.force(false);
+            return tree.count + 1;
+        } catch (IOException | RuntimeException e) {
+            sink.truncate(originalLength);
+            throw e;
+        }
+    }
+
+    /** What the update needs from the document, serialized while it is open. */
+    private static final class Tree {
+        int size;
+        int count;
+        PdfIndirectReference pages;
+        // The root's entries other than /Kids and /Count, and its kids, each followed by a space.
+        String pagesEntries;
+        String kids;
+        // /Root, /Info and /ID, carried into the new trailer.
+        String trailerEntries;
+        boolean inheritsCropBox;
+        boolean inheritsRotate;
+    }
+
+    private static Tree readTree(FileChannel source, long length) throws IOException {
+        PdfReader reader = new PdfReader(new ChannelSource(source, length), new ReaderProperties());
+        try (PdfDocument pdf = new PdfDocument(reader)) {
+            if (reader.isEncrypted()) {
+                throw new IOException("Cannot append to an encrypted PDF");
+            }
+            if (reader.hasRebuiltXref()) {
+                throw new IOException("Cannot append to a PDF with a damaged cross-reference table");
+            }
+            PdfDictionary trailer = pdf.getTrailer();
+            PdfDictionary root = pdf.getCatalog().getPdfObject().getAsDictionary(PdfName.Pages);
+            PdfNumber size = trailer.getAsNumber(PdfName.Size);
+            if (root == null || root.getIndirectReference() == null || size == null) {
+                throw new IOException("PDF has no page tree");
+            }
+
+            Tree tree = new Tree();
+            tree.size = size.intValue();
+            tree.pages = root.getIndirectReference();
+            PdfNumber count = root.getAsNumber(PdfName.Count);
+            tree.count = count != null ? count.intValue() : 0;
+            StringBuilder entries = new StringBuilder();
+            for (PdfName key : root.keySet()) {
+                if (!PdfName.Kids.equals(key) && !PdfName.Count.equals(key)) {
+                    appendEntry(entries, key, root.get(key, false));
+                }
+            }
+            tree.pagesEntries = entries.toString();
+            StringBuilder kids = new StringBuilder();
+            PdfArray array = root.getAsArray(PdfName.Kids);
+            for (int i = 0; array != null && i < array.size(); i++) {
+                appendObject(kids, array.get(i, false));
+                kids.append(' ');
+            }
+            tree.kids = kids.toString();
+            StringBuilder trailerEntries = new StringBuilder();
+            for (PdfName key : new PdfName[]{PdfName.Root, PdfName.Info, PdfName.ID}) {
+                PdfObject value = trailer.get(key, false);
+                if (value != null) {
+                    appendEntry(trailerEntries, key, value);
+                }
+            }
+            tree.trailerEntries = trailerEntries.toString();
+            tree.inheritsCropBox = root.containsKey(PdfName.CropBox);
+            tree.inheritsRotate = root.containsKey(PdfName.Rotate);
+            return tree;
+        }
+    }
+
+    // Same dictionary iText writes for the image: the JPEG as-is, CCITT as encoded, raw samples Flate-compressed.
+    private static void writeImage(SectionStream out, int number, PageImage page, int compressionLevel) throws IOException {
+        String size = "/Type /XObject /Subtype /Image /Width " + page.width + " /Height " + page.height;
+        switch (page.format) {
+            case PageImage.JPEG: {
+                int components = jpegComponents(page.data);
+                String colorSpace = components == 1 ? "/DeviceGray" : components == 4 ? "/DeviceCMYK" : "/DeviceRGB";
+                // Adobe's CMYK JPEGs are stored inverted.
+                String decode = components == 4 && isAdobeJpeg(page.data) ? " /Decode [1 0 1 0 1 0 1 0]" : "";
+                writeStream(out, number, size + " /ColorSpace " + colorSpace + " /BitsPerComponent 8" + decode
+                        + " /Filter /DCTDecode", page.data);
+                break;
+            }
+            case PageImage.RAW_RGB:
+            case PageImage.RAW_GRAY: {
+                String colorSpace = page.format == PageImage.RAW_RGB ? "/DeviceRGB" : "/DeviceGray";
+                boolean compress = compressionLevel != Deflater.NO_COMPRESSION;
+                writeStream(out, number, size + " /ColorSpace " + colorSpace + " /BitsPerComponent 8"
+                        + (compress ? " /Filter /FlateDecode" : ""), compress ? deflate(page.data, compressionLevel) : page.data);
+                break;
+            }
+            case PageImage.CCITT_G4:
+                writeStream(out, number, size + " /ColorSpace /DeviceGray /BitsPerComponent 1 /Filter /CCITTFaxDecode"
+                        + " /DecodeParms <</K -1 /Columns " + page.width + " /Rows " + page.height + ">>", page.data);
+                break;
+            default:
+                throw new IllegalStateException("Unknown page image format " + page.format);
+        }
+    }
+
+    private static void writeStream(SectionStream out, int number, String entries, byte[] data) throws IOException {
+        out.ascii(number + " 0 obj\n<<" + entries + (entries.isEmpty() ? "" : " ") + "/Length " + data.length + ">>\nstream\n");
+        out.write(data, 0, data.length);
+        out.ascii("\nendstream\nendobj\n");
+    }
+
+    // Subsections for the rewritten page tree root and the new objects; the root was numbered
+    // below the old /Size, so it never runs into them.
+    private static void writeXrefTable(SectionStream out, Tree tree, long[] offsets, long previousXref) throws IOException {
+        StringBuilder xref = new StringBuilder("xref\n");
+        xref.append(tree.pages.getObjNumber()).append(" 1\n");
+        appendXrefEntry(xref, offsets[3], tree.pages.getGenNumber());
+        xref.append(tree.size).append(" 3\n");
+        for (int i = 0; i < 3; i++) {
+            appendXrefEntry(xref, offsets[i], 0);
+        }
+        xref.append("trailer\n<</Size ").append(tree.size + 3).append(tree.trailerEntries)
+                .append(" /Prev ").append(previousXref).append(">>\n");
+        out.ascii(xref.toString());
+    }
+
+    private static void appendXrefEntry(StringBuilder xref, long offset, int generation) {
+        xref.append(String.format(Locale.US, "%010d %05d n\r\n", offset, generation));
+    }
+
+    // Uncompressed: a few entries, which Flate would barely shrink.
+    private static void writeXrefStream(SectionStream out, Tree tree, long[] offsets, long previousXref) throws IOException {
+        int number = tree.size + 3;
+        long xref = out.offset();
+        int offsetBytes = Math.max(4, (64 - Long.numberOfLeadingZeros(xref) + 7) / 8);
+        ByteArrayOutputStream entries = new ByteArrayOutputStream();
+        appendXrefEntry(entries, offsets[3], tree.pages.getGenNumber(), offsetBytes);
+        for (int i = 0; i < 3; i++) {
+            appendXrefEntry(entries, offsets[i], 0, offsetBytes);
+        }
+        appendXrefEntry(entries, xref, 0, offsetBytes);
+        writeStream(out, number, "/Type /XRef /Size " + (number + 1) + " /Index [" + tree.pages.getObjNumber() + " 1 "
+                + tree.size + " 4] /W [1 " + offsetBytes + " 2]" + tree.trailerEntries + " /Prev " + previousXref, entries.toByteArray());
+    }
+
+    private static void appendXrefEntry(ByteArrayOutputStream entries, long offset, int generation, int offsetBytes) {
+        entries.write(1);
+        for (int shift = (offsetBytes - 1) * 8; shift >= 0; shift -= 8) {
+            entries.write((int) (offset >>> shift));
+        }
+        entries.write(generation >> 8);
+        entries.write(generation);
+    }
+
+    private static void appendEntry(StringBuilder out, PdfName key, PdfObject value) {
+        out.append(' ');
+        appendObject(out, key);
+        out.append(' ');
+        appendObject(out, value);
+    }
+
+    // Direct objects in PDF syntax, and indirect ones as references. Strings are written in hex,
+    // which round-trips any bytes an unencrypted file can hold.
+    private static void appendObject(StringBuilder out, PdfObject object) {
+        PdfIndirectReference ref = object == null ? null
+                : object.isIndirectReference() ? (PdfIndirectReference) object : object.getIndirectReference();
+        if (ref != null) {
+            out.append(ref.getObjNumber()).append(' ').append(ref.getGenNumber()).append(" R");
+        } else if (object == null || object.isNull()) {
+            out.append("null");
+        } else if (object.isName()) {
+            out.append('/');
+            for (byte b : ((PdfName) object).getValue().getBytes(StandardCharsets.ISO_8859_1)) {
+                int c = b & 0xFF;
+                if (c < 0x21 || c > 0x7E || "#()<>[]{}/%".indexOf(c) >= 0) {
+                    out.append(String.format(Locale.US, "#%02X", c));
+                } else {
+                    out.append((char) c);
+                }
+            }
+        } else if (object.isNumber()) {
+            out.append(number(((PdfNumber) object).getValue()));
+        } else if (object.isString()) {
+            out.append('<');
+            for (byte b : ((PdfString) object).getValueBytes()) {
+                out.append(String.format(Locale.US, "%02X", b & 0xFF));
+            }
+            out.append('>');
+        } else if (object.isBoolean()) {
+            out.append(((PdfBoolean) object).getValue());
+        } else if (object.isArray()) {
+            PdfArray array = (PdfArray) object;
+            out.append('[');
+            for (int i = 0; i < array.size(); i++) {
+                out.append(i == 0 ? "" : " ");
+                appendObject(out, array.get(i, false));
+            }
+            out.append(']');
+        } else if (object.isDictionary()) {
+            PdfDictionary dictionary = (PdfDictionary) object;
+            out.append("<<");
+            for (PdfName key : dictionary.keySet()) {
+                appendEntry(out, key, dictionary.get(key, false));
+            }
+            out.append(">>");
+        } else {
+            // Streams are always indirect.
+            throw new IllegalStateException("Cannot write " + object.getClass().getSimpleName() + " inline");
+        }
+    }
+
+    private static String number(double value) {
+        if (value == Math.rint(value) && Math.abs(value) < 1e15) {
+            return Long.toString((long) value);
+        }
+        return BigDecimal.valueOf(value).setScale(4, RoundingMode.HALF_UP).stripTrailingZeros().toPlainString();
+    }
+
+    private static byte[] deflate(byte[] data, int level) throws IOException {
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream(data.length / 2);
+        Deflater deflater = new Deflater(level);
+        try (DeflaterOutputStream out = new DeflaterOutputStream(compressed, deflater, 64 * 1024)) {
+            out.write(data);
+        } finally {
+            deflater.end();
+        }
+        return compressed.toByteArray();
+    }
+
+    // Components in the first frame header; 3 if there is none, which the viewer will report.
+    private static int jpegComponents(byte[] jpeg) {
+        int sof = jpegSegment(jpeg, true);
+        return sof >= 0 && sof + 9 < jpeg.length ? jpeg[sof + 9] & 0xFF : 3;
+    }
+
+    private static boolean isAdobeJpeg(byte[] jpeg) {
+        int app14 = jpegSegment(jpeg, false);
+        return app14 >= 0 && app14 + 9 <= jpeg.length
+                && new String(jpeg, app14 + 4, 5, StandardCharsets.US_ASCII).equals("Adobe");
+    }
+
+    // Offset of the first start-of-frame marker, or of the first APP14 one, before the scan data; -1 if none.
+    private static int jpegSegment(byte[] jpeg, boolean frame) {
+        int pos = 2;
+        while (pos + 4 <= jpeg.length) {
+            if ((jpeg[pos] & 0xFF) != 0xFF) return -1;
+            int marker = jpeg[pos + 1] & 0xFF;
+            if (marker == 0xFF) {
+                pos++;
+                continue;
+            }
+            if (marker == 0xDA || marker == 0xD9) return -1;
+            boolean startOfFrame = marker >= 0xC0 && marker <= 0xCF && marker != 0xC4 && marker != 0xC8 && marker != 0xCC;
+            if (frame ? startOfFrame : marker == 0xEE) return pos;
+            pos += 2 + (((jpeg[pos + 2] & 0xFF) << 8) | (jpeg[pos + 3] & 0xFF));
+        }
+        return -1;
+    }
+
+    // Offset after the last startxref in the file's tail.
+    private static long startXref(FileChannel file, long length) throws IOException {
+        long start = Math.max(0, length - TAIL);
+        String tail = new String(read(file, start, (int) (length - start)), StandardCharsets.ISO_8859_1);
+        int keyword = tail.lastIndexOf("startxref");
+        if (keyword >= 0) {
+            int pos = keyword + "startxref".length();
+            while (pos < tail.length() && Character.isWhitespace(tail.charAt(pos))) pos++;
+            int end = pos;
+            while (end < tail.length() && Character.isDigit(tail.charAt(end))) end++;
+            if (end > pos) {
+                return Long.parseLong(tail.substring(pos, end));
+            }
+        }
+        throw new IOException("PDF has no startxref");
+    }
+
+    private static boolean startsWith(FileChannel file, long position, String keyword) throws IOException {
+        String head = new String(read(file, position, 64), StandardCharsets.ISO_8859_1).trim();
+        return head.startsWith(keyword);
+    }
+
+    private static byte[] read(FileChannel file, long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining()) {
+            if (file.read(buffer, position + buffer.position()) < 0) break;
+        }
+        byte[] bytes = new byte[buffer.position()];
+        buffer.flip();
+        buffer.get(bytes);
+        return bytes;
+    }
+
+    // Positional reads of the original bytes, through a small window since the parser reads a byte at a
+    // time. Closing leaves the channel to its owner.
+    private static final class ChannelSource implements IRandomAccessSource {
+        private static final int WINDOW = 16 * 1024;
+
+        private final FileChannel file;
+        private final long length;
+        private final ByteBuffer window = ByteBuffer.allocate(WINDOW);
+        private long windowStart = -1;
+
+        ChannelSource(FileChannel file, long length) {
+            this.file = file;
+            this.length = length;
+        }
+
+        @Override
+        public int get(long position) throws IOException {
+            if (position >= length) return -1;
+            if (windowStart < 0 || position < windowStart || position >= windowStart + window.limit()) {
+                window.clear();
+                window.limit((int) Math.min(WINDOW, length - position));
+                while (window.hasRemaining()) {
+                    if (file.read(window, position + window.position()) < 0) break;
+                }
+                window.flip();
+                windowStart = position;
+                if (!window.hasRemaining()) {
+                    windowStart = -1;
+                    return -1;
+                }
+            }
+            return window.get((int) (position - windowStart)) & 0xFF;
+        }
+
+        @Override
+        public int get(long position, byte[] bytes, int off, int len) throws IOException {
+            if (position >= length) return -1;
+            ByteBuffer dst = ByteBuffer.wrap(bytes, off, (int) Math.min(len, length - position));
+            int total = 0;
+            while (dst.hasRemaining()) {
+                int n = file.read(dst, position + total);
+                if (n < 0) break;
+                total += n;
+            }
+            return total == 0 ? -1 : total;
+        }
+
+        @Override
+        public long length() {
+            return length;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    // Writes from the original end of the file on, through a buffer, keeping track of where the next byte lands.
+    private static final class SectionStream extends OutputStream {
+        private final FileChannel file;
+        private final ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+        // File offset of the buffer's first byte.
+        private long position;
+
+        SectionStream(FileChannel file, long position) {
+            this.file = file;
+            this.position = position;
+        }
+
+        long offset() {
+            return position + buffer.position();
+        }
+
+        void ascii(String text) throws IOException {
+            byte[] bytes = text.getBytes(StandardCharsets.US_ASCII);
+            write(bytes, 0, bytes.length);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            if (!buffer.hasRemaining()) {
+                flush();
+            }
+            buffer.put((byte) b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (len > buffer.remaining()) {
+                flush();
+            }
+            if (len >= buffer.capacity()) {
+                writeFully(ByteBuffer.wrap(b, off, len));
+            } else {
+                buffer.put(b, off, len);
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            buffer.flip();
+            writeFully(buffer);
+            buffer.clear();
+        }
+
+        private void writeFully(ByteBuffer src) throws IOException {
+            while (src.hasRemaining()) {
+                position += file.write(src, position);
+            }
+        }
+    }
+}
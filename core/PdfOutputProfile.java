@@ -0,0 +1,34 @@
+package com.maya.camera;
+
+import com.itextpdf.kernel.pdf.WriterProperties;
+
+/**
+ * Document-level writer settings for new PDFs, layered over the image encoder's
+ * {@link WriterProperties}. Page images are already DCT, CCITT or Flate streams either way; the
+ * profile decides how the objects around them are stored.
+ *
+ * <p>Neither profile linearizes ("fast web view"): iText 7's kernel cannot write linearized
+ * files, so documents load from the end like any other PDF. Repeated images are not shared
+ * either; every page embeds its own image stream.
+ */
+enum PdfOutputProfile {
+
+    // Classic cross-reference table; every dictionary written on its own, uncompressed.
+    STANDARD(false),
+    // PDF 1.5 object streams and a compressed cross-reference stream.
+    COMPACT(true);
+
+    final boolean fullCompression;
+
+    PdfOutputProfile(boolean fullCompression) {
+        this.fullCompression = fullCompression;
+    }
+
+    /** Applies the profile to {@code properties} and returns them. */
+    WriterProperties apply(WriterProperties properties) {
+        if (fullCompression) {
+            properties.setFullCompressionMode(true);
+        }
+        return properties;
+    }
+}
@@ -0,0 +1,66 @@
+package com.maya.camera;
+
+import com.itextpdf.kernel.geom.PageSize;
+import com.itextpdf.kernel.geom.Rectangle;
+
+/**
+ * How a captured image is placed on a PDF page: either on a page sized to the image (one point
+ * per pixel, the original behaviour), or fitted to a physical paper size at a target resolution.
+ */
+final class PdfPageLayout {
+
+    static final PdfPageLayout FIT_IMAGE = new PdfPageLayout(null, 0, PdfPageWriter.PADDING);
+
+    final PageSize paper;
+    final int dpi;
+    final float margin;
+
+    private PdfPageLayout(PageSize paper, int dpi, float margin) {
+        this.paper = paper;
+        this.dpi = dpi;
+        this.margin = margin;
+    }
+
+    /** Fits images to {@code paper} (e.g. {@link PageSize#A4}, {@link PageSize#LETTER}) at {@code dpi}. */
+    static PdfPageLayout paper(PageSize paper, int dpi, float margin) {
+        if (dpi <= 0) {
+            throw new IllegalArgumentException("dpi must be positive: " + dpi);
+        }
+        return new PdfPageLayout(paper, dpi, margin);
+    }
+
+    boolean isFixedPaper() {
+        return paper != null;
+    }
+
+    /** Page for an upright image; paper pages are turned to landscape for landscape images. */
+    PageSize pageSizeFor(float imageWidth, float imageHeight) {
+        if (paper == null) {
+            return new PageSize(imageWidth + margin * 2, imageHeight + margin * 2);
+        }
+        return imageWidth > imageHeight ? paper.rotate() : paper;
+    }
+
+    /** Largest rectangle with the image's aspect ratio that fits inside the page margins, centred. */
+    Rectangle imageRect(PageSize page, float imageWidth, float imageHeight) {
+        float boxWidth = page.getWidth() - margin * 2;
+        float boxHeight = page.getHeight() - margin * 2;
+        float scale = Math.min(boxWidth / imageWidth, boxHeight / imageHeight);
+        float width = imageWidth * scale;
+        float height = imageHeight * scale;
+        return new Rectangle(margin + (boxWidth - width) / 2, margin + (boxHeight - height) / 2, width, height);
+    }
+
+    /**
+     * Factor (at most 1) to scale an upright image of the given pixel size by so that it holds no
+     * more than {@link #dpi} pixels per inch on the page. Images are never upsampled.
+     */
+    float resampleScale(int pixelWidth, int pixelHeight) {
+        if (paper == null) {
+            return 1f;
+        }
+        Rectangle rect = imageRect(pageSizeFor(pixelWidth, pixelHeight), pixelWidth, pixelHeight);
+        float targetWidth = rect.getWidth() / 72f * dpi;
+        return Math.min(1f, targetWidth / pixelWidth);
+    }
+}
@@ -0,0 +1,53 @@
+package com.maya.camera;
+
+import com.itextpdf.kernel.geom.PageSize;
+import com.itextpdf.kernel.geom.Rectangle;
+import com.itextpdf.kernel.pdf.PdfDocument;
+import com.itextpdf.kernel.pdf.PdfPage;
+import com.itextpdf.kernel.pdf.canvas.PdfCanvas;
+
+/** Lays out one captured image per PDF page and flushes the page so its image leaves the heap. */
+final class PdfPageWriter {
+
+    static final float PADDING = 10f;
+
+    private PdfPageWriter() {
+    }
+
+    static void addImagePage(PdfDocument pdf, PageImage pageImage, PdfPageLayout layout) {
+        float width = pageImage.uprightWidth();
+        float height = pageImage.uprightHeight();
+        PageSize pageSize = layout.pageSizeFor(width, height);
+        Rectangle r = layout.imageRect(pageSize, width, height);
+
+        PdfPage page = pdf.addNewPage(pageSize);
+        PdfCanvas canvas = new PdfCanvas(page);
+        float[] m = imageMatrix(pageImage.rotationDegrees, r);
+        canvas.addImageWithTransformationMatrix(pageImage.toImageData(), m[0], m[1], m[2], m[3], m[4], m[5], false);
+        canvas.release();
+        // Writes the content stream and the image XObject out now instead of at document close.
+        page.flush(true);
+    }
+
+    /**
+     * Image matrix {@code a b c d e f} that draws an image stored {@code rotationDegrees} away from
+     * upright into {@code r}. Rotation is done by the matrix, so camera JPEGs can be embedded
+     * without touching pixels.
+     */
+    static float[] imageMatrix(int rotationDegrees, Rectangle r) {
+        float x = r.getLeft();
+        float y = r.getBottom();
+        float w = r.getWidth();
+        float h = r.getHeight();
+        switch (rotationDegrees) {
+            case 90:
+                return new float[]{0, -h, w, 0, x, y + h};
+            case 180:
+                return new float[]{-w, 0, 0, -h, x + w, y + h};
+            case 270:
+                return new float[]{0, h, -w, 0, x + w, y};
+            default:
+                return new float[]{w, 0, 0, h, x, y};
+        }
+    }
+}
@@ -0,0 +1,171 @@
+package com.maya.camera;
+
+import com.itextpdf.kernel.pdf.PdfDocument;
+import com.itextpdf.kernel.pdf.PdfWriter;
+import com.itextpdf.kernel.pdf.WriterProperties;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Multi-page PDF that stays open while pages are scanned. Each page is written and flushed to
+ * {@code session.pdf} as soon as it is added, so heap use does not grow with the page count.
+ *
+ * <p>Every page's {@link PageImage} is also journaled in the session directory. A PDF that was never
+ * closed (the app was killed) has no cross-reference table, so {@link #openOrResume} rebuilds it
+ * from the journal, one page at a time, before further pages are appended.
+ */
+final class PdfScanSession implements Closeable {
+
+    private static final String OUTPUT_NAME = "session.pdf";
+    private static final String COMPLETE_MARKER = "complete";
+    private static final String PAGE_PREFIX = "page-";
+
+    private final File directory;
+    private final File output;
+    private final PdfPageLayout layout;
+    private PdfDocument pdf;
+    private int pageCount;
+
+    private PdfScanSession(File directory, PdfPageLayout layout) {
+        this.directory = directory;
+        this.output = new File(directory, OUTPUT_NAME);
+        this.layout = layout;
+    }
+
+    /** Returns true if {@code directory} holds pages of a session that was not closed yet. */
+    static boolean hasUnfinishedSession(File directory) {
+        return !new File(directory, COMPLETE_MARKER).exists() && journaledPages(directory).length > 0;
+    }
+
+    /** Returns true if {@code directory} holds a closed session whose output was not collected yet. */
+    static boolean hasCompletedSession(File directory) {
+        return new File(directory, COMPLETE_MARKER).exists() && new File(directory, OUTPUT_NAME).exists();
+    }
+
+    static File completedOutput(File directory) {
+        return new File(directory, OUTPUT_NAME);
+    }
+
+    /** Starts a new session in {@code directory}, or resumes the unfinished one already there. */
+    static PdfScanSession openOrResume(File directory, PdfPageLayout layout, WriterProperties writerProperties) throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Cannot create scan session directory " + directory);
+        }
+        PdfScanSession session = new PdfScanSession(directory, layout);
+        if (new File(directory, COMPLETE_MARKER).exists()) {
+            throw new IOException("Scan session in " + directory + " is already closed");
+        }
+        session.pdf = new PdfDocument(new PdfWriter(new FileOutputStream(session.output), writerProperties));
+        for (File page : journaledPages(directory)) {
+            PdfPageWriter.addImagePage(session.pdf, readPage(page), layout);
+            session.pageCount++;
+        }
+        return session;
+    }
+
+    int getPageCount() {
+        return pageCount;
+    }
+
+    File getDirectory() {
+        return directory;
+    }
+
+    /** The finished PDF; only complete once {@link #close()} has returned. */
+    File getOutputFile() {
+        return output;
+    }
+
+    /** Appends a page showing {@code image}. */
+    void addPage(PageImage image) throws IOException {
+        if (pdf == null) {
+            throw new IllegalStateException("Scan session is closed");
+        }
+        // Journal first, so a crash during the PDF write still leaves the page recoverable.
+        File page = new File(directory, String.format(Locale.US, "%s%05d", PAGE_PREFIX, pageCount + 1));
+        File tmp = new File(directory, page.getName() + ".tmp");
+        try (FileOutputStream file = new FileOutputStream(tmp);
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(file, 64 * 1024))) {
+            image.writeTo(out);
+            out.flush();
+            file.getFD().sync();
+        }
+        if (!tmp.renameTo(page)) {
+            throw new IOException("Cannot journal page " + page);
+        }
+        PdfPageWriter.addImagePage(pdf, image, layout);
+        pageCount++;
+    }
+
+    /** Finishes the PDF. The page journal is dropped once the output is complete. */
+    @Override
+    public void close() throws IOException {
+        if (pdf == null) return;
+        pdf.close();
+        pdf = null;
+        if (!new File(directory, COMPLETE_MARKER).createNewFile()) {
+            throw new IOException("Cannot mark scan session complete");
+        }
+        for (File page : journaledPages(directory)) {
+            page.delete();
+        }
+    }
+
+    /**
+     * Releases the open document without finishing the session, e.g. when the activity goes away.
+     * The journal stays, and {@link #openOrResume} picks the session up again.
+     */
+    void suspend() {
+        if (pdf == null) return;
+        pdf.close();
+        pdf = null;
+    }
+
+    /** Deletes the session directory and everything in it, closed or not. */
+    void discard() {
+        if (pdf != null) {
+            try {
+                pdf.close();
+            } catch (RuntimeException ignored) {
+                // Nothing useful to keep from a half-written document.
+            }
+            pdf = null;
+        }
+        delete(directory);
+    }
+
+    static void delete(File directory) {
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        directory.delete();
+    }
+
+    private static PageImage readPage(File file) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 64 * 1024))) {
+            return PageImage.readFrom(in);
+        }
+    }
+
+    private static File[] journaledPages(File directory) {
+        File[] pages = directory.listFiles((dir, name) -> name.startsWith(PAGE_PREFIX) && !name.endsWith(".tmp"));
+        if (pages == null) {
+            return new File[0];
+        }
+        Arrays.sort(pages);
+        return pages;
+    }
+}
@@ -0,0 +1,216 @@
+package com.maya.camera;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Flattens the part of an image inside a {@link Quad} into an upright rectangle. Each output
+ * pixel is mapped back through the homography that takes the rectangle's corners onto the quad
+ * and sampled bilinearly, so nothing outside the quad is ever touched. Bands of rows run in
+ * parallel on the fork-join pool.
+ */
+final class PerspectiveWarp {
+
+    private static final int BAND_ROWS = 64;
+
+    final int outWidth;
+    final int outHeight;
+    // Row-major 3x3 homography from output to source pixels, h[8] = 1.
+    private final double[] h;
+
+    /** Warp taking the source pixel {@code corners} (clockwise from top-left) to an {@code outWidth} x {@code outHeight} image. */
+    PerspectiveWarp(float[] corners, int outWidth, int outHeight) {
+        this.outWidth = outWidth;
+        this.outHeight = outHeight;
+        float[] from = {0, 0, outWidth, 0, outWidth, outHeight, 0, outHeight};
+        h = solve(from, corners);
+    }
+
+    /**
+     * Flattens {@code quad}, found on a {@code srcWidth} x {@code srcHeight} image in sensor
+     * orientation, into an upright image; the rotation comes free with the warp. The output is the
+     * quad's own size shrunk by {@code scale} (at most 1), e.g. to a page's DPI.
+     */
+    static PerspectiveWarp of(Quad quad, int rotationDegrees, int srcWidth, int srcHeight, float scale) {
+        boolean swap = rotationDegrees % 180 != 0;
+        int[] size = quad.rotate(rotationDegrees).cropSize(swap ? srcHeight : srcWidth, swap ? srcWidth : srcHeight);
+        float s = Math.min(1f, scale);
+        return new PerspectiveWarp(quad.uprightCorners(rotationDegrees, srcWidth, srcHeight),
+                Math.max(1, Math.round(size[0] * s)), Math.max(1, Math.round(size[1] * s)));
+    }
+
+    LumaImage apply(LumaImage src) {
+        LumaImage out = new LumaImage(outWidth, outHeight, new byte[outWidth * outHeight]);
+        ForkJoinPool.commonPool().invoke(new LumaBand(this, src, out, 0, outHeight));
+        return out;
+    }
+
+    ArgbImage apply(ArgbImage src) {
+        ArgbImage out = new ArgbImage(outWidth, outHeight);
+        ForkJoinPool.commonPool().invoke(new ArgbBand(this, src, out, 0, outHeight));
+        return out;
+    }
+
+    // Source position of output pixel centres along a row: numerators and denominator step linearly.
+    private void warpRows(LumaImage src, LumaImage out, int startRow, int endRow) {
+        int maxX = src.width - 1;
+        int maxY = src.height - 1;
+        byte[] in = src.pixels;
+        for (int y = startRow; y < endRow; y++) {
+            double nx = h[0] * 0.5 + h[1] * (y + 0.5) + h[2];
+            double ny = h[3] * 0.5 + h[4] * (y + 0.5) + h[5];
+            double w = h[6] * 0.5 + h[7] * (y + 0.5) + 1;
+            int row = y * outWidth;
+            for (int x = 0; x < outWidth; x++, nx += h[0], ny += h[3], w += h[6]) {
+                double sx = nx / w - 0.5;
+                double sy = ny / w - 0.5;
+                int ix = (int) Math.floor(sx);
+                int iy = (int) Math.floor(sy);
+                int fx = (int) ((sx - ix) * 256);
+                int fy = (int) ((sy - iy) * 256);
+                int x0 = clamp(ix, maxX);
+                int y0 = clamp(iy, maxY) * src.width;
+                int x1 = clamp(ix + 1, maxX);
+                int y1 = clamp(iy + 1, maxY) * src.width;
+                int top = (in[y0 + x0] & 0xFF) * (256 - fx) + (in[y0 + x1] & 0xFF) * fx;
+                int bottom = (in[y1 + x0] & 0xFF) * (256 - fx) + (in[y1 + x1] & 0xFF) * fx;
+                out.pixels[row + x] = (byte) ((top * (256 - fy) + bottom * fy + (1 << 15)) >> 16);
+            }
+        }
+    }
+
+    private void warpRows(ArgbImage src, ArgbImage out, int startRow, int endRow) {
+        int maxX = src.width - 1;
+        int maxY = src.height - 1;
+        int[] in = src.pixels;
+        for (int y = startRow; y < endRow; y++) {
+            double nx = h[0] * 0.5 + h[1] * (y + 0.5) + h[2];
+            double ny = h[3] * 0.5 + h[4] * (y + 0.5) + h[5];
+            double w = h[6] * 0.5 + h[7] * (y + 0.5) + 1;
+            int row = y * outWidth;
+            for (int x = 0; x < outWidth; x++, nx += h[0], ny += h[3], w += h[6]) {
+                double sx = nx / w - 0.5;
+                double sy = ny / w - 0.5;
+                int ix = (int) Math.floor(sx);
+                int iy = (int) Math.floor(sy);
+                int fx = (int) ((sx - ix) * 256);
+                int fy = (int) ((sy - iy) * 256);
+                int x0 = clamp(ix, maxX);
+                int y0 = clamp(iy, maxY) * src.width;
+                int x1 = clamp(ix + 1, maxX);
+                int y1 = clamp(iy + 1, maxY) * src.width;
+                int p00 = in[y0 + x0];
+                int p01 = in[y0 + x1];
+                int p10 = in[y1 + x0];
+                int p11 = in[y1 + x1];
+                int argb = 0;
+                for (int shift = 0; shift < 32; shift += 8) {
+                    int top = ((p00 >>> shift) & 0xFF) * (256 - fx) + ((p01 >>> shift) & 0xFF) * fx;
+                    int bottom = ((p10 >>> shift) & 0xFF) * (256 - fx) + ((p11 >>> shift) & 0xFF) * fx;
+                    argb |= (int) (((long) top * (256 - fy) + (long) bottom * fy + (1 << 15)) >> 16) << shift;
+                }
+                out.pixels[row + x] = argb;
+            }
+        }
+    }
+
+    private static final class LumaBand extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final PerspectiveWarp warp;
+        private final LumaImage src;
+        private final LumaImage out;
+        private final int startRow;
+        private final int endRow;
+
+        LumaBand(PerspectiveWarp warp, LumaImage src, LumaImage out, int startRow, int endRow) {
+            this.warp = warp;
+            this.src = src;
+            this.out = out;
+            this.startRow = startRow;
+            this.endRow = endRow;
+        }
+
+        @Override
+        protected void compute() {
+            int rows = endRow - startRow;
+            if (rows <= BAND_ROWS) {
+                warp.warpRows(src, out, startRow, endRow);
+                return;
+            }
+            int mid = startRow + rows / 2;
+            invokeAll(new LumaBand(warp, src, out, startRow, mid), new LumaBand(warp, src, out, mid, endRow));
+        }
+    }
+
+    private static final class ArgbBand extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final PerspectiveWarp warp;
+        private final ArgbImage src;
+        private final ArgbImage out;
+        private final int startRow;
+        private final int endRow;
+
+        ArgbBand(PerspectiveWarp warp, ArgbImage src, ArgbImage out, int startRow, int endRow) {
+            this.warp = warp;
+            this.src = src;
+            this.out = out;
+            this.startRow = startRow;
+            this.endRow = endRow;
+        }
+
+        @Override
+        protected void compute() {
+            int rows = endRow - startRow;
+            if (rows <= BAND_ROWS) {
+                warp.warpRows(src, out, startRow, endRow);
+                return;
+            }
+            int mid = startRow + rows / 2;
+            invokeAll(new ArgbBand(warp, src, out, startRow, mid), new ArgbBand(warp, src, out, mid, endRow));
+        }
+    }
+
+    private static int clamp(int v, int max) {
+        return v < 0 ? 0 : Math.min(v, max);
+    }
+
+    // Solves the eight unknowns of the homography taking from[i] to to[i] by Gaussian elimination.
+    private static double[] solve(float[] from, float[] to) {
+        double[][] a = new double[8][9];
+        for (int i = 0; i < 4; i++) {
+            double x = from[i * 2];
+            double y = from[i * 2 + 1];
+            double u = to[i * 2];
+            double v = to[i * 2 + 1];
+            a[i * 2] = new double[]{x, y, 1, 0, 0, 0, -u * x, -u * y, u};
+            a[i * 2 + 1] = new double[]{0, 0, 0, x, y, 1, -v * x, -v * y, v};
+        }
+        for (int col = 0; col < 8; col++) {
+            int pivot = col;
+            for (int r = col + 1; r < 8; r++) {
+                if (Math.abs(a[r][col]) > Math.abs(a[pivot][col])) pivot = r;
+            }
+            double[] swap = a[col];
+            a[col] = a[pivot];
+            a[pivot] = swap;
+            if (Math.abs(a[col][col]) < 1e-12) {
+                throw new IllegalArgumentException("Degenerate quad");
+            }
+            for (int r = 0; r < 8; r++) {
+                if (r == col) continue;
+                double f = a[r][col] / a[col][col];
+                for (int c = col; c < 9; c++) {
+                    a[r][c] -= f * a[col][c];
+                }
+            }
+        }
+        double[] h = new double[9];
+        for (int i = 0; i < 8; i++) {
+            h[i] = a[i][8] / a[i][i];
+        }
+        h[8] = 1;
+        return h;
+    }
+}
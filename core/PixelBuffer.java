@@ -0,0 +1,18 @@
+package com.maya.camera;
+
+/**
+ * Row-addressable ARGB image that can be read and written a strip at a time, so pixel code can
+ * run over frames that are never copied into one full-size array.
+ */
+interface PixelBuffer {
+
+    int getWidth();
+
+    int getHeight();
+
+    /** Copies {@code rows} rows starting at {@code y} into {@code dst} as packed ARGB, row-major. */
+    void readRows(int y, int rows, int[] dst);
+
+    /** Writes {@code rows} rows of packed ARGB from {@code src} back starting at {@code y}. */
+    void writeRows(int y, int rows, int[] src);
+}
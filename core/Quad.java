@@ -0,0 +1,161 @@
+package com.maya.camera;
+
+import java.util.Arrays;
+
+/**
+ * Four document corners in normalised image coordinates (0..1 across and down), ordered clockwise
+ * from the top-left. Being resolution-independent, a quad found on a small analysis frame applies
+ * unchanged to the full-size capture of the same view.
+ */
+final class Quad {
+
+    // x0, y0 .. x3, y3: top-left, top-right, bottom-right, bottom-left.
+    private final float[] corners;
+
+    private Quad(float[] corners) {
+        this.corners = corners;
+    }
+
+    /** Orders four arbitrary points clockwise starting from the one nearest the top-left. */
+    static Quad of(float[] points) {
+        float cx = (points[0] + points[2] + points[4] + points[6]) / 4;
+        float cy = (points[1] + points[3] + points[5] + points[7]) / 4;
+        Integer[] order = {0, 1, 2, 3};
+        // Clockwise on screen means increasing angle with y pointing down.
+        Arrays.sort(order, (a, b) -> Double.compare(
+                Math.atan2(points[a * 2 + 1] - cy, points[a * 2] - cx),
+                Math.atan2(points[b * 2 + 1] - cy, points[b * 2] - cx)));
+        int first = 0;
+        for (int i = 1; i < 4; i++) {
+            if (points[order[i] * 2] + points[order[i] * 2 + 1] < points[order[first] * 2] + points[order[first] * 2 + 1]) {
+                first = i;
+            }
+        }
+        float[] corners = new float[8];
+        for (int i = 0; i < 4; i++) {
+            int p = order[(first + i) % 4];
+            corners[i * 2] = points[p * 2];
+            corners[i * 2 + 1] = points[p * 2 + 1];
+        }
+        return new Quad(corners);
+    }
+
+    float x(int corner) {
+        return corners[corner * 2];
+    }
+
+    float y(int corner) {
+        return corners[corner * 2 + 1];
+    }
+
+    /** The same quad on the image turned clockwise by a multiple of 90 degrees, as {@link LumaImage#rotate} does. */
+    Quad rotate(int rotationDegrees) {
+        int degrees = ((rotationDegrees % 360) + 360) % 360;
+        if (degrees == 0) {
+            return this;
+        }
+        float[] points = new float[8];
+        for (int i = 0; i < 4; i++) {
+            float x = corners[i * 2];
+            float y = corners[i * 2 + 1];
+            switch (degrees) {
+                case 90:
+                    points[i * 2] = 1 - y;
+                    points[i * 2 + 1] = x;
+                    break;
+                case 180:
+                    points[i * 2] = 1 - x;
+                    points[i * 2 + 1] = 1 - y;
+                    break;
+                default: // 270
+                    points[i * 2] = y;
+                    points[i * 2 + 1] = 1 - x;
+                    break;
+            }
+        }
+        return of(points);
+    }
+
+    /** Mirrored left to right, for front-camera previews. */
+    Quad mirror() {
+        float[] points = new float[8];
+        for (int i = 0; i < 4; i++) {
+            points[i * 2] = 1 - corners[i * 2];
+            points[i * 2 + 1] = corners[i * 2 + 1];
+        }
+        return of(points);
+    }
+
+    /** Corner coordinates in pixels of a {@code width} x {@code height} image, in corner order. */
+    float[] toPixels(int width, int height) {
+        float[] points = new float[8];
+        for (int i = 0; i < 4; i++) {
+            points[i * 2] = corners[i * 2] * width;
+            points[i * 2 + 1] = corners[i * 2 + 1] * height;
+        }
+        return points;
+    }
+
+    /**
+     * Corners in pixels of the {@code width} x {@code height} image this quad was found on, ordered
+     * as they appear once the image is turned upright by {@code rotationDegrees}. Lets a crop take
+     * the rotation along instead of rotating the whole image first.
+     */
+    float[] uprightCorners(int rotationDegrees, int width, int height) {
+        Quad upright = rotate(rotationDegrees);
+        int degrees = ((rotationDegrees % 360) + 360) % 360;
+        float[] points = new float[8];
+        for (int i = 0; i < 4; i++) {
+            float x = upright.corners[i * 2];
+            float y = upright.corners[i * 2 + 1];
+            // Inverse of rotate()
+            switch (degrees) {
+                case 90:
+                    points[i * 2] = y;
+                    points[i * 2 + 1] = 1 - x;
+                    break;
+                case 180:
+                    points[i * 2] = 1 - x;
+                    points[i * 2 + 1] = 1 - y;
+                    break;
+                case 270:
+                    points[i * 2] = 1 - y;
+                    points[i * 2 + 1] = x;
+                    break;
+                default:
+                    points[i * 2] = x;
+                    points[i * 2 + 1] = y;
+                    break;
+            }
+            points[i * 2] *= width;
+            points[i * 2 + 1] *= height;
+        }
+        return points;
+    }
+
+    /**
+     * Size of the flattened document cut from a {@code width} x {@code height} image: the longer
+     * of each pair of opposite edges, so no direction loses resolution.
+     */
+    int[] cropSize(int width, int height) {
+        float[] p = toPixels(width, height);
+        double top = Math.hypot(p[2] - p[0], p[3] - p[1]);
+        double bottom = Math.hypot(p[4] - p[6], p[5] - p[7]);
+        double left = Math.hypot(p[6] - p[0], p[7] - p[1]);
+        double right = Math.hypot(p[4] - p[2], p[5] - p[3]);
+        return new int[]{
+                Math.max(1, (int) Math.round(Math.max(top, bottom))),
+                Math.max(1, (int) Math.round(Math.max(left, right)))
+        };
+    }
+
+    /** Fraction of the image the quad covers. */
+    float area() {
+        float sum = 0;
+        for (int i = 0; i < 4; i++) {
+            int j = (i + 1) % 4;
+            sum += corners[i * 2] * corners[j * 2 + 1] - corners[j * 2] * corners[i * 2 + 1];
+        }
+        return Math.abs(sum) / 2;
+    }
+}
@@ -0,0 +1,269 @@
+package com.maya.camera;
+
+import java.util.Arrays;
+
+/**
+ * Finds a document's four corners on a small luma frame. The frame is split into page and
+ * background with Otsu's threshold, the largest bright region is taken as the page, and the
+ * largest-area quadrilateral on its convex hull gives the corners. Built for frames of a few
+ * hundred pixels across, where a detection takes a few milliseconds.
+ */
+final class QuadDetector {
+
+    // Longest side detection runs at; callers downscale to about this.
+    static final int DETECT_SIZE = 256;
+
+    // Smaller pages are more likely clutter than a document; larger ones leave nothing to crop.
+    private static final float MIN_AREA = 0.15f;
+    private static final float MAX_AREA = 0.95f;
+    // Region pixels over quad area: rejects blobs that aren't four-sided.
+    private static final float MIN_FILL = 0.85f;
+    // Between-class over total variance at the Otsu threshold: rejects frames with no clear page.
+    private static final float MIN_SEPARATION = 0.5f;
+
+    private QuadDetector() {
+    }
+
+    /** The page's corners, or null when no confident four-sided page is found. */
+    static Quad detect(LumaImage frame) {
+        int width = frame.width;
+        int height = frame.height;
+        byte[] smooth = blur(frame);
+
+        int threshold = otsu(smooth);
+        if (threshold < 0) {
+            return null;
+        }
+        int[] labels = new int[width * height];
+        int[] stack = new int[width * height];
+        int best = 0;
+        int bestSize = 0;
+        int label = 0;
+        for (int i = 0; i < labels.length; i++) {
+            if (labels[i] != 0 || (smooth[i] & 0xFF) <= threshold) continue;
+            int size = fill(smooth, threshold, width, height, i, ++label, labels, stack);
+            if (size > bestSize) {
+                bestSize = size;
+                best = label;
+            }
+        }
+        if (bestSize < MIN_AREA * width * height) {
+            return null;
+        }
+
+        // The outer edges of each row's outermost pixels are enough to span the convex hull.
+        float[] points = new float[height * 8];
+        int n = 0;
+        for (int y = 0; y < height; y++) {
+            int row = y * width;
+            int left = -1;
+            int right = -1;
+            for (int x = 0; x < width; x++) {
+                if (labels[row + x] == best) {
+                    if (left < 0) left = x;
+                    right = x;
+                }
+            }
+            if (left < 0) continue;
+            for (int edge = y; edge <= y + 1; edge++) {
+                points[n++] = left;
+                points[n++] = edge;
+                points[n++] = right + 1;
+                points[n++] = edge;
+            }
+        }
+        float[] hull = convexHull(points, n / 2);
+        float[] corners = largestQuad(hull);
+        if (corners == null) {
+            return null;
+        }
+        for (int i = 0; i < 4; i++) {
+            corners[i * 2] /= width;
+            corners[i * 2 + 1] /= height;
+        }
+        Quad quad = Quad.of(corners);
+        float area = quad.area();
+        if (area < MIN_AREA || area > MAX_AREA || bestSize < MIN_FILL * area * width * height) {
+            return null;
+        }
+        return quad;
+    }
+
+    // 3x3 box blur, so sensor noise and text strokes don't split the page region.
+    private static byte[] blur(LumaImage frame) {
+        int width = frame.width;
+        int height = frame.height;
+        byte[] src = frame.pixels;
+        byte[] out = new byte[src.length];
+        for (int y = 0; y < height; y++) {
+            int y0 = Math.max(0, y - 1);
+            int y1 = Math.min(height - 1, y + 1);
+            for (int x = 0; x < width; x++) {
+                int x0 = Math.max(0, x - 1);
+                int x1 = Math.min(width - 1, x + 1);
+                int sum = 0;
+                for (int yy = y0; yy <= y1; yy++) {
+                    for (int xx = x0; xx <= x1; xx++) {
+                        sum += src[yy * width + xx] & 0xFF;
+                    }
+                }
+                out[y * width + x] = (byte) (sum / ((y1 - y0 + 1) * (x1 - x0 + 1)));
+            }
+        }
+        return out;
+    }
+
+    // Otsu's threshold, or -1 when page and background aren't separated clearly enough.
+    private static int otsu(byte[] pixels) {
+        long[] histogram = new long[256];
+        for (byte p : pixels) {
+            histogram[p & 0xFF]++;
+        }
+        long total = pixels.length;
+        double sum = 0;
+        double sumSquares = 0;
+        for (int v = 0; v < 256; v++) {
+            sum += (double) v * histogram[v];
+            sumSquares += (double) v * v * histogram[v];
+        }
+        double mean = sum / total;
+        double variance = sumSquares / total - mean * mean;
+        if (variance <= 0) {
+            return -1;
+        }
+
+        double bestBetween = -1;
+        int threshold = -1;
+        long weightBelow = 0;
+        double sumBelow = 0;
+        for (int v = 0; v < 255; v++) {
+            weightBelow += histogram[v];
+            sumBelow += (double) v * histogram[v];
+            long weightAbove = total - weightBelow;
+            if (weightBelow == 0 || weightAbove == 0) continue;
+            double meanBelow = sumBelow / weightBelow;
+            double meanAbove = (sum - sumBelow) / weightAbove;
+            double between = (double) weightBelow * weightAbove * (meanBelow - meanAbove) * (meanBelow - meanAbove) / ((double) total * total);
+            if (between > bestBetween) {
+                bestBetween = between;
+                threshold = v;
+            }
+        }
+        return bestBetween / variance >= MIN_SEPARATION ? threshold : -1;
+    }
+
+    // 4-connected flood fill of pixels above the threshold; returns the region's pixel count.
+    private static int fill(byte[] pixels, int threshold, int width, int height, int seed, int label, int[] labels, int[] stack) {
+        int size = 0;
+        int top = 0;
+        stack[top++] = seed;
+        labels[seed] = label;
+        while (top > 0) {
+            int i = stack[--top];
+            size++;
+            int x = i % width;
+            int y = i / width;
+            if (x > 0 && labels[i - 1] == 0 && (pixels[i - 1] & 0xFF) > threshold) {
+                labels[i - 1] = label;
+                stack[top++] = i - 1;
+            }
+            if (x < width - 1 && labels[i + 1] == 0 && (pixels[i + 1] & 0xFF) > threshold) {
+                labels[i + 1] = label;
+                stack[top++] = i + 1;
+            }
+            if (y > 0 && labels[i - width] == 0 && (pixels[i - width] & 0xFF) > threshold) {
+                labels[i - width] = label;
+                stack[top++] = i - width;
+            }
+            if (y < height - 1 && labels[i + width] == 0 && (pixels[i + width] & 0xFF) > threshold) {
+                labels[i + width] = label;
+                stack[top++] = i + width;
+            }
+        }
+        return size;
+    }
+
+    // Andrew's monotone chain; returns the hull's vertices counter-clockwise as x, y pairs.
+    static float[] convexHull(float[] points, int count) {
+        Integer[] order = new Integer[count];
+        for (int i = 0; i < count; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> points[a * 2] != points[b * 2]
+                ? Float.compare(points[a * 2], points[b * 2])
+                : Float.compare(points[a * 2 + 1], points[b * 2 + 1]));
+
+        float[] hull = new float[(count + 1) * 4];
+        int k = 0;
+        for (int pass = 0; pass < 2; pass++) {
+            int start = k;
+            for (int o = 0; o < count; o++) {
+                int i = order[pass == 0 ? o : count - 1 - o];
+                float x = points[i * 2];
+                float y = points[i * 2 + 1];
+                while (k >= start + 2 && cross(hull[(k - 2) * 2], hull[(k - 2) * 2 + 1], hull[(k - 1) * 2], hull[(k - 1) * 2 + 1], x, y) <= 0) {
+                    k--;
+                }
+                hull[k * 2] = x;
+                hull[k * 2 + 1] = y;
+                k++;
+            }
+            k--; // The last point of each chain starts the other one
+        }
+        return Arrays.copyOf(hull, Math.max(0, k) * 2);
+    }
+
+    /**
+     * The four hull vertices enclosing the most area, as x, y pairs, or null for a degenerate hull.
+     * For each diagonal, the best vertex on either side moves monotonically as the diagonal
+     * rotates, so the search is quadratic in the hull size.
+     */
+    static float[] largestQuad(float[] hull) {
+        int n = hull.length / 2;
+        if (n < 4) {
+            return null;
+        }
+        double bestArea = 0;
+        int[] best = null;
+        for (int a = 0; a < n; a++) {
+            int b = a + 1;
+            int d = a + 3;
+            for (int c = a + 2; c < a + n - 1; c++) {
+                while (b + 1 < c && triangle(hull, a, b + 1, c) >= triangle(hull, a, b, c)) {
+                    b++;
+                }
+                if (d <= c) d = c + 1;
+                while (d + 1 < a + n && triangle(hull, c, d + 1, a) >= triangle(hull, c, d, a)) {
+                    d++;
+                }
+                double area = triangle(hull, a, b, c) + triangle(hull, c, d, a);
+                if (area > bestArea) {
+                    bestArea = area;
+                    best = new int[]{a, b, c, d};
+                }
+            }
+        }
+        if (best == null) {
+            return null;
+        }
+        float[] corners = new float[8];
+        for (int i = 0; i < 4; i++) {
+            int v = best[i] % n;
+            corners[i * 2] = hull[v * 2];
+            corners[i * 2 + 1] = hull[v * 2 + 1];
+        }
+        return corners;
+    }
+
+    private static double triangle(float[] hull, int i, int j, int k) {
+        int n = hull.length / 2;
+        i %= n;
+        j %= n;
+        k %= n;
+        return Math.abs(cross(hull[i * 2], hull[i * 2 + 1], hull[j * 2], hull[j * 2 + 1], hull[k * 2], hull[k * 2 + 1])) / 2;
+    }
+
+    private static double cross(float ox, float oy, float ax, float ay, float bx, float by) {
+        return (double) (ax - ox) * (by - oy) - (double) (ay - oy) * (bx - ox);
+    }
+}
@@ -0,0 +1,134 @@
+package com.maya.camera;
+
+import java.util.EnumMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Runs captures through decode, encode and persist stages, each on its own executor with
+ * a bounded queue. When a stage's queue is full the stage feeding it blocks, so a slow disk slows
+ * decoding down instead of piling frames up in memory. Several captures can be in flight at once,
+ * up to a fixed limit.
+ */
+final class SavePipeline {
+
+    enum Stage {
+        DECODE(1, 2),
+        // Filtering runs on whichever stage holds the pixels: encode for PDF pages, the deferred
+        // queue's own thread for JPEG captures.
+        ENCODE(2, 2),
+        // Single thread: MediaStore writes and scan-session pages stay in capture order.
+        PERSIST(1, 4);
+
+        final int threads;
+        final int queueCapacity;
+
+        Stage(int threads, int queueCapacity) {
+            this.threads = threads;
+            this.queueCapacity = queueCapacity;
+        }
+    }
+
+    private final Map<Stage, ThreadPoolExecutor> executors = new EnumMap<>(Stage.class);
+    private final Semaphore inFlight;
+    private final Executor callbackExecutor;
+
+    SavePipeline(int maxInFlight, Executor callbackExecutor) {
+        this.inFlight = new Semaphore(maxInFlight);
+        this.callbackExecutor = callbackExecutor;
+        for (Stage stage : Stage.values()) {
+            ThreadPoolExecutor executor = new ThreadPoolExecutor(stage.threads, stage.threads,
+                    30, TimeUnit.SECONDS, new ArrayBlockingQueue<>(stage.queueCapacity),
+                    new StageThreadFactory(stage), SavePipeline::blockUntilQueued);
+            executor.allowCoreThreadTimeOut(true);
+            executors.put(stage, executor);
+        }
+    }
+
+    /** Reserves a slot for a new capture; false means the pipeline is saturated and the capture should be skipped. */
+    boolean tryBegin() {
+        return inFlight.tryAcquire();
+    }
+
+    /** Gives back a slot reserved with {@link #tryBegin()} when the capture never entered the pipeline. */
+    void abort() {
+        inFlight.release();
+    }
+
+    int getQueueDepth() {
+        int depth = 0;
+        for (ThreadPoolExecutor executor : executors.values()) {
+            depth += executor.getQueue().size() + executor.getActiveCount();
+        }
+        return depth;
+    }
+
+    <T> CompletableFuture<T> start(Stage stage, Supplier<T> work) {
+        return CompletableFuture.supplyAsync(work, executors.get(stage));
+    }
+
+    <A, B> CompletableFuture<B> then(CompletableFuture<A> previous, Stage stage, Function<A, B> work) {
+        return previous.thenApplyAsync(work, executors.get(stage));
+    }
+
+    /** Completes, successfully, once everything queued on {@code stage} so far has run. */
+    CompletableFuture<Void> drained(Stage stage) {
+        return start(stage, () -> null);
+    }
+
+    /** Reports the outcome on the callback executor and frees the capture's slot. */
+    <R> void finish(CompletableFuture<R> last, BiConsumer<R, Throwable> onComplete) {
+        last.whenComplete((result, error) -> {
+            inFlight.release();
+            Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+            callbackExecutor.execute(() -> onComplete.accept(result, cause));
+        });
+    }
+
+    void shutdown() {
+        for (ThreadPoolExecutor executor : executors.values()) {
+            executor.shutdown();
+        }
+    }
+
+    private static void blockUntilQueued(Runnable task, ThreadPoolExecutor executor) {
+        if (executor.isShutdown()) {
+            throw new RejectedExecutionException("Save pipeline is shut down");
+        }
+        try {
+            executor.getQueue().put(task);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RejectedExecutionException("Interrupted while waiting for a save stage", e);
+        }
+    }
+
+    private static final class StageThreadFactory implements ThreadFactory {
+        private final Stage stage;
+        private final AtomicInteger count = new AtomicInteger();
+
+        StageThreadFactory(Stage stage) {
+            this.stage = stage;
+        }
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "save-" + stage.name().toLowerCase(Locale.US) + "-" + count.incrementAndGet());
+            thread.setPriority(Thread.NORM_PRIORITY - 1);
+            return thread;
+        }
+    }
+}
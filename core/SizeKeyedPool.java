@@ -0,0 +1,90 @@
+package com.maya.camera;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Free-list of reusable objects grouped by a size key. Keys are kept in access order so that when
+ * the pool goes over its byte budget the least recently used size (resolution) is evicted first.
+ */
+abstract class SizeKeyedPool<K, T> {
+
+    private final LinkedHashMap<K, ArrayDeque<T>> free = new LinkedHashMap<>(8, 0.75f, true);
+    private long maxBytes;
+    private long pooledBytes;
+    private long hits;
+    private long misses;
+
+    SizeKeyedPool(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    protected abstract long sizeOf(T item);
+
+    /** Called for items dropped from the pool; they will not be handed out again. */
+    protected abstract void discard(T item);
+
+    /** Returns a pooled item for {@code key}, or null if the caller has to allocate one. */
+    protected final synchronized T acquire(K key) {
+        ArrayDeque<T> items = free.get(key);
+        T item = items != null ? items.pollFirst() : null;
+        if (item == null) {
+            misses++;
+            return null;
+        }
+        hits++;
+        pooledBytes -= sizeOf(item);
+        return item;
+    }
+
+    protected final synchronized void offer(K key, T item) {
+        long size = sizeOf(item);
+        if (size > maxBytes) {
+            discard(item);
+            return;
+        }
+        ArrayDeque<T> items = free.get(key);
+        if (items == null) {
+            items = new ArrayDeque<>(2);
+            free.put(key, items);
+        }
+        items.offerFirst(item);
+        pooledBytes += size;
+        trimTo(maxBytes);
+    }
+
+    /** Evicts least recently used sizes until at most {@code bytes} are held. */
+    final synchronized void trimTo(long bytes) {
+        Iterator<Map.Entry<K, ArrayDeque<T>>> it = free.entrySet().iterator();
+        while (pooledBytes > bytes && it.hasNext()) {
+            ArrayDeque<T> items = it.next().getValue();
+            while (pooledBytes > bytes && !items.isEmpty()) {
+                T item = items.pollLast();
+                pooledBytes -= sizeOf(item);
+                discard(item);
+            }
+            if (items.isEmpty()) {
+                it.remove();
+            }
+        }
+    }
+
+    final synchronized void clear() {
+        trimTo(0);
+    }
+
+    final synchronized void setMaxBytes(long maxBytes) {
+        this.maxBytes = maxBytes;
+        trimTo(maxBytes);
+    }
+
+    final synchronized long getPooledBytes() {
+        return pooledBytes;
+    }
+
+    final synchronized String stats() {
+        return "pooled=" + (pooledBytes >> 10) + "KiB/" + (maxBytes >> 10) + "KiB hits=" + hits + " misses=" + misses;
+    }
+}
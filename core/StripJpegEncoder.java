@@ -0,0 +1,408 @@
+package com.maya.camera;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Baseline JPEG encoder (YCbCr 4:2:0, standard Huffman tables) that takes the image a strip of
+ * rows at a time and writes each 16-row band of blocks out as soon as it is complete, so memory
+ * is bounded by the image width, not its height. Rotation is stored as an EXIF orientation tag,
+ * as {@link JpegPassthrough} does, so strips are encoded in sensor order and never remapped.
+ */
+final class StripJpegEncoder {
+
+    private static final int[] ZIGZAG = {
+            0, 1, 8, 16, 9, 2, 3, 10, 17, 24, 32, 25, 18, 11, 4, 5,
+            12, 19, 26, 33, 40, 48, 41, 34, 27, 20, 13, 6, 7, 14, 21, 28,
+            35, 42, 49, 56, 57, 50, 43, 36, 29, 22, 15, 23, 30, 37, 44, 51,
+            58, 59, 52, 45, 38, 31, 39, 46, 53, 60, 61, 54, 47, 55, 62, 63
+    };
+
+    // ITU T.81 Annex K tables.
+    private static final int[] LUMA_QUANT = {
+            16, 11, 10, 16, 24, 40, 51, 61, 12, 12, 14, 19, 26, 58, 60, 55,
+            14, 13, 16, 24, 40, 57, 69, 56, 14, 17, 22, 29, 51, 87, 80, 62,
+            18, 22, 37, 56, 68, 109, 103, 77, 24, 35, 55, 64, 81, 104, 113, 92,
+            49, 64, 78, 87, 103, 121, 120, 101, 72, 92, 95, 98, 112, 100, 103, 99
+    };
+    private static final int[] CHROMA_QUANT = {
+            17, 18, 24, 47, 99, 99, 99, 99, 18, 21, 26, 66, 99, 99, 99, 99,
+            24, 26, 56, 99, 99, 99, 99, 99, 47, 66, 99, 99, 99, 99, 99, 99,
+            99, 99, 99, 99, 99, 99, 99, 99, 99, 99, 99, 99, 99, 99, 99, 99,
+            99, 99, 99, 99, 99, 99, 99, 99, 99, 99, 99, 99, 99, 99, 99, 99
+    };
+    private static final int[] DC_LUMA_BITS = {0, 1, 5, 1, 1, 1, 1, 1, 1, 0, 0, 0, 0, 0, 0, 0};
+    private static final int[] DC_CHROMA_BITS = {0, 3, 1, 1, 1, 1, 1, 1, 1, 1, 1, 0, 0, 0, 0, 0};
+    private static final int[] DC_VALUES = {0, 1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11};
+    private static final int[] AC_LUMA_BITS = {0, 2, 1, 3, 3, 2, 4, 3, 5, 5, 4, 4, 0, 0, 1, 0x7d};
+    private static final int[] AC_LUMA_VALUES = {
+            0x01, 0x02, 0x03, 0x00, 0x04, 0x11, 0x05, 0x12, 0x21, 0x31, 0x41, 0x06, 0x13, 0x51, 0x61, 0x07,
+            0x22, 0x71, 0x14, 0x32, 0x81, 0x91, 0xa1, 0x08, 0x23, 0x42, 0xb1, 0xc1, 0x15, 0x52, 0xd1, 0xf0,
+            0x24, 0x33, 0x62, 0x72, 0x82, 0x09, 0x0a, 0x16, 0x17, 0x18, 0x19, 0x1a, 0x25, 0x26, 0x27, 0x28,
+            0x29, 0x2a, 0x34, 0x35, 0x36, 0x37, 0x38, 0x39, 0x3a, 0x43, 0x44, 0x45, 0x46, 0x47, 0x48, 0x49,
+            0x4a, 0x53, 0x54, 0x55, 0x56, 0x57, 0x58, 0x59, 0x5a, 0x63, 0x64, 0x65, 0x66, 0x67, 0x68, 0x69,
+            0x6a, 0x73, 0x74, 0x75, 0x76, 0x77, 0x78, 0x79, 0x7a, 0x83, 0x84, 0x85, 0x86, 0x87, 0x88, 0x89,
+            0x8a, 0x92, 0x93, 0x94, 0x95, 0x96, 0x97, 0x98, 0x99, 0x9a, 0xa2, 0xa3, 0xa4, 0xa5, 0xa6, 0xa7,
+            0xa8, 0xa9, 0xaa, 0xb2, 0xb3, 0xb4, 0xb5, 0xb6, 0xb7, 0xb8, 0xb9, 0xba, 0xc2, 0xc3, 0xc4, 0xc5,
+            0xc6, 0xc7, 0xc8, 0xc9, 0xca, 0xd2, 0xd3, 0xd4, 0xd5, 0xd6, 0xd7, 0xd8, 0xd9, 0xda, 0xe1, 0xe2,
+            0xe3, 0xe4, 0xe5, 0xe6, 0xe7, 0xe8, 0xe9, 0xea, 0xf1, 0xf2, 0xf3, 0xf4, 0xf5, 0xf6, 0xf7, 0xf8,
+            0xf9, 0xfa
+    };
+    private static final int[] AC_CHROMA_BITS = {0, 2, 1, 2, 4, 4, 3, 4, 7, 5, 4, 4, 0, 1, 2, 0x77};
+    private static final int[] AC_CHROMA_VALUES = {
+            0x00, 0x01, 0x02, 0x03, 0x11, 0x04, 0x05, 0x21, 0x31, 0x06, 0x12, 0x41, 0x51, 0x07, 0x61, 0x71,
+            0x13, 0x22, 0x32, 0x81, 0x08, 0x14, 0x42, 0x91, 0xa1, 0xb1, 0xc1, 0x09, 0x23, 0x33, 0x52, 0xf0,
+            0x15, 0x62, 0x72, 0xd1, 0x0a, 0x16, 0x24, 0x34, 0xe1, 0x25, 0xf1, 0x17, 0x18, 0x19, 0x1a, 0x26,
+            0x27, 0x28, 0x29, 0x2a, 0x35, 0x36, 0x37, 0x38, 0x39, 0x3a, 0x43, 0x44, 0x45, 0x46, 0x47, 0x48,
+            0x49, 0x4a, 0x53, 0x54, 0x55, 0x56, 0x57, 0x58, 0x59, 0x5a, 0x63, 0x64, 0x65, 0x66, 0x67, 0x68,
+            0x69, 0x6a, 0x73, 0x74, 0x75, 0x76, 0x77, 0x78, 0x79, 0x7a, 0x82, 0x83, 0x84, 0x85, 0x86, 0x87,
+            0x88, 0x89, 0x8a, 0x92, 0x93, 0x94, 0x95, 0x96, 0x97, 0x98, 0x99, 0x9a, 0xa2, 0xa3, 0xa4, 0xa5,
+            0xa6, 0xa7, 0xa8, 0xa9, 0xaa, 0xb2, 0xb3, 0xb4, 0xb5, 0xb6, 0xb7, 0xb8, 0xb9, 0xba, 0xc2, 0xc3,
+            0xc4, 0xc5, 0xc6, 0xc7, 0xc8, 0xc9, 0xca, 0xd2, 0xd3, 0xd4, 0xd5, 0xd6, 0xd7, 0xd8, 0xd9, 0xda,
+            0xe2, 0xe3, 0xe4, 0xe5, 0xe6, 0xe7, 0xe8, 0xe9, 0xea, 0xf2, 0xf3, 0xf4, 0xf5, 0xf6, 0xf7, 0xf8,
+            0xf9, 0xfa
+    };
+    private static final double[] AAN_SCALE = {
+            1.0, 1.387039845, 1.306562965, 1.175875602, 1.0, 0.785694958, 0.541196100, 0.275899379
+    };
+
+    private static final int[][] DC_LUMA = huffmanCodes(DC_LUMA_BITS, DC_VALUES);
+    private static final int[][] DC_CHROMA = huffmanCodes(DC_CHROMA_BITS, DC_VALUES);
+    private static final int[][] AC_LUMA = huffmanCodes(AC_LUMA_BITS, AC_LUMA_VALUES);
+    private static final int[][] AC_CHROMA = huffmanCodes(AC_CHROMA_BITS, AC_CHROMA_VALUES);
+
+    private final OutputStream out;
+    private final int width;
+    private final int height;
+    private final int paddedWidth;
+    private final int[] lumaQuant = new int[64];
+    private final int[] chromaQuant = new int[64];
+    private final float[] lumaDivisors = new float[64];
+    private final float[] chromaDivisors = new float[64];
+
+    // One band of 16 rows, ARGB, padded to whole blocks by edge replication.
+    private final int[] band;
+    private int bandRows;
+    private int rowsWritten;
+
+    private final float[] block = new float[64];
+    private final int[] quantized = new int[64];
+    private int lastDcY;
+    private int lastDcCb;
+    private int lastDcCr;
+
+    private final byte[] buffer = new byte[64 * 1024];
+    private int bufferLength;
+    private long bitBuffer;
+    private int bitCount;
+
+    /** Writes the headers; rows then follow through {@link #writeRows} and {@link #finish}. */
+    StripJpegEncoder(OutputStream out, int width, int height, int quality, int rotationDegrees) throws IOException {
+        this.out = out;
+        this.width = width;
+        this.height = height;
+        this.paddedWidth = (width + 15) & ~15;
+        this.band = new int[16 * paddedWidth];
+        scaleQuant(LUMA_QUANT, quality, lumaQuant, lumaDivisors);
+        scaleQuant(CHROMA_QUANT, quality, chromaQuant, chromaDivisors);
+        writeHeaders(rotationDegrees);
+    }
+
+    /** Appends {@code rows} full-width ARGB rows from {@code pixels}, top to bottom. */
+    void writeRows(int[] pixels, int rows) throws IOException {
+        for (int r = 0; r < rows; r++) {
+            if (rowsWritten + bandRows >= height) {
+                throw new IllegalStateException("More rows than the image height " + height);
+            }
+            int dst = bandRows * paddedWidth;
+            System.arraycopy(pixels, r * width, band, dst, width);
+            int edge = band[dst + width - 1];
+            for (int x = width; x < paddedWidth; x++) {
+                band[dst + x] = edge;
+            }
+            if (++bandRows == 16) {
+                encodeBand();
+            }
+        }
+    }
+
+    /** Encodes the last partial band and writes the end-of-image marker. Doesn't close the stream. */
+    void finish() throws IOException {
+        if (rowsWritten + bandRows != height) {
+            throw new IllegalStateException("Got " + (rowsWritten + bandRows) + " of " + height + " rows");
+        }
+        if (bandRows > 0) {
+            encodeBand();
+        }
+        // Pad the last byte with ones, as the standard asks.
+        writeBits(0x7F, 7);
+        bitCount = 0;
+        bitBuffer = 0;
+        writeByte(0xFF);
+        writeByte(0xD9);
+        flush();
+    }
+
+    private void encodeBand() throws IOException {
+        // Rows past the last one repeat it.
+        for (int r = bandRows; r < 16; r++) {
+            System.arraycopy(band, (bandRows - 1) * paddedWidth, band, r * paddedWidth, paddedWidth);
+        }
+        for (int mx = 0; mx < paddedWidth; mx += 16) {
+            for (int by = 0; by < 16; by += 8) {
+                for (int bx = 0; bx < 16; bx += 8) {
+                    loadLuma(mx + bx, by);
+                    lastDcY = encodeBlock(lumaDivisors, lastDcY, DC_LUMA, AC_LUMA);
+                }
+            }
+            loadChroma(mx, 16);
+            lastDcCb = encodeBlock(chromaDivisors, lastDcCb, DC_CHROMA, AC_CHROMA);
+            loadChroma(mx, 0);
+            lastDcCr = encodeBlock(chromaDivisors, lastDcCr, DC_CHROMA, AC_CHROMA);
+        }
+        rowsWritten += bandRows;
+        bandRows = 0;
+    }
+
+    private void loadLuma(int x0, int y0) {
+        for (int y = 0; y < 8; y++) {
+            int row = (y0 + y) * paddedWidth + x0;
+            for (int x = 0; x < 8; x++) {
+                int p = band[row + x];
+                block[y * 8 + x] = 0.299f * ((p >> 16) & 0xFF) + 0.587f * ((p >> 8) & 0xFF) + 0.114f * (p & 0xFF) - 128;
+            }
+        }
+    }
+
+    // Cb (channel 16) or Cr (channel 0), averaged over 2x2 pixels.
+    private void loadChroma(int x0, int channel) {
+        for (int y = 0; y < 8; y++) {
+            int row0 = (y * 2) * paddedWidth + x0;
+            int row1 = row0 + paddedWidth;
+            for (int x = 0; x < 8; x++) {
+                int i = x * 2;
+                float sum = chroma(band[row0 + i], channel) + chroma(band[row0 + i + 1], channel)
+                        + chroma(band[row1 + i], channel) + chroma(band[row1 + i + 1], channel);
+                block[y * 8 + x] = sum / 4;
+            }
+        }
+    }
+
+    private static float chroma(int p, int channel) {
+        int r = (p >> 16) & 0xFF;
+        int g = (p >> 8) & 0xFF;
+        int b = p & 0xFF;
+        return channel == 16
+                ? -0.168736f * r - 0.331264f * g + 0.5f * b
+                : 0.5f * r - 0.418688f * g - 0.081312f * b;
+    }
+
+    private int encodeBlock(float[] divisors, int lastDc, int[][] dcTable, int[][] acTable) throws IOException {
+        forwardDct(block);
+        for (int i = 0; i < 64; i++) {
+            quantized[i] = Math.round(block[ZIGZAG[i]] * divisors[ZIGZAG[i]]);
+        }
+
+        int dc = quantized[0];
+        writeValue(dc - lastDc, dcTable, 0);
+        int run = 0;
+        for (int i = 1; i < 64; i++) {
+            int v = quantized[i];
+            if (v == 0) {
+                run++;
+                continue;
+            }
+            while (run > 15) {
+                writeBits(acTable[0][0xF0], acTable[1][0xF0]); // ZRL
+                run -= 16;
+            }
+            writeValue(v, acTable, run << 4);
+            run = 0;
+        }
+        if (run > 0) {
+            writeBits(acTable[0][0], acTable[1][0]); // EOB
+        }
+        return dc;
+    }
+
+    // Huffman code for (run, size) followed by the value's magnitude bits.
+    private void writeValue(int value, int[][] table, int runBits) throws IOException {
+        int magnitude = Math.abs(value);
+        int size = 0;
+        while (magnitude != 0) {
+            size++;
+            magnitude >>= 1;
+        }
+        int symbol = runBits | size;
+        writeBits(table[0][symbol], table[1][symbol]);
+        if (size > 0) {
+            writeBits(value < 0 ? value - 1 : value, size);
+        }
+    }
+
+    private void writeBits(int bits, int count) throws IOException {
+        bitBuffer = (bitBuffer << count) | (bits & ((1L << count) - 1));
+        bitCount += count;
+        while (bitCount >= 8) {
+            int b = (int) (bitBuffer >> (bitCount - 8)) & 0xFF;
+            bitCount -= 8;
+            writeByte(b);
+            if (b == 0xFF) {
+                writeByte(0); // Byte stuffing
+            }
+        }
+    }
+
+    private void writeByte(int b) throws IOException {
+        if (bufferLength == buffer.length) {
+            flush();
+        }
+        buffer[bufferLength++] = (byte) b;
+    }
+
+    private void writeShort(int v) throws IOException {
+        writeByte(v >> 8);
+        writeByte(v);
+    }
+
+    private void flush() throws IOException {
+        out.write(buffer, 0, bufferLength);
+        bufferLength = 0;
+    }
+
+    private void writeHeaders(int rotationDegrees) throws IOException {
+        writeShort(0xFFD8);
+        short orientation = JpegPassthrough.orientationFor(rotationDegrees);
+        if (orientation != 1) {
+            for (byte b : JpegPassthrough.minimalExif(orientation)) {
+                writeByte(b);
+            }
+        }
+
+        writeShort(0xFFDB);
+        writeShort(2 + 2 * 65);
+        writeByte(0);
+        for (int i = 0; i < 64; i++) {
+            writeByte(lumaQuant[ZIGZAG[i]]);
+        }
+        writeByte(1);
+        for (int i = 0; i < 64; i++) {
+            writeByte(chromaQuant[ZIGZAG[i]]);
+        }
+
+        writeShort(0xFFC0);
+        writeShort(17);
+        writeByte(8);
+        writeShort(height);
+        writeShort(width);
+        writeByte(3);
+        writeByte(1);
+        writeByte(0x22); // Y sampled 2x2
+        writeByte(0);
+        writeByte(2);
+        writeByte(0x11);
+        writeByte(1);
+        writeByte(3);
+        writeByte(0x11);
+        writeByte(1);
+
+        writeShort(0xFFC4);
+        writeShort(2 + 4 * 17 + DC_VALUES.length * 2 + AC_LUMA_VALUES.length + AC_CHROMA_VALUES.length);
+        writeTable(0x00, DC_LUMA_BITS, DC_VALUES);
+        writeTable(0x10, AC_LUMA_BITS, AC_LUMA_VALUES);
+        writeTable(0x01, DC_CHROMA_BITS, DC_VALUES);
+        writeTable(0x11, AC_CHROMA_BITS, AC_CHROMA_VALUES);
+
+        writeShort(0xFFDA);
+        writeShort(12);
+        writeByte(3);
+        writeByte(1);
+        writeByte(0x00);
+        writeByte(2);
+        writeByte(0x11);
+        writeByte(3);
+        writeByte(0x11);
+        writeByte(0);
+        writeByte(63);
+        writeByte(0);
+    }
+
+    private void writeTable(int classAndId, int[] bits, int[] values) throws IOException {
+        writeByte(classAndId);
+        for (int b : bits) {
+            writeByte(b);
+        }
+        for (int v : values) {
+            writeByte(v);
+        }
+    }
+
+    // IJG quality scaling; divisors fold in the AAN DCT's output scale.
+    private static void scaleQuant(int[] base, int quality, int[] quant, float[] divisors) {
+        int q = Math.max(1, Math.min(100, quality));
+        int scale = q < 50 ? 5000 / q : 200 - q * 2;
+        for (int i = 0; i < 64; i++) {
+            quant[i] = Math.max(1, Math.min(255, (base[i] * scale + 50) / 100));
+            divisors[i] = (float) (1.0 / (quant[i] * AAN_SCALE[i / 8] * AAN_SCALE[i % 8] * 8));
+        }
+    }
+
+    // Canonical codes from the bit-length counts: [0] holds codes and [1] lengths, indexed by symbol.
+    private static int[][] huffmanCodes(int[] bits, int[] values) {
+        int[][] table = new int[2][256];
+        int code = 0;
+        int k = 0;
+        for (int length = 1; length <= 16; length++) {
+            for (int i = 0; i < bits[length - 1]; i++) {
+                table[0][values[k]] = code++;
+                table[1][values[k]] = length;
+                k++;
+            }
+            code <<= 1;
+        }
+        return table;
+    }
+
+    // AAN floating-point forward DCT, in place, rows then columns (as IJG's jfdctflt).
+    private static void forwardDct(float[] d) {
+        for (int pass = 0; pass < 2; pass++) {
+            int step = pass == 0 ? 1 : 8;
+            int next = pass == 0 ? 8 : 1;
+            for (int line = 0; line < 8; line++) {
+                int o = line * next;
+                float tmp0 = d[o] + d[o + 7 * step];
+                float tmp7 = d[o] - d[o + 7 * step];
+                float tmp1 = d[o + step] + d[o + 6 * step];
+                float tmp6 = d[o + step] - d[o + 6 * step];
+                float tmp2 = d[o + 2 * step] + d[o + 5 * step];
+                float tmp5 = d[o + 2 * step] - d[o + 5 * step];
+                float tmp3 = d[o + 3 * step] + d[o + 4 * step];
+                float tmp4 = d[o + 3 * step] - d[o + 4 * step];
+
+                float tmp10 = tmp0 + tmp3;
+                float tmp13 = tmp0 - tmp3;
+                float tmp11 = tmp1 + tmp2;
+                float tmp12 = tmp1 - tmp2;
+                d[o] = tmp10 + tmp11;
+                d[o + 4 * step] = tmp10 - tmp11;
+                float z1 = (tmp12 + tmp13) * 0.707106781f;
+                d[o + 2 * step] = tmp13 + z1;
+                d[o + 6 * step] = tmp13 - z1;
+
+                tmp10 = tmp4 + tmp5;
+                tmp11 = tmp5 + tmp6;
+                tmp12 = tmp6 + tmp7;
+                float z5 = (tmp10 - tmp12) * 0.382683433f;
+                float z2 = 0.541196100f * tmp10 + z5;
+                float z4 = 1.306562965f * tmp12 + z5;
+                float z3 = tmp11 * 0.707106781f;
+                float z11 = tmp7 + z3;
+                float z13 = tmp7 - z3;
+                d[o + 5 * step] = z13 + z2;
+                d[o + 3 * step] = z13 - z2;
+                d[o + step] = z11 + z4;
+                d[o + 7 * step] = z11 - z4;
+            }
+        }
+    }
+}
@@ -0,0 +1,54 @@
+package com.maya.camera;
+
+/**
+ * How much pixel memory one capture may hold while it is filtered and re-encoded. Frames that
+ * fit are processed whole; larger ones go through strips sized from what is left. Memory
+ * pressure shrinks the budget for a while, then it recovers on its own, since nothing reports
+ * when pressure ends.
+ */
+final class TileBudget {
+
+    // Strips are whole JPEG block rows (4:2:0 MCUs are 16 rows tall).
+    private static final int ROW_ALIGN = 16;
+    private static final int MAX_STRIP_ROWS = 1024;
+    private static final long PRESSURE_NANOS = 30_000_000_000L;
+
+    private final long maxBytes;
+    private volatile int divisor = 1;
+    private volatile long pressureNanos;
+
+    TileBudget(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    long bytes() {
+        int d = divisor;
+        if (d > 1 && System.nanoTime() - pressureNanos > PRESSURE_NANOS) {
+            divisor = d = 1;
+        }
+        return maxBytes / d;
+    }
+
+    /** Cuts the budget to {@code 1/divisor} for a while; a milder signal doesn't undo a stronger one. */
+    void underPressure(int divisor) {
+        if (System.nanoTime() - pressureNanos > PRESSURE_NANOS || divisor > this.divisor) {
+            this.divisor = Math.max(1, divisor);
+        }
+        pressureNanos = System.nanoTime();
+    }
+
+    /** Whether a whole-frame decode fits: the decoded bitmap plus its rotated copy, 4 bytes a pixel each. */
+    boolean fitsWhole(int width, int height) {
+        return 8L * width * height <= bytes();
+    }
+
+    /**
+     * Rows per strip for a frame {@code width} wide. Each row costs 4 bytes a pixel in the strip
+     * bitmap and again in the int[] it is filtered in.
+     */
+    int stripRows(int width) {
+        long rows = bytes() / (8L * Math.max(1, width));
+        rows = Math.min(MAX_STRIP_ROWS, rows) / ROW_ALIGN * ROW_ALIGN;
+        return (int) Math.max(ROW_ALIGN, rows);
+    }
+}
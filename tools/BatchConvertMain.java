@@ -0,0 +1,150 @@
+package com.maya.camera;
+
+import com.itextpdf.kernel.geom.PageSize;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+import javax.imageio.ImageIO;
+
+/**
+ * Command-line front end for {@link BatchConverter}: converts every JPEG or PNG in a directory,
+ * in file-name order, with the app's filters and A4 300 DPI page layout.
+ *
+ * <pre>
+ * BatchConvertMain [options] &lt;input-dir&gt; &lt;output&gt;
+ *   --filter NAME    filter to apply (default Normal); see --list
+ *   --lut FILE       registers a .cube LUT as an extra filter, named as in the app
+ *   --single         one PDF per image into the output directory, named after the image
+ *                    (default: one multi-page PDF)
+ *   --threads N      worker threads (default: all cores)
+ *   --memory MB      budget for pages in flight (default: half the maximum heap)
+ *   --quality Q      JPEG quality of re-encoded pages (default 90)
+ *   --profile NAME   STANDARD or COMPACT (default COMPACT)
+ *   --list           prints the filter names and exits
+ * </pre>
+ */
+public final class BatchConvertMain {
+
+    private BatchConvertMain() {
+    }
+
+    public static void main(String[] args) throws IOException {
+        System.setProperty("java.awt.headless", "true");
+        // Decoding from memory; no temporary files per image.
+        ImageIO.setUseCache(false);
+
+        String filter = "Normal";
+        boolean single = false;
+        int threads = Runtime.getRuntime().availableProcessors();
+        long memoryBytes = Runtime.getRuntime().maxMemory() / 2;
+        int quality = 90;
+        PdfOutputProfile profile = PdfOutputProfile.COMPACT;
+        int i = 0;
+        String option = null;
+        try {
+            for (; i < args.length && args[i].startsWith("--"); i++) {
+                option = args[i];
+                switch (option) {
+                    case "--filter":
+                        filter = args[++i];
+                        break;
+                    case "--lut":
+                        registerLut(new File(args[++i]));
+                        break;
+                    case "--single":
+                        single = true;
+                        break;
+                    case "--threads":
+                        threads = Integer.parseInt(args[++i]);
+                        break;
+                    case "--memory":
+                        memoryBytes = Long.parseLong(args[++i]) * 1024 * 1024;
+                        break;
+                    case "--quality":
+                        quality = Integer.parseInt(args[++i]);
+                        break;
+                    case "--profile":
+                        profile = PdfOutputProfile.valueOf(args[++i].toUpperCase(Locale.US));
+                        break;
+                    case "--list":
+                        BatchConverter.filterNames().forEach(System.out::println);
+                        return;
+                    default:
+                        usage("Unknown option " + option);
+                        return;
+                }
+            }
+        } catch (ArrayIndexOutOfBoundsException e) {
+            usage("Missing value for " + option);
+            return;
+        } catch (IllegalArgumentException e) {
+            usage("Bad value for " + option + ": " + e.getMessage());
+            return;
+        }
+        if (args.length - i != 2) {
+            usage("Expected an input directory and an output");
+            return;
+        }
+        if (!BatchConverter.filterNames().contains(filter)) {
+            usage("Unknown filter " + filter);
+            return;
+        }
+        if (threads < 1 || quality < 1 || quality > 100) {
+            usage("Threads must be at least 1 and quality 1 to 100");
+            return;
+        }
+
+        File input = new File(args[i]);
+        File output = new File(args[i + 1]);
+        File[] files = input.listFiles((dir, name) -> {
+            String lower = name.toLowerCase(Locale.US);
+            return lower.endsWith(".jpg") || lower.endsWith(".jpeg") || lower.endsWith(".png");
+        });
+        if (files == null || files.length == 0) {
+            usage("No JPEG or PNG files in " + input);
+            return;
+        }
+        Arrays.sort(files);
+        List<File> images = Arrays.asList(files);
+
+        // Same page layout as the app: A4, capped at 300 DPI.
+        PdfPageLayout layout = PdfPageLayout.paper(PageSize.A4, 300, PdfPageWriter.PADDING);
+        BatchConverter converter = new BatchConverter(filter, layout, profile, quality, threads, memoryBytes);
+        System.out.printf(Locale.US, "Converting %d images with %s on %d threads, %d MB budget%n",
+                images.size(), filter, threads, memoryBytes / (1024 * 1024));
+        BatchConverter.Report report = single ? converter.convertEach(images, output) : converter.convertAll(images, output);
+        System.out.println(report);
+        if (report.failed > 0) {
+            System.exit(1);
+        }
+    }
+
+    // Named by the LUT's title, else its file name, as the app names its LUT buttons.
+    private static void registerLut(File file) {
+        try (Reader in = new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8)) {
+            ColorLut lut = ColorLut.parseCube(in);
+            String name = lut.getTitle() != null && !lut.getTitle().isEmpty()
+                    ? lut.getTitle() : file.getName().replaceFirst("(?i)\\.cube$", "");
+            if (!FilterEngine.register(name, lut)) {
+                System.err.println("Skipping LUT " + file + ": filter \"" + name + "\" already exists");
+            }
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Unreadable LUT " + file + ": " + e.getMessage(), e);
+        }
+    }
+
+    private static void usage(String problem) {
+        System.err.println(problem);
+        System.err.println("Usage: BatchConvertMain [--filter NAME] [--lut FILE] [--single] [--threads N] [--memory MB]");
+        System.err.println("                        [--quality Q] [--profile STANDARD|COMPACT] [--list] <input-dir> <output>");
+        System.exit(2);
+    }
+}
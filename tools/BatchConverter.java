@@ -0,0 +1,328 @@
+package com.maya.camera;
+
+import com.itextpdf.kernel.pdf.PdfDocument;
+import com.itextpdf.kernel.pdf.PdfWriter;
+import com.itextpdf.kernel.pdf.WriterProperties;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageTypeSpecifier;
+import javax.imageio.stream.ImageInputStream;
+
+/**
+ * Turns image files into PDF pages the way the app saves a JPEG capture: decoded no larger than
+ * the page layout keeps, filtered by {@link FilterEngine}, and embedded as a DCT stream, or as the
+ * original JPEG when nothing about it has to change. Document B/W pages are CCITT G4, as from a
+ * YUV capture.
+ *
+ * <p>Pages are rendered on a fixed pool of threads. Before a page starts, an estimate of its peak
+ * memory is taken from a shared byte budget and only given back once the page is written, so the
+ * number of pages in flight follows image size rather than thread count.
+ */
+final class BatchConverter {
+
+    /** Outcome of one run. */
+    static final class Report {
+        final int pages;
+        final int failed;
+        final long nanos;
+
+        Report(int pages, int failed, long nanos) {
+            this.pages = pages;
+            this.failed = failed;
+            this.nanos = nanos;
+        }
+
+        double pagesPerSecond() {
+            return nanos > 0 ? pages * 1e9 / nanos : 0;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US, "%d pages in %.2f s, %.1f pages/s, %d failed",
+                    pages, nanos / 1e9, pagesPerSecond(), failed);
+        }
+    }
+
+    /** Thresholds pages to CCITT G4 bilevel; not a {@link FilterEngine} colour filter. */
+    static final String DOCUMENT_BW = "Document B/W";
+
+    private static final int KIB = 1024;
+
+    private final String filter;
+    private final ColorTransform transform;
+    private final PdfPageLayout layout;
+    private final WriterProperties writerProperties;
+    private final int jpegQuality;
+    private final int threads;
+    // In KiB, so a budget of many gigabytes still fits the semaphore.
+    private final int budgetKib;
+
+    BatchConverter(String filter, PdfPageLayout layout, PdfOutputProfile profile, int jpegQuality, int threads, long memoryBytes) {
+        this.filter = filter;
+        this.transform = FilterEngine.forName(filter);
+        this.layout = layout;
+        this.writerProperties = profile.apply(new WriterProperties());
+        this.jpegQuality = jpegQuality;
+        this.threads = threads;
+        this.budgetKib = (int) Math.max(1, Math.min(Integer.MAX_VALUE, memoryBytes / KIB));
+    }
+
+    /** Every filter name {@link #render} accepts, sorted. */
+    static List<String> filterNames() {
+        TreeSet<String> names = new TreeSet<>(FilterEngine.filterNames());
+        names.add(DOCUMENT_BW);
+        return new ArrayList<>(names);
+    }
+
+    /**
+     * Writes one single-page PDF per image into {@code directory}, named after the image without
+     * its extension, or with it where two images would otherwise share a name.
+     */
+    Report convertEach(List<File> images, File directory) throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Cannot create output directory " + directory);
+        }
+        // Lower case, so a.JPG and a.jpg still collide on case-insensitive file systems.
+        Map<String, Integer> baseNames = new HashMap<>();
+        for (File image : images) {
+            baseNames.merge(baseName(image).toLowerCase(Locale.US), 1, Integer::sum);
+        }
+        Semaphore budget = new Semaphore(budgetKib);
+        AtomicInteger failed = new AtomicInteger();
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        long start = System.nanoTime();
+        try {
+            CompletableFuture<?>[] pages = new CompletableFuture<?>[images.size()];
+            for (int i = 0; i < pages.length; i++) {
+                File image = images.get(i);
+                String base = baseName(image);
+                String name = baseNames.get(base.toLowerCase(Locale.US)) > 1 ? image.getName() : base;
+                File output = new File(directory, name + ".pdf");
+                int permits = acquire(budget, image);
+                pages[i] = CompletableFuture.runAsync(() -> {
+                    try {
+                        writePdf(render(image), output);
+                    } catch (IOException | RuntimeException e) {
+                        failed.incrementAndGet();
+                        output.delete();
+                        System.err.println("Failed to convert " + image + ": " + e);
+                    } finally {
+                        budget.release(permits);
+                    }
+                }, pool);
+            }
+            CompletableFuture.allOf(pages).join();
+        } finally {
+            pool.shutdown();
+        }
+        return new Report(images.size() - failed.get(), failed.get(), System.nanoTime() - start);
+    }
+
+    /**
+     * Writes all images, in list order, as the pages of one PDF. Pages render in parallel; one
+     * writer thread adds each to the document as soon as the pages before it are in.
+     */
+    Report convertAll(List<File> images, File output) throws IOException {
+        Semaphore budget = new Semaphore(budgetKib);
+        AtomicInteger failed = new AtomicInteger();
+        AtomicReference<RuntimeException> writeError = new AtomicReference<>();
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        ExecutorService writer = Executors.newSingleThreadExecutor();
+        long start = System.nanoTime();
+        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(output), 256 * KIB);
+             PdfDocument pdf = new PdfDocument(new PdfWriter(out, writerProperties))) {
+            CompletableFuture<Void> written = CompletableFuture.completedFuture(null);
+            for (File image : images) {
+                // Taken in page order, so the writer never waits on a page that can't get memory.
+                int permits = acquire(budget, image);
+                CompletableFuture<PageImage> rendered = CompletableFuture.supplyAsync(() -> {
+                    try {
+                        return render(image);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                }, pool);
+                written = written.thenCombineAsync(rendered.handle((page, error) -> {
+                    if (error != null) {
+                        failed.incrementAndGet();
+                        System.err.println("Failed to convert " + image + ": " + unwrap(error));
+                    }
+                    return page;
+                }), (ignored, page) -> {
+                    // Never fails, so every later page still runs and hands its memory back.
+                    try {
+                        if (page != null && writeError.get() == null) {
+                            PdfPageWriter.addImagePage(pdf, page, layout);
+                        }
+                    } catch (RuntimeException e) {
+                        writeError.compareAndSet(null, e);
+                    } finally {
+                        budget.release(permits);
+                    }
+                    return null;
+                }, writer);
+            }
+            written.join();
+            if (writeError.get() != null) {
+                throw new IOException("Failed to write " + output, writeError.get());
+            }
+            if (failed.get() == images.size()) {
+                throw new IOException("No page could be converted");
+            }
+        } catch (IOException | RuntimeException e) {
+            output.delete();
+            throw e;
+        } finally {
+            pool.shutdown();
+            writer.shutdown();
+        }
+        return new Report(images.size() - failed.get(), failed.get(), System.nanoTime() - start);
+    }
+
+    /** Renders one image as a page image for {@link #layout}. */
+    PageImage render(File file) throws IOException {
+        byte[] bytes = Files.readAllBytes(file.toPath());
+        boolean jpeg = bytes.length > 2 && (bytes[0] & 0xFF) == 0xFF && (bytes[1] & 0xFF) == 0xD8;
+        int rotationDegrees = jpeg ? JpegPassthrough.rotationOf(bytes) : 0;
+        boolean binarize = DOCUMENT_BW.equals(filter);
+
+        ArgbImage image;
+        try (ImageInputStream in = ImageIO.createImageInputStream(new ByteArrayInputStream(bytes))) {
+            ImageReader reader = reader(in, file);
+            try {
+                int width = reader.getWidth(0);
+                int height = reader.getHeight(0);
+                boolean swap = rotationDegrees % 180 != 0;
+                float scale = layout.resampleScale(swap ? height : width, swap ? width : height);
+                if (jpeg && scale >= 1f && transform.isIdentity() && !binarize) {
+                    // Already within the target DPI: embed the JPEG without decoding it.
+                    return new PageImage(PageImage.JPEG, width, height, rotationDegrees, bytes);
+                }
+                // The decoder skips whole pixels, as inSampleSize does; the box filter takes the rest.
+                int sample = Math.max(1, (int) (1f / scale));
+                image = decode(reader, sample);
+                image = image.downscale(Math.min(1f, scale * sample)).rotate(rotationDegrees);
+            } finally {
+                reader.dispose();
+            }
+        }
+
+        if (binarize) {
+            return AdaptiveBinarizer.binarize(image.toLuma()).toPageImage();
+        }
+        FilterEngine.apply(transform, image);
+        ByteArrayOutputStream encoded = new ByteArrayOutputStream(image.width * image.height / 4);
+        StripJpegEncoder encoder = new StripJpegEncoder(encoded, image.width, image.height, jpegQuality, 0);
+        encoder.writeRows(image.pixels, image.height);
+        encoder.finish();
+        return new PageImage(PageImage.JPEG, image.width, image.height, 0, encoded.toByteArray());
+    }
+
+    private void writePdf(PageImage page, File output) throws IOException {
+        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(output), 256 * KIB);
+             PdfDocument pdf = new PdfDocument(new PdfWriter(out, writerProperties))) {
+            PdfPageWriter.addImagePage(pdf, page, layout);
+        }
+    }
+
+    // Blocks until the page's estimated peak fits the budget; a page larger than the whole budget
+    // waits for everything else and then runs alone.
+    private int acquire(Semaphore budget, File image) {
+        int permits = (int) Math.min(budgetKib, Math.max(1, estimateBytes(image) / KIB));
+        budget.acquireUninterruptibly(permits);
+        return permits;
+    }
+
+    // File bytes, the subsampled ARGB raster, its box-filtered and rotated copies, and the encoded page.
+    private long estimateBytes(File file) {
+        long fileBytes = file.length();
+        try (ImageInputStream in = ImageIO.createImageInputStream(file)) {
+            ImageReader reader = reader(in, file);
+            try {
+                int width = reader.getWidth(0);
+                int height = reader.getHeight(0);
+                // Either orientation; subsampling can leave up to twice the target size in each direction.
+                float factor = Math.min(1f, 2 * Math.max(layout.resampleScale(width, height), layout.resampleScale(height, width)));
+                long decoded = (long) Math.ceil(width * factor) * (long) Math.ceil(height * factor);
+                return 2 * fileBytes + 12 * decoded;
+            } finally {
+                reader.dispose();
+            }
+        } catch (IOException e) {
+            // Fails again, and is reported, when the page is rendered.
+            return 2 * fileBytes;
+        }
+    }
+
+    private static ImageReader reader(ImageInputStream in, File file) throws IOException {
+        Iterator<ImageReader> readers = in != null ? ImageIO.getImageReaders(in) : null;
+        if (readers == null || !readers.hasNext()) {
+            throw new IOException("Unsupported image " + file);
+        }
+        ImageReader reader = readers.next();
+        reader.setInput(in, true, true);
+        return reader;
+    }
+
+    // Every sample-th pixel in each direction. Straight into an int RGB raster, like ImageIoCodec,
+    // when the reader offers one; gray or alpha images are converted afterwards.
+    private static ArgbImage decode(ImageReader reader, int sample) throws IOException {
+        ImageReadParam param = reader.getDefaultReadParam();
+        param.setSourceSubsampling(sample, sample, 0, 0);
+        for (Iterator<ImageTypeSpecifier> types = reader.getImageTypes(0); types.hasNext(); ) {
+            ImageTypeSpecifier type = types.next();
+            if (type.getBufferedImageType() == BufferedImage.TYPE_INT_RGB) {
+                param.setDestinationType(type);
+                break;
+            }
+        }
+        BufferedImage decoded = reader.read(0, param);
+        int width = decoded.getWidth();
+        int height = decoded.getHeight();
+        if (decoded.getType() == BufferedImage.TYPE_INT_RGB) {
+            return new ArgbImage(width, height, ((DataBufferInt) decoded.getRaster().getDataBuffer()).getData());
+        }
+        return new ArgbImage(width, height, decoded.getRGB(0, 0, width, height, null, 0, width));
+    }
+
+    private static String baseName(File file) {
+        String name = file.getName();
+        int dot = name.lastIndexOf('.');
+        return dot > 0 ? name.substring(0, dot) : name;
+    }
+
+    private static Throwable unwrap(Throwable error) {
+        while ((error instanceof CompletionException || error instanceof UncheckedIOException) && error.getCause() != null) {
+            error = error.getCause();
+        }
+        return error;
+    }
+}